@@ -0,0 +1,64 @@
+package com.nullptr.files;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// The application without its web server, on a fresh SQLite database and upload directory, so
+// benchmarks go through the real services, executors and storage.
+public final class BenchmarkContext implements AutoCloseable {
+
+    private final Path dir;
+    private final ConfigurableApplicationContext context;
+
+    // properties are name=value pairs that override application.properties
+    public BenchmarkContext(String... properties) throws IOException {
+        dir = Files.createTempDirectory("files-jmh");
+        List<String> args = new ArrayList<>(List.of(
+                "--spring.main.web-application-type=none",
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:sqlite:" + dir.resolve("file.db") + "?journal_mode=WAL&synchronous=FULL&busy_timeout=10000&cache_size=-16000",
+                "--file.upload-dir=" + dir.resolve("uploads"),
+                // so the "text" content of the transfer benchmarks is stored compressed
+                "--file.compression.enabled=true"));
+        for (String property : properties) {
+            args.add("--" + property);
+        }
+        context = SpringApplication.run(FilesApplication.class, args.toArray(String[]::new));
+    }
+
+    // "text" is log lines that compress well; "binary" is random bytes, which are stored as they are.
+    public static byte[] content(String kind, int size) {
+        byte[] content = new byte[size];
+        if (kind.equals("binary")) {
+            new Random(size).nextBytes(content);
+            return content;
+        }
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; lines.length() < size; i++) {
+            lines.append("2024-06-30T12:00:").append(i % 60).append(" INFO request ").append(i).append(" served in ").append(i % 97).append("ms\n");
+        }
+        System.arraycopy(lines.toString().getBytes(StandardCharsets.US_ASCII), 0, content, 0, size);
+        return content;
+    }
+
+    public <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        FileSystemUtils.deleteRecursively(dir);
+    }
+}
@@ -0,0 +1,70 @@
+package com.nullptr.files.repository;
+
+import com.nullptr.files.BenchmarkContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+// Title lookups at random against a populated SQLite database, with and without the metadata cache.
+// Rows are inserted after startup, so the search index stays empty and does not count against memory.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindByTitleBenchmark {
+
+    private static final int INSERT_CHUNK = 10_000;
+
+    @Param({"10000", "1000000"})
+    private int rows;
+
+    @Param({"none", "caffeine"})
+    private String cache;
+
+    private BenchmarkContext context;
+    private FileMetadataRepository fileMetadataRepository;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new BenchmarkContext("spring.cache.type=" + cache);
+        fileMetadataRepository = context.getBean(FileMetadataRepository.class);
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        TransactionTemplate transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        Timestamp uploadTime = Timestamp.valueOf(LocalDateTime.of(2024, 6, 30, 12, 0));
+        for (long first = 1; first <= rows; first += INSERT_CHUNK) {
+            List<Long> ids = LongStream.range(first, Math.min(first + INSERT_CHUNK, rows + 1L)).boxed().toList();
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(
+                    "INSERT INTO file_metadata (id, filename, title, description, upload_time) VALUES (?, ?, ?, ?, ?)",
+                    ids, ids.size(), (ps, id) -> {
+                        ps.setLong(1, id);
+                        ps.setString(2, "file-" + id + ".txt");
+                        ps.setString(3, "title-" + id);
+                        ps.setString(4, "benchmark row " + id);
+                        ps.setTimestamp(5, uploadTime);
+                    }));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public Object findByTitle() {
+        return fileMetadataRepository.findByTitle("title-" + (1 + ThreadLocalRandom.current().nextInt(rows))).orElseThrow();
+    }
+}
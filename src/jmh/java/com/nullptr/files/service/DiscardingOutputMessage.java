@@ -0,0 +1,39 @@
+package com.nullptr.files.service;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+
+import java.io.OutputStream;
+
+// Response sink that only counts what is written to it.
+class DiscardingOutputMessage implements HttpOutputMessage {
+
+    private final HttpHeaders headers = new HttpHeaders();
+    private long written;
+
+    private final OutputStream body = new OutputStream() {
+        @Override
+        public void write(int b) {
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            written += len;
+        }
+    };
+
+    @Override
+    public OutputStream getBody() {
+        return body;
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+
+    long getWritten() {
+        return written;
+    }
+}
@@ -0,0 +1,70 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.BenchmarkContext;
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.transfer.ConditionalHeaders;
+import com.nullptr.files.transfer.FileRegionHttpMessageConverter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Whole-file downloads, from the title lookup through writing the body.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    private static final String TITLE = "download";
+
+    @Param({"4096", "1048576", "67108864"})
+    private int size;
+
+    @Param({"binary", "text"})
+    private String content;
+
+    private FileRegionHttpMessageConverter converter;
+    private BenchmarkContext context;
+    private FileStorageService fileStorageService;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        fileStorageService = context.getBean(FileStorageService.class);
+        // the application's own channel pool, so channels stay open across downloads as they do in production
+        converter = new FileRegionHttpMessageConverter(new SimpleMeterRegistry(), TransferScheduler.unlimited(), context.getBean(FileChannelPool.class));
+        fileStorageService.save(new MockMultipartFile("file", "download.bin", null, BenchmarkContext.content(content, size)), TITLE, "benchmark").join();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        return send(fileStorageService.loadByTitle(TITLE, null, null, ConditionalHeaders.NONE).join());
+    }
+
+    // text is sent as stored, binary is the same as download
+    @Benchmark
+    public long downloadAcceptingGzip() throws IOException {
+        return send(fileStorageService.loadByTitle(TITLE, null, "gzip", ConditionalHeaders.NONE).join());
+    }
+
+    long send(ResponseEntity<?> response) throws IOException {
+        DiscardingOutputMessage outputMessage = new DiscardingOutputMessage();
+        converter.write(response.getBody(), null, outputMessage);
+        return outputMessage.getWritten();
+    }
+}
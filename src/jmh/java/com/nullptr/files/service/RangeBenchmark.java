@@ -0,0 +1,63 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.BenchmarkContext;
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.transfer.ConditionalHeaders;
+import com.nullptr.files.transfer.FileRegionHttpMessageConverter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// Single ranges at random offsets in a 64MB file, as a resuming or seeking client asks for them.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RangeBenchmark {
+
+    private static final String TITLE = "range";
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+    @Param({"4096", "65536", "1048576"})
+    private int rangeSize;
+
+    @Param({"binary", "text"})
+    private String content;
+
+    private FileRegionHttpMessageConverter converter;
+    private BenchmarkContext context;
+    private FileStorageService fileStorageService;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        fileStorageService = context.getBean(FileStorageService.class);
+        // the application's own channel pool, so channels stay open across downloads as they do in production
+        converter = new FileRegionHttpMessageConverter(new SimpleMeterRegistry(), TransferScheduler.unlimited(), context.getBean(FileChannelPool.class));
+        fileStorageService.save(new MockMultipartFile("file", "range.bin", null, BenchmarkContext.content(content, FILE_SIZE)), TITLE, "benchmark").join();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public long range() throws IOException {
+        long start = ThreadLocalRandom.current().nextLong(FILE_SIZE - rangeSize);
+        String rangeHeader = "bytes=" + start + "-" + (start + rangeSize - 1);
+        DiscardingOutputMessage outputMessage = new DiscardingOutputMessage();
+        converter.write(fileStorageService.loadByTitle(TITLE, rangeHeader, null, ConditionalHeaders.NONE).join().getBody(), null, outputMessage);
+        return outputMessage.getWritten();
+    }
+}
@@ -0,0 +1,65 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.BenchmarkContext;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Uploads of distinct content, so every one is hashed, stored and gets its own blob row. Each
+// operation leaves its file behind, so iterations are kept short.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"4096", "1048576"})
+    private int size;
+
+    @Param({"binary", "text"})
+    private String content;
+
+    private final AtomicLong uploads = new AtomicLong();
+    private BenchmarkContext context;
+    private FileStorageService fileStorageService;
+    private byte[] template;
+
+    @Setup
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        fileStorageService = context.getBean(FileStorageService.class);
+        template = BenchmarkContext.content(content, size);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String save() {
+        return upload();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String saveConcurrent() {
+        return upload();
+    }
+
+    private String upload() {
+        long upload = uploads.incrementAndGet();
+        byte[] bytes = template.clone();
+        ByteBuffer.wrap(bytes).putLong(upload);
+        return fileStorageService.save(new MockMultipartFile("file", "upload.bin", null, bytes), "upload-" + upload, "benchmark").join();
+    }
+}
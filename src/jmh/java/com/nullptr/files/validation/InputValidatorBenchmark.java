@@ -0,0 +1,42 @@
+package com.nullptr.files.validation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Every request runs its title and description through the validator. isValid is the keyword automaton
+// in use; pattern is the regex it replaced, for comparison.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputValidatorBenchmark {
+
+    private static final Map<String, String> INPUTS = Map.of(
+            "title", "Quarterly Report Q2 2024",
+            "description", "Financial summary for the second quarter, covering revenue by region, operating costs and the outlook for the rest of the year. ".repeat(8),
+            "injection", "report'; DROP TABLE file_metadata; --");
+
+    @Param({"title", "description", "injection"})
+    private String input;
+
+    private String value;
+
+    @Setup
+    public void setUp() {
+        value = INPUTS.get(input);
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return InputValidator.isValid(value);
+    }
+
+    @Benchmark
+    public boolean pattern() {
+        return !InputValidator.matchesPattern(value);
+    }
+}
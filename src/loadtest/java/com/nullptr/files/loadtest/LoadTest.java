@@ -0,0 +1,155 @@
+package com.nullptr.files.loadtest;
+
+import com.nullptr.files.FilesApplication;
+
+import org.HdrHistogram.Histogram;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Boots the application on a local port with its own database and upload directory, seeds it with
+// files, then drives each operation at a fixed arrival rate for the configured duration. Arrivals are
+// open-loop: a request is sent when it is due whether or not earlier ones have finished, as with real
+// clients, so a slow server shows up as latency rather than as a lower request rate.
+public class LoadTest {
+
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final LoadTestConfig config;
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final Map<Operation, OperationStats> stats = new EnumMap<>(Operation.class);
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private Requests requests;
+
+    LoadTest(LoadTestConfig config) {
+        this.config = config;
+        for (Operation operation : Operation.values()) {
+            stats.put(operation, new OperationStats());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(LoadTestConfig.parse(args)).run();
+    }
+
+    void run() throws Exception {
+        Path dir = Files.createTempDirectory("files-loadtest");
+        List<String> appArgs = new ArrayList<>(List.of(
+                "--server.port=" + config.port(),
+                "--spring.main.banner-mode=off",
+                "--logging.level.root=WARN",
+                "--spring.jpa.show-sql=false",
+                "--spring.datasource.url=jdbc:sqlite:" + dir.resolve("file.db") + "?journal_mode=WAL&synchronous=FULL&busy_timeout=10000&cache_size=-16000",
+                "--file.upload-dir=" + dir.resolve("uploads")));
+        appArgs.addAll(config.appArgs());
+        try (ConfigurableApplicationContext context = SpringApplication.run(FilesApplication.class, appArgs.toArray(String[]::new))) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            requests = new Requests("http://localhost:" + port, config);
+            System.out.printf("Seeding %d files of %s on port %d%n", config.files(), config.fileSize(), port);
+            for (int n = 0; n < config.files(); n++) {
+                HttpResponse<String> response = client.send(requests.seed(n), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() != 200) {
+                    throw new IllegalStateException("Seeding failed with " + response.statusCode() + ": " + response.body());
+                }
+            }
+
+            long start = System.nanoTime();
+            long measureFrom = start + config.warmup().toNanos();
+            long end = measureFrom + config.duration().toNanos();
+            List<Thread> generators = new ArrayList<>();
+            for (Map.Entry<Operation, Double> rate : config.rates().entrySet()) {
+                if (rate.getValue() > 0) {
+                    generators.add(Thread.ofPlatform().name("load-" + rate.getKey().name().toLowerCase(Locale.ROOT))
+                            .start(() -> generate(rate.getKey(), rate.getValue(), start, end)));
+                }
+            }
+            System.out.printf("Warming up for %s, then measuring for %s%n", config.warmup(), config.duration());
+            LockSupport.parkNanos(measureFrom - System.nanoTime());
+            stats.values().forEach(OperationStats::reset);
+            for (Thread generator : generators) {
+                generator.join();
+            }
+            // requests due before the end still count, however long they take
+            long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+            while (inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+                Thread.sleep(10);
+            }
+            report(inFlight.get());
+        } finally {
+            FileSystemUtils.deleteRecursively(dir);
+        }
+    }
+
+    private void generate(Operation operation, double rate, long start, long end) {
+        OperationStats operationStats = stats.get(operation);
+        double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        long due = start;
+        while (true) {
+            due += (long) (config.poisson()
+                    ? -Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos
+                    : meanIntervalNanos);
+            if (due >= end) {
+                return;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (inFlight.incrementAndGet() > config.maxInFlight()) {
+                inFlight.decrementAndGet();
+                operationStats.drop();
+                continue;
+            }
+            long intendedStart = due;
+            client.sendAsync(requests.next(operation), HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, failure) -> {
+                        operationStats.record(intendedStart, failure == null && response.statusCode() / 100 == 2);
+                        inFlight.decrementAndGet();
+                    });
+        }
+    }
+
+    private void report(int unfinished) {
+        double seconds = config.duration().toNanos() / 1e9;
+        System.out.println();
+        System.out.printf("%-18s %9s %9s %8s %8s %9s %9s %9s %9s%n",
+                "endpoint", "requests", "req/s", "errors", "dropped", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Operation operation : Operation.values()) {
+            if (config.rates().get(operation) <= 0) {
+                continue;
+            }
+            OperationStats.Snapshot snapshot = stats.get(operation).snapshot();
+            Histogram latencies = snapshot.latencies();
+            System.out.printf("%-18s %9d %9.1f %8d %8d %9.2f %9.2f %9.2f %9.2f%n",
+                    operation.endpoint(), latencies.getTotalCount(), latencies.getTotalCount() / seconds,
+                    snapshot.errors(), snapshot.dropped(),
+                    millis(latencies.getValueAtPercentile(50)), millis(latencies.getValueAtPercentile(99)),
+                    millis(latencies.getValueAtPercentile(99.9)), millis(latencies.getMaxValue()));
+        }
+        if (unfinished > 0) {
+            System.out.printf("%d requests were still unfinished after %ds and are not counted%n",
+                    unfinished, TimeUnit.NANOSECONDS.toSeconds(DRAIN_TIMEOUT_NANOS));
+        }
+    }
+
+    private static double millis(long micros) {
+        return micros / 1000.0;
+    }
+}
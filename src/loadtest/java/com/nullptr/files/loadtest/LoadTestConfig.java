@@ -0,0 +1,84 @@
+package com.nullptr.files.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Parsed from name=value arguments; see the Load Test section of ReadMe.md. Arguments named
+// app.<property> are passed to the application as --<property>.
+record LoadTestConfig(Duration duration,
+                      Duration warmup,
+                      Map<Operation, Double> rates,
+                      boolean poisson,
+                      int maxInFlight,
+                      int files,
+                      DataSize fileSize,
+                      DataSize uploadSize,
+                      DataSize rangeSize,
+                      boolean compressible,
+                      int port,
+                      List<String> appArgs) {
+
+    static LoadTestConfig parse(String... args) {
+        Map<String, String> values = new HashMap<>(Map.of(
+                "duration", "60s",
+                "warmup", "10s",
+                "arrivals", "poisson",
+                "max-in-flight", "2000",
+                "files", "100",
+                "file-size", "1MB",
+                "upload-size", "256KB",
+                "range-size", "64KB",
+                "content", "text",
+                "port", "0"));
+        Map<Operation, Double> rates = new EnumMap<>(Operation.class);
+        rates.put(Operation.UPLOAD, 5.0);
+        rates.put(Operation.DOWNLOAD, 50.0);
+        rates.put(Operation.RANGE, 50.0);
+        rates.put(Operation.SEARCH, 20.0);
+        List<String> appArgs = new ArrayList<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + arg);
+            }
+            String name = arg.substring(0, equals);
+            String value = arg.substring(equals + 1);
+            if (name.startsWith("app.")) {
+                appArgs.add("--" + name.substring(4) + "=" + value);
+            } else if (name.startsWith("rate.")) {
+                rates.put(Operation.named(name.substring(5)), Double.parseDouble(value));
+            } else if (values.containsKey(name)) {
+                values.put(name, value);
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + name);
+            }
+        }
+        String arrivals = values.get("arrivals");
+        if (!arrivals.equals("poisson") && !arrivals.equals("uniform")) {
+            throw new IllegalArgumentException("arrivals must be poisson or uniform: " + arrivals);
+        }
+        if (Integer.parseInt(values.get("files")) < 1) {
+            throw new IllegalArgumentException("files must be at least 1");
+        }
+        return new LoadTestConfig(
+                DurationStyle.detectAndParse(values.get("duration")),
+                DurationStyle.detectAndParse(values.get("warmup")),
+                rates,
+                arrivals.equals("poisson"),
+                Integer.parseInt(values.get("max-in-flight")),
+                Integer.parseInt(values.get("files")),
+                DataSize.parse(values.get("file-size")),
+                DataSize.parse(values.get("upload-size")),
+                DataSize.parse(values.get("range-size")),
+                values.get("content").equals("text"),
+                Integer.parseInt(values.get("port")),
+                appArgs);
+    }
+}
@@ -0,0 +1,24 @@
+package com.nullptr.files.loadtest;
+
+import java.util.Locale;
+
+enum Operation {
+    UPLOAD("POST /f/ul"),
+    DOWNLOAD("GET /f/dl"),
+    RANGE("GET /f/dl (Range)"),
+    SEARCH("POST /f/fd");
+
+    private final String endpoint;
+
+    Operation(String endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    String endpoint() {
+        return endpoint;
+    }
+
+    static Operation named(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,42 @@
+package com.nullptr.files.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Latency is measured from when a request was due to be sent, not when it was sent, so time spent
+// queued behind a slow server counts against it.
+class OperationStats {
+
+    private final Recorder latencies = new Recorder(3);
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    void record(long intendedStartNanos, boolean success) {
+        latencies.recordValue(Math.max(0, (System.nanoTime() - intendedStartNanos) / 1000));
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    // Not sent because max-in-flight requests were already outstanding.
+    void drop() {
+        dropped.increment();
+    }
+
+    // Forgets everything recorded so far, at the end of the warmup.
+    void reset() {
+        latencies.reset();
+        errors.reset();
+        dropped.reset();
+    }
+
+    Snapshot snapshot() {
+        return new Snapshot(latencies.getIntervalHistogram(), errors.sum(), dropped.sum());
+    }
+
+    // latencies are in microseconds
+    record Snapshot(Histogram latencies, long errors, long dropped) {
+    }
+}
@@ -0,0 +1,112 @@
+package com.nullptr.files.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Builds the requests each operation sends. Seeded files are titled seed-<n>; their descriptions and
+// text content draw on WORDS so searches find something.
+class Requests {
+
+    static final List<String> WORDS = List.of("annual", "report", "invoice", "photo", "backup", "quarterly",
+            "summary", "contract", "draft", "release", "archive", "budget", "meeting", "notes", "design", "review");
+
+    private static final String BOUNDARY = "loadtest-boundary";
+
+    private final String baseUrl;
+    private final LoadTestConfig config;
+    private final byte[] uploadTemplate;
+    private final AtomicLong uploads = new AtomicLong();
+
+    Requests(String baseUrl, LoadTestConfig config) {
+        this.baseUrl = baseUrl;
+        this.config = config;
+        this.uploadTemplate = content(Math.toIntExact(config.uploadSize().toBytes()), config.compressible(), new Random(1));
+    }
+
+    HttpRequest seed(int n) {
+        Random random = new Random(n);
+        byte[] content = content(Math.toIntExact(config.fileSize().toBytes()), config.compressible(), random);
+        return upload("seed-" + n, description(random), content);
+    }
+
+    HttpRequest next(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return switch (operation) {
+            case UPLOAD -> {
+                long n = uploads.incrementAndGet();
+                byte[] content = uploadTemplate.clone();
+                // distinct content, so every upload is stored rather than deduplicated
+                ByteBuffer.wrap(content).putLong(0, n);
+                yield upload("upload-" + n + "-" + random.nextInt(Integer.MAX_VALUE), description(random), content);
+            }
+            case DOWNLOAD -> HttpRequest.newBuilder(URI.create(baseUrl + "/f/dl/seed-" + random.nextInt(config.files()))).GET().build();
+            case RANGE -> {
+                long fileSize = config.fileSize().toBytes();
+                long rangeSize = Math.min(config.rangeSize().toBytes(), fileSize);
+                long start = random.nextLong(fileSize - rangeSize + 1);
+                yield HttpRequest.newBuilder(URI.create(baseUrl + "/f/dl/seed-" + random.nextInt(config.files())))
+                        .header("Range", "bytes=" + start + "-" + (start + rangeSize - 1))
+                        .GET()
+                        .build();
+            }
+            case SEARCH -> {
+                String first = WORDS.get(random.nextInt(WORDS.size()));
+                String second = WORDS.get(random.nextInt(WORDS.size()));
+                String query = first + " " + second.substring(0, 3) + "*";
+                yield HttpRequest.newBuilder(URI.create(baseUrl + "/f/fd"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("{\"query\": \"" + query + "\", \"limit\": 50}"))
+                        .build();
+            }
+        };
+    }
+
+    private HttpRequest upload(String title, String description, byte[] content) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 512);
+        body.writeBytes(field("title", title));
+        body.writeBytes(field("description", description));
+        body.writeBytes(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + title + ".bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/f/ul"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    private static byte[] field(String name, String value) {
+        return ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String description(Random random) {
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            description.append(i > 0 ? " " : "").append(WORDS.get(random.nextInt(WORDS.size())));
+        }
+        return description.toString();
+    }
+
+    private static byte[] content(int size, boolean compressible, Random random) {
+        byte[] content = new byte[size];
+        if (!compressible) {
+            random.nextBytes(content);
+            return content;
+        }
+        StringBuilder lines = new StringBuilder(size + 100);
+        for (int i = 0; lines.length() < size; i++) {
+            lines.append("2024-06-30T12:00:").append(i % 60).append(" INFO ").append(WORDS.get(random.nextInt(WORDS.size())))
+                    .append(" request ").append(i).append(" served in ").append(random.nextInt(100)).append("ms\n");
+        }
+        System.arraycopy(lines.toString().getBytes(StandardCharsets.US_ASCII), 0, content, 0, size);
+        return content;
+    }
+}
@@ -0,0 +1,25 @@
+package com.nullptr.files.concurrent;
+
+import org.springframework.core.task.TaskRejectedException;
+
+import java.time.Duration;
+
+public class BulkheadFullException extends TaskRejectedException {
+
+    private final String bulkhead;
+    private final Duration retryAfter;
+
+    public BulkheadFullException(String bulkhead, Duration retryAfter) {
+        super("Bulkhead " + bulkhead + " is saturated");
+        this.bulkhead = bulkhead;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getBulkhead() {
+        return bulkhead;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
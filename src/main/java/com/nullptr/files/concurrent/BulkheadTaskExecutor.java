@@ -0,0 +1,172 @@
+package com.nullptr.files.concurrent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Runs at most maxConcurrent tasks of one operation type on the delegate and queues the rest.
+// A task is rejected up front, rather than left to time out in the queue, when the queue is full
+// or its expected wait exceeds maxQueueWait. The expected wait is the larger of how long the oldest
+// queued task has waited and the queue length times the average task duration per slot.
+public class BulkheadTaskExecutor implements AsyncTaskExecutor, DisposableBean {
+
+    // weight of the latest task in the average task duration
+    private static final double SERVICE_TIME_WEIGHT = 0.1;
+
+    private final String name;
+    private final Executor delegate;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxQueueWaitNanos;
+    private final LongSupplier nanoClock;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ArrayDeque<Queued> queue = new ArrayDeque<>();
+    private int active;
+    private double averageServiceNanos;
+
+    private final Timer queueWait;
+    private final Counter rejected;
+
+    public BulkheadTaskExecutor(String name, Executor delegate, int maxConcurrent, int maxQueue, Duration maxQueueWait,
+                                MeterRegistry meterRegistry) {
+        this(name, delegate, maxConcurrent, maxQueue, maxQueueWait, meterRegistry, System::nanoTime);
+    }
+
+    BulkheadTaskExecutor(String name, Executor delegate, int maxConcurrent, int maxQueue, Duration maxQueueWait,
+                         MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        if (maxConcurrent < 1 || maxQueue < 0) {
+            throw new IllegalArgumentException("Bulkhead " + name + " needs at least one slot and a non-negative queue");
+        }
+        this.name = name;
+        this.delegate = delegate;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxQueueWaitNanos = maxQueueWait.toNanos();
+        this.nanoClock = nanoClock;
+
+        Gauge.builder("bulkhead.queue.depth", this, BulkheadTaskExecutor::queueDepth)
+                .description("Tasks waiting for a slot")
+                .tag("bulkhead", name)
+                .register(meterRegistry);
+        Gauge.builder("bulkhead.active", this, BulkheadTaskExecutor::activeCount)
+                .description("Tasks holding a slot")
+                .tag("bulkhead", name)
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("bulkhead.queue.wait")
+                .description("Time from submission until a task got a slot")
+                .tag("bulkhead", name)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+        this.rejected = Counter.builder("bulkhead.rejected")
+                .description("Tasks rejected because the queue was full or too slow")
+                .tag("bulkhead", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        long now = nanoClock.getAsLong();
+        lock.lock();
+        try {
+            if (active < maxConcurrent) {
+                active++;
+                start(new Queued(task, now));
+                return;
+            }
+            long expectedWait = expectedWaitNanos(now);
+            if (queue.size() >= maxQueue || expectedWait > maxQueueWaitNanos) {
+                rejected.increment();
+                throw new BulkheadFullException(name, Duration.ofNanos(Math.max(expectedWait, maxQueueWaitNanos)));
+            }
+            queue.add(new Queued(task, now));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long expectedWaitNanos(long now) {
+        long oldest = queue.isEmpty() ? 0 : now - queue.peek().submitted();
+        long backlog = (long) ((queue.size() + 1) * averageServiceNanos / maxConcurrent);
+        return Math.max(oldest, backlog);
+    }
+
+    // Called with the lock held.
+    private void start(Queued queued) {
+        long started = nanoClock.getAsLong();
+        queueWait.record(started - queued.submitted(), TimeUnit.NANOSECONDS);
+        try {
+            delegate.execute(() -> {
+                try {
+                    queued.task().run();
+                } finally {
+                    finished(nanoClock.getAsLong() - started);
+                }
+            });
+        } catch (RuntimeException e) {
+            active--;
+            throw e;
+        }
+    }
+
+    private void finished(long serviceNanos) {
+        lock.lock();
+        try {
+            averageServiceNanos = (averageServiceNanos == 0) ? serviceNanos
+                    : averageServiceNanos + SERVICE_TIME_WEIGHT * (serviceNanos - averageServiceNanos);
+            Queued next = queue.poll();
+            if (next == null) {
+                active--;
+            } else {
+                start(next);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int queueDepth() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int activeCount() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (delegate instanceof DisposableBean disposable) {
+            disposable.destroy();
+        } else if (delegate instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+    }
+
+    private record Queued(Runnable task, long submitted) {
+    }
+}
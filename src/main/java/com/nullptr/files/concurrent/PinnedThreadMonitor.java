@@ -0,0 +1,78 @@
+package com.nullptr.files.concurrent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.stream.Collectors;
+
+// Reports virtual threads that block while pinned to their carrier thread, typically inside a
+// synchronized block or a native call. Each pinned carrier is one fewer thread for every other
+// virtual thread, so these are the places to move to a ReentrantLock or off the hot path.
+@Component
+@ConditionalOnProperty(name = "async.executor.mode", havingValue = "virtual")
+public class PinnedThreadMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(PinnedThreadMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int STACK_DEPTH = 8;
+
+    private final Duration threshold;
+    private final Counter pinned;
+    private RecordingStream recording;
+
+    public PinnedThreadMonitor(@Value("${async.executor.pinned-threshold:20ms}") Duration threshold,
+                               MeterRegistry meterRegistry) {
+        this.threshold = threshold;
+        this.pinned = Counter.builder("executor.virtual.pinned")
+                .description("Virtual threads that blocked while pinned for longer than the threshold")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        recording = new RecordingStream();
+        recording.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recording.onEvent(PINNED_EVENT, this::onPinned);
+        recording.startAsync();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    public double pinnedCount() {
+        return pinned.count();
+    }
+
+    private void onPinned(RecordedEvent event) {
+        pinned.increment();
+        String stack = (event.getStackTrace() == null) ? "unknown" : event.getStackTrace().getFrames().stream()
+                .limit(STACK_DEPTH)
+                .map(PinnedThreadMonitor::format)
+                .collect(Collectors.joining(" <- "));
+        logger.warn("Virtual thread {} was pinned for {} ms at {}",
+                (event.getThread() == null) ? "unknown" : event.getThread().getJavaName(),
+                event.getDuration().toMillis(), stack);
+    }
+
+    private static String format(RecordedFrame frame) {
+        return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":" + frame.getLineNumber();
+    }
+}
@@ -0,0 +1,31 @@
+package com.nullptr.files.concurrent;
+
+// Bytes per second with bursts of up to capacity bytes. Not thread-safe; TransferScheduler only
+// touches its buckets with its lock held.
+final class TokenBucket {
+
+    private final double bytesPerNano;
+    private final long capacity;
+    private double tokens;
+    private long updated;
+
+    TokenBucket(long bytesPerSecond, long capacity, long now) {
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.updated = now;
+    }
+
+    // Nanoseconds until bytes can be taken, or 0 if they can be now.
+    long waitFor(int bytes, long now) {
+        if (now > updated) {
+            tokens = Math.min(capacity, tokens + (now - updated) * bytesPerNano);
+            updated = now;
+        }
+        return (tokens >= bytes) ? 0 : (long) Math.ceil((bytes - tokens) / bytesPerNano);
+    }
+
+    void take(int bytes) {
+        tokens -= bytes;
+    }
+}
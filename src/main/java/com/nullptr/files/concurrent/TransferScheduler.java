@@ -0,0 +1,226 @@
+package com.nullptr.files.concurrent;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.springframework.beans.factory.DisposableBean;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+// Shares download bandwidth between transfers. A sender asks for at most a quantum of bytes before
+// writing them; the grant takes tokens from the global bucket and from the client's, and a request
+// that cannot be granted yet waits in its lane. A transfer has one request queued at a time and goes
+// to the back once granted, so each lane hands out quanta round-robin across its transfers, and a
+// client over its own limit is skipped without holding up the others. The priority lane (small files
+// and range requests) is served before the bulk lane. A rate of zero turns that limit off; with both
+// off every request is granted at once.
+public class TransferScheduler implements DisposableBean {
+
+    public enum Lane { PRIORITY, BULK }
+
+    public static final int DEFAULT_QUANTUM = 64 * 1024;
+
+    private static final CompletableFuture<Void> GRANTED = CompletableFuture.completedFuture(null);
+
+    // a full bucket is the same as a new one, so idle clients can be dropped
+    private static final Duration CLIENT_IDLE = Duration.ofMinutes(1);
+
+    private final int quantum;
+    private final long priorityMaxSize;
+    private final long clientMaxRate;
+    private final LongSupplier nanoClock;
+    private final TokenBucket global;
+    private final Cache<String, TokenBucket> clients;
+    private final ScheduledExecutorService timer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<Lane, ArrayDeque<Request>> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, Timer> waits = new EnumMap<>(Lane.class);
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt;
+
+    public TransferScheduler(long maxRate, long clientMaxRate, int quantum, long priorityMaxSize, MeterRegistry meterRegistry) {
+        this(maxRate, clientMaxRate, quantum, priorityMaxSize, meterRegistry, System::nanoTime);
+    }
+
+    TransferScheduler(long maxRate, long clientMaxRate, int quantum, long priorityMaxSize, MeterRegistry meterRegistry,
+                      LongSupplier nanoClock) {
+        if (maxRate < 0 || clientMaxRate < 0 || quantum < 1) {
+            throw new IllegalArgumentException("Transfer rates must not be negative and the quantum must be at least one byte");
+        }
+        this.quantum = quantum;
+        this.priorityMaxSize = priorityMaxSize;
+        this.clientMaxRate = clientMaxRate;
+        this.nanoClock = nanoClock;
+        this.global = (maxRate > 0) ? new TokenBucket(maxRate, capacity(maxRate), nanoClock.getAsLong()) : null;
+        this.clients = (clientMaxRate > 0) ? Caffeine.newBuilder().expireAfterAccess(CLIENT_IDLE).build() : null;
+        this.timer = isEnabled()
+                ? Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("File-transfer-", 0).daemon().factory())
+                : null;
+
+        for (Lane lane : Lane.values()) {
+            String tag = lane.name().toLowerCase(Locale.ROOT);
+            queues.put(lane, new ArrayDeque<>());
+            Gauge.builder("transfer.queue.depth", this, scheduler -> scheduler.queueDepth(lane))
+                    .description("Transfers waiting for bandwidth")
+                    .tag("lane", tag)
+                    .register(meterRegistry);
+            waits.put(lane, Timer.builder("transfer.wait")
+                    .description("Time a transfer waited for each quantum of bandwidth")
+                    .tag("lane", tag)
+                    .register(meterRegistry));
+        }
+    }
+
+    public static TransferScheduler unlimited() {
+        return new TransferScheduler(0, 0, DEFAULT_QUANTUM, 0, new SimpleMeterRegistry());
+    }
+
+    // Bursts of a tenth of a second, and never less than a quantum so every request can be granted.
+    private long capacity(long rate) {
+        return Math.max(quantum, rate / 10);
+    }
+
+    public boolean isEnabled() {
+        return global != null || clients != null;
+    }
+
+    public int getQuantum() {
+        return quantum;
+    }
+
+    public Lane lane(long count, boolean range) {
+        return (range || count <= priorityMaxSize) ? Lane.PRIORITY : Lane.BULK;
+    }
+
+    // Completes once bytes (at most a quantum) may be sent. Completion runs on the caller or on the
+    // scheduler's own thread, so callers with more than a little work to do should move it elsewhere.
+    public CompletableFuture<Void> acquire(String client, Lane lane, int bytes) {
+        if (!isEnabled()) {
+            return GRANTED;
+        }
+        if (bytes > quantum) {
+            throw new IllegalArgumentException("Asked for " + bytes + " bytes, more than the quantum of " + quantum);
+        }
+        long now = nanoClock.getAsLong();
+        TokenBucket bucket = (clients != null)
+                ? clients.get((client != null) ? client : "", key -> new TokenBucket(clientMaxRate, capacity(clientMaxRate), now))
+                : null;
+        Request request = new Request(bucket, bytes, now, new CompletableFuture<>());
+        List<Request> granted;
+        lock.lock();
+        try {
+            queues.get(lane).add(request);
+            granted = dispatch(now);
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(r -> r.grant().complete(null));
+        return request.grant();
+    }
+
+    void dispatch() {
+        List<Request> granted;
+        lock.lock();
+        try {
+            wakeup = null;
+            granted = dispatch(nanoClock.getAsLong());
+        } finally {
+            lock.unlock();
+        }
+        granted.forEach(r -> r.grant().complete(null));
+    }
+
+    // Called with the lock held. Grants what the buckets allow, in lane order, and sets a wakeup for
+    // the earliest time another request could be granted.
+    private List<Request> dispatch(long now) {
+        List<Request> granted = new ArrayList<>();
+        long wait = Long.MAX_VALUE;
+        lanes:
+        for (Lane lane : Lane.values()) {
+            Iterator<Request> queued = queues.get(lane).iterator();
+            while (queued.hasNext()) {
+                Request request = queued.next();
+                long globalWait = (global != null) ? global.waitFor(request.bytes(), now) : 0;
+                if (globalWait > 0) {
+                    // everyone behind it needs the same tokens
+                    wait = Math.min(wait, globalWait);
+                    break lanes;
+                }
+                long clientWait = (request.client() != null) ? request.client().waitFor(request.bytes(), now) : 0;
+                if (clientWait > 0) {
+                    wait = Math.min(wait, clientWait);
+                    continue;
+                }
+                if (global != null) {
+                    global.take(request.bytes());
+                }
+                if (request.client() != null) {
+                    request.client().take(request.bytes());
+                }
+                queued.remove();
+                waits.get(lane).record(now - request.queued(), TimeUnit.NANOSECONDS);
+                granted.add(request);
+            }
+        }
+        if (wait != Long.MAX_VALUE && (wakeup == null || now + wait < wakeupAt)) {
+            if (wakeup != null) {
+                wakeup.cancel(false);
+            }
+            wakeupAt = now + wait;
+            wakeup = timer.schedule(() -> dispatch(), wait, TimeUnit.NANOSECONDS);
+        }
+        return granted;
+    }
+
+    public int queueDepth(Lane lane) {
+        lock.lock();
+        try {
+            return queues.get(lane).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (timer == null) {
+            return;
+        }
+        timer.shutdownNow();
+        List<Request> waiting = new ArrayList<>();
+        lock.lock();
+        try {
+            queues.values().forEach(queue -> {
+                waiting.addAll(queue);
+                queue.clear();
+            });
+        } finally {
+            lock.unlock();
+        }
+        waiting.forEach(r -> r.grant().completeExceptionally(new CancellationException("Transfer scheduler shut down")));
+    }
+
+    private record Request(TokenBucket client, int bytes, long queued, CompletableFuture<Void> grant) {
+    }
+}
@@ -1,34 +1,122 @@
 package com.nullptr.files.config;
 
+import com.nullptr.files.concurrent.BulkheadTaskExecutor;
+import com.nullptr.files.concurrent.TransferScheduler;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.util.unit.DataSize;
 
+import java.time.Duration;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+// Each operation type gets its own bulkhead, so a burst of one kind (say, large uploads) cannot
+// starve the others. Limits are set per operation under async.bulkhead.<operation>.*.
+//
+// In virtual mode max-concurrent no longer sizes a thread pool, only how many tasks may block at once,
+// so it is read from virtual-max-concurrent, whose defaults are much larger for the operations that
+// wait on disk. Operations that wait on a database connection stay close to the connection pool's
+// size; past it the wait only moves from the bulkhead, which sheds load, into the pool, which does not.
 @Configuration
 @EnableAsync
 public class AsyncConfig {
 
-    @Value("${async.executor.core-pool-size:2}")
-    private int corePoolSize;
+    @Value("${async.executor.mode:platform}")
+    private String mode;
+
+    @Autowired
+    private Environment environment;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Bean(name = "fileUploadTaskExecutor")
+    public BulkheadTaskExecutor uploadTaskExecutor() {
+        return bulkhead("upload", 16, 64, 256, Duration.ofSeconds(5));
+    }
+
+    @Bean(name = "fileDownloadTaskExecutor")
+    public BulkheadTaskExecutor downloadTaskExecutor() {
+        return bulkhead("download", 64, 1024, 1024, Duration.ofMillis(500));
+    }
+
+    @Bean(name = "fileListTaskExecutor")
+    public BulkheadTaskExecutor listTaskExecutor() {
+        return bulkhead("list", 8, 16, 256, Duration.ofMillis(250));
+    }
+
+    @Bean(name = "fileSearchTaskExecutor")
+    public BulkheadTaskExecutor searchTaskExecutor() {
+        return bulkhead("search", 8, 16, 256, Duration.ofMillis(250));
+    }
+
+    @Bean(name = "fileDetailsTaskExecutor")
+    public BulkheadTaskExecutor detailsTaskExecutor() {
+        return bulkhead("details", 16, 32, 512, Duration.ofMillis(100));
+    }
 
-    @Value("${async.executor.max-pool-size:5}")
-    private int maxPoolSize;
+    // Completes AsynchronousFileChannel reads and writes for the non-blocking transport. The JDK carries
+    // out file I/O on these threads with ordinary blocking calls, so the pool bounds how many run at once
+    // however many transfers are open.
+    @Bean(name = "fileIoExecutor", destroyMethod = "shutdown")
+    public ExecutorService ioExecutor(@Value("${file.transport.io-threads:4}") int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, Thread.ofPlatform().name("File-io-", 0).daemon().factory());
+        new ExecutorServiceMetrics(executor, "io", Tags.empty()).bindTo(meterRegistry);
+        return executor;
+    }
 
-    @Value("${async.executor.queue-capacity:500}")
-    private int queueCapacity;
+    // Download bandwidth, shared out across transfers. Rates are per second; 0 leaves a limit off.
+    @Bean
+    public TransferScheduler transferScheduler(@Value("${async.transfer.max-rate:0}") DataSize maxRate,
+                                               @Value("${async.transfer.client-max-rate:0}") DataSize clientMaxRate,
+                                               @Value("${async.transfer.quantum:64KB}") DataSize quantum,
+                                               @Value("${async.transfer.priority-max-size:1MB}") DataSize priorityMaxSize) {
+        return new TransferScheduler(maxRate.toBytes(), clientMaxRate.toBytes(), Math.toIntExact(quantum.toBytes()),
+                priorityMaxSize.toBytes(), meterRegistry);
+    }
+
+    private BulkheadTaskExecutor bulkhead(String name, int maxConcurrent, int virtualMaxConcurrent, int maxQueue, Duration maxQueueWait) {
+        String prefix = "async.bulkhead." + name + ".";
+        maxConcurrent = "virtual".equalsIgnoreCase(mode)
+                ? environment.getProperty(prefix + "virtual-max-concurrent", Integer.class, virtualMaxConcurrent)
+                : environment.getProperty(prefix + "max-concurrent", Integer.class, maxConcurrent);
+        maxQueue = environment.getProperty(prefix + "max-queue", Integer.class, maxQueue);
+        maxQueueWait = environment.getProperty(prefix + "max-queue-wait", Duration.class, maxQueueWait);
+        String threadNamePrefix = "File-" + name + "-";
+        return new BulkheadTaskExecutor(name, "virtual".equalsIgnoreCase(mode)
+                ? virtualThreadExecutor(threadNamePrefix)
+                : platformThreadExecutor(name, threadNamePrefix, maxConcurrent),
+                maxConcurrent, maxQueue, maxQueueWait, meterRegistry);
+    }
+
+    private static Executor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        return executor;
+    }
 
-    @Bean(name = "fileOperationTaskExecutor")
-    public Executor taskExecutor() {
+    // The bulkhead never hands over more than maxConcurrent tasks, so the pool's own queue only
+    // holds a task for the moment between one finishing and its thread picking up the next. The
+    // pool's executor.* metrics are tagged name=<bulkhead>.
+    private Executor platformThreadExecutor(String name, String threadNamePrefix, int maxConcurrent) {
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(corePoolSize);
-        executor.setMaxPoolSize(maxPoolSize);
-        executor.setQueueCapacity(queueCapacity);
-        executor.setThreadNamePrefix("FileOperation-");
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        executor.setThreadNamePrefix(threadNamePrefix);
         executor.initialize();
+        new ExecutorServiceMetrics(executor.getThreadPoolExecutor(), name, Tags.empty()).bindTo(meterRegistry);
         return executor;
     }
 }
@@ -0,0 +1,11 @@
+package com.nullptr.files.config;
+
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    public static final String FILE_METADATA_BY_TITLE = "fileMetadataByTitle";
+}
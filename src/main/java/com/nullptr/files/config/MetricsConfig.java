@@ -0,0 +1,18 @@
+package com.nullptr.files.config;
+
+import io.micrometer.core.aop.TimedAspect;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// Makes @Timed work on service methods. Methods returning a CompletableFuture are timed until it
+// completes, on the executor thread, so the time does not include waiting for a bulkhead slot.
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public TimedAspect timedAspect(MeterRegistry meterRegistry) {
+        return new TimedAspect(meterRegistry);
+    }
+}
@@ -0,0 +1,45 @@
+package com.nullptr.files.config;
+
+import com.nullptr.files.storage.LocalStorageBackend;
+import com.nullptr.files.storage.StorageBackend;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.storage.TieredStorageBackend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+
+@Configuration
+@EnableScheduling
+public class StorageConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "file.storage.backend", havingValue = "local", matchIfMissing = true)
+    public StorageBackend localStorageBackend(FileStorageConfig fileStorageConfig) {
+        return new LocalStorageBackend(Paths.get(fileStorageConfig.getUploadDir()).resolve("blobs"));
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "file.storage.backend", havingValue = "tiered")
+    public StorageBackend tieredStorageBackend(
+            FileStorageConfig fileStorageConfig,
+            @Value("${file.storage.tiered.hot-dir:}") String hotDir,
+            @Value("${file.storage.tiered.cold-dir}") String coldDir,
+            @Value("${file.storage.tiered.demote-after:P7D}") Duration demoteAfter,
+            @Value("${file.storage.tiered.promote-after-hits:3}") int promoteAfterHits,
+            @Value("${file.storage.tiered.hot-capacity:0}") DataSize hotCapacity,
+            FileChannelPool fileChannelPool) {
+        LocalStorageBackend hot = new LocalStorageBackend(hotDir.isEmpty()
+                ? Paths.get(fileStorageConfig.getUploadDir()).resolve("blobs")
+                : Paths.get(hotDir));
+        LocalStorageBackend cold = new LocalStorageBackend(Paths.get(coldDir));
+        return new TieredStorageBackend(hot, cold, demoteAfter, promoteAfterHits, hotCapacity.toBytes(), Clock.systemUTC(), fileChannelPool);
+    }
+}
@@ -0,0 +1,53 @@
+package com.nullptr.files.config;
+
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.controller.NonBlockingFileServlet;
+import com.nullptr.files.controller.OverloadExceptionHandler;
+import com.nullptr.files.service.FileStorageService;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.transfer.FileRegionHttpMessageConverter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.servlet.ServletRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
+    @Autowired
+    private FileChannelPool fileChannelPool;
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new FileRegionHttpMessageConverter(meterRegistry, transferScheduler, fileChannelPool));
+    }
+
+    // Exact and prefix servlet mappings win over the dispatcher's "/", so uploads and downloads bypass
+    // the controller; /f/ul/stream and the other endpoints are unaffected.
+    @Bean
+    @ConditionalOnProperty(name = "file.transport", havingValue = "non-blocking")
+    public ServletRegistrationBean<NonBlockingFileServlet> nonBlockingFileServlet(
+            FileStorageService fileStorageService,
+            OverloadExceptionHandler overloadExceptionHandler,
+            @Qualifier("fileIoExecutor") ExecutorService ioExecutor) {
+        ServletRegistrationBean<NonBlockingFileServlet> registration = new ServletRegistrationBean<>(
+                new NonBlockingFileServlet(fileStorageService, overloadExceptionHandler, ioExecutor, meterRegistry, transferScheduler, fileChannelPool),
+                "/f/ul", "/f/dl/*");
+        registration.setAsyncSupported(true);
+        return registration;
+    }
+}
@@ -1,27 +1,52 @@
 package com.nullptr.files.controller;
 
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.entity.ChunkedUpload;
 import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.search.SearchQuery;
+import com.nullptr.files.service.ChunkedUploadService;
+import com.nullptr.files.service.FileDetailsResult;
 import com.nullptr.files.service.FileStorageService;
+import com.nullptr.files.transfer.ConditionalHeaders;
+import com.nullptr.files.transfer.FileRegion;
+import com.nullptr.files.transfer.FileRegionHttpMessageConverter;
+import com.nullptr.files.transfer.MultipartFileRegions;
 import com.nullptr.files.validation.InputValidator;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
+import java.nio.channels.Channels;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/f")
 public class FileOperationController {
 
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    private static final int MAX_BULK_TITLES = 1000;
+
     @Autowired
     private FileStorageService fileStorageService;
 
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private TransferScheduler transferScheduler;
+
     @PostMapping("/ul")
     public CompletableFuture<ResponseEntity<String>> uploadFile(@RequestParam("file") MultipartFile file,
                                                                 @RequestParam("title") String title,
@@ -35,20 +60,139 @@ public class FileOperationController {
                 .exceptionally(ex -> ResponseEntity.status(HttpStatus.EXPECTATION_FAILED).body("Failed to upload file"));
     }
 
+    @PostMapping(value = "/ul/stream", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<ResponseEntity<String>> uploadFileStream(HttpServletRequest request) throws IOException {
+        return fileStorageService.saveStream(Channels.newChannel(request.getInputStream()), request.getContentType())
+                .thenApply(response -> ResponseEntity.status(HttpStatus.OK).body(response))
+                .exceptionally(FileOperationController::uploadFailure);
+    }
+
+    @PostMapping(value = "/ul/bulk", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public CompletableFuture<ResponseEntity<?>> uploadFilesBulk(HttpServletRequest request) throws IOException {
+        return fileStorageService.saveBulk(Channels.newChannel(request.getInputStream()), request.getContentType())
+                .<ResponseEntity<?>>thenApply(results -> ResponseEntity.status(HttpStatus.OK).body(results))
+                .exceptionally(FileOperationController::uploadFailure);
+    }
+
+    @PostMapping("/ul/chunked")
+    public CompletableFuture<ResponseEntity<?>> startChunkedUpload(@RequestParam("filename") String filename,
+                                                                   @RequestParam("title") String title,
+                                                                   @RequestParam("description") String description,
+                                                                   @RequestParam("size") long size,
+                                                                   @RequestParam("chunkSize") int chunkSize) {
+        if (!InputValidator.isValid(title) || !InputValidator.isValid(description)) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Invalid input detected"));
+        }
+        return chunkedUploadService.start(filename, title, description, size, chunkSize)
+                .<ResponseEntity<?>>thenApply(upload -> ResponseEntity.status(HttpStatus.OK).body(upload))
+                .exceptionally(FileOperationController::uploadFailure);
+    }
+
+    @PutMapping(value = "/ul/chunked/{id}/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    public CompletableFuture<ResponseEntity<?>> uploadChunk(@PathVariable String id,
+                                                            @PathVariable int index,
+                                                            HttpServletRequest request) throws IOException {
+        return chunkedUploadService.writeChunk(id, index, Channels.newChannel(request.getInputStream()))
+                .<ResponseEntity<?>>thenApply(upload -> ResponseEntity.status(HttpStatus.OK).body(upload))
+                .exceptionally(FileOperationController::uploadFailure);
+    }
+
+    @GetMapping("/ul/chunked/{id}")
+    public CompletableFuture<ResponseEntity<ChunkedUpload>> getChunkedUpload(@PathVariable String id) {
+        return chunkedUploadService.getStatus(id)
+                .thenApply(upload -> upload.map(u -> ResponseEntity.status(HttpStatus.OK).body(u))
+                        .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null)));
+    }
+
+    @PostMapping("/ul/chunked/{id}/commit")
+    public CompletableFuture<ResponseEntity<String>> commitChunkedUpload(@PathVariable String id) {
+        return chunkedUploadService.commit(id)
+                .thenApply(response -> ResponseEntity.status(HttpStatus.OK).body(response))
+                .exceptionally(FileOperationController::uploadFailure);
+    }
+
+    static ResponseEntity<String> uploadFailure(Throwable ex) {
+        Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+        if (cause instanceof IllegalArgumentException) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(cause.getMessage());
+        }
+        if (cause instanceof NoSuchElementException) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Upload not found");
+        }
+        if (cause instanceof IllegalStateException) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(cause.getMessage());
+        }
+        return ResponseEntity.status(HttpStatus.EXPECTATION_FAILED).body("Failed to upload file");
+    }
+
     @GetMapping(value = "/dl/{title}", produces = "application/octet-stream")
     public CompletableFuture<ResponseEntity<?>> downloadFile(@PathVariable String title,
-                                                              @RequestHeader(value = "Range", required = false) String rangeHeader) throws IOException {
+                                                              @RequestHeader(value = "Range", required = false) String rangeHeader,
+                                                              @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+                                                              @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+                                                              @RequestHeader(value = "If-Modified-Since", required = false) String ifModifiedSince,
+                                                              @RequestHeader(value = "If-Range", required = false) String ifRange) throws IOException {
         if (!InputValidator.isValid(title)) {
             return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body("Invalid input detected"));
         }
-        return fileStorageService.loadByTitle(title, rangeHeader);
+        return fileStorageService.loadByTitle(title, rangeHeader, acceptEncoding, new ConditionalHeaders(ifNoneMatch, ifModifiedSince, ifRange));
+    }
+
+    // Tomcat only hands a response to sendfile when a synchronous dispatch ends, never after an async
+    // one. So a whole-file GET looks the file up on the request thread (metadata and pooled size only)
+    // and is answered there when sendfile will send it; anything else goes through the download
+    // bulkhead as usual.
+    @GetMapping(value = "/dl/{title}", produces = "application/octet-stream", headers = "!Range")
+    public Object downloadWholeFile(@PathVariable String title,
+                                    @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+                                    @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+                                    @RequestHeader(value = "If-Modified-Since", required = false) String ifModifiedSince,
+                                    @RequestHeader(value = "If-Range", required = false) String ifRange,
+                                    HttpServletRequest request) throws IOException {
+        if (InputValidator.isValid(title) && !transferScheduler.isEnabled() && FileRegionHttpMessageConverter.sendfileAvailable(request)) {
+            ResponseEntity<?> response = fileStorageService.loadForSendfile(title, acceptEncoding, new ConditionalHeaders(ifNoneMatch, ifModifiedSince, ifRange));
+            if (response != null) {
+                return response;
+            }
+        }
+        return downloadFile(title, null, acceptEncoding, ifNoneMatch, ifModifiedSince, ifRange);
+    }
+
+    // The headers a GET would get, including the size and segment size hint, without reading the file.
+    @RequestMapping(value = "/dl/{title}", method = RequestMethod.HEAD)
+    public CompletableFuture<ResponseEntity<?>> headFile(@PathVariable String title,
+                                                          @RequestHeader(value = "Range", required = false) String rangeHeader,
+                                                          @RequestHeader(value = "Accept-Encoding", required = false) String acceptEncoding,
+                                                          @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+                                                          @RequestHeader(value = "If-Modified-Since", required = false) String ifModifiedSince,
+                                                          @RequestHeader(value = "If-Range", required = false) String ifRange) throws IOException {
+        return downloadFile(title, rangeHeader, acceptEncoding, ifNoneMatch, ifModifiedSince, ifRange)
+                .thenApply(entity -> (entity.getBody() instanceof FileRegion || entity.getBody() instanceof MultipartFileRegions)
+                        ? ResponseEntity.status(entity.getStatusCode()).headers(entity.getHeaders()).build()
+                        : entity);
     }
 
     @GetMapping("/ls")
-    public CompletableFuture<ResponseEntity<List<FileMetadata>>> listAllFiles() {
-        return fileStorageService.listAllFiles()
-                .thenApply(files -> ResponseEntity.status(HttpStatus.OK).body(files));
+    public CompletableFuture<ResponseEntity<?>> listFiles(@RequestParam(value = "sort", defaultValue = "uploadTime") String sort,
+                                                          @RequestParam(value = "size", defaultValue = "50") int size,
+                                                          @RequestParam(value = "cursor", required = false) String cursor) {
+        return fileStorageService.listFiles(sort, size, cursor)
+                .<ResponseEntity<?>>thenApply(page -> ResponseEntity.status(HttpStatus.OK).body(page))
+                .exceptionally(ex -> {
+                    Throwable cause = (ex instanceof CompletionException) ? ex.getCause() : ex;
+                    if (cause instanceof IllegalArgumentException) {
+                        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(cause.getMessage());
+                    }
+                    return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to list files");
+                });
+    }
+
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void exportCatalog(HttpServletResponse response) throws IOException {
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        fileStorageService.exportCatalog(response.getOutputStream());
     }
 
     @GetMapping("/dt")
@@ -62,20 +206,42 @@ public class FileOperationController {
                         .orElseGet(() -> ResponseEntity.status(HttpStatus.NOT_FOUND).body(null)));
     }
 
+    @PostMapping("/dt")
+    public CompletableFuture<ResponseEntity<List<FileDetailsResult>>> getFileDetailsBulk(@RequestBody List<String> titles) {
+        if (titles.isEmpty() || titles.size() > MAX_BULK_TITLES || !titles.stream().allMatch(InputValidator::isValid)) {
+            return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(null));
+        }
+        return fileStorageService.getFileDetailsByTitles(titles)
+                .thenApply(results -> ResponseEntity.status(HttpStatus.OK).body(results));
+    }
+
     @PostMapping("/fd")
     public CompletableFuture<ResponseEntity<List<String>>> findFiles(@RequestBody FileSearchRequest searchRequest) {
-        if (!InputValidator.isValid(searchRequest.getTitle())) {
+        if (!InputValidator.isValid(searchRequest.getTitle()) || !InputValidator.isValid(searchRequest.getQuery())
+                || searchRequest.getLimit() < 1 || searchRequest.getLimit() > MAX_SEARCH_RESULTS) {
             return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.BAD_REQUEST)
                     .body(null));
         }
-        return fileStorageService.findFiles(searchRequest.getTitle(), searchRequest.getDate())
+        LocalDateTime from = searchRequest.getFrom();
+        LocalDateTime to = searchRequest.getTo();
+        if (searchRequest.getDate() != null && from == null && to == null) {
+            from = searchRequest.getDate();
+            to = from.plusDays(1);
+        }
+        SearchQuery query = new SearchQuery(searchRequest.getTitle(), searchRequest.getQuery(), from, to, searchRequest.getLimit());
+        return fileStorageService.findFiles(query)
                 .thenApply(titles -> ResponseEntity.status(HttpStatus.OK).body(titles));
     }
 }
 
 class FileSearchRequest {
     private String title;
+    private String query;
     private LocalDateTime date;
+    private LocalDateTime from;
+    private LocalDateTime to;
+    private int limit = 100;
 
     public String getTitle() {
         return title;
@@ -92,4 +258,36 @@ class FileSearchRequest {
     public void setDate(LocalDateTime date) {
         this.date = date;
     }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public LocalDateTime getFrom() {
+        return from;
+    }
+
+    public void setFrom(LocalDateTime from) {
+        this.from = from;
+    }
+
+    public LocalDateTime getTo() {
+        return to;
+    }
+
+    public void setTo(LocalDateTime to) {
+        this.to = to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
 }
@@ -0,0 +1,183 @@
+package com.nullptr.files.controller;
+
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.service.FileStorageService;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.transfer.ConditionalHeaders;
+import com.nullptr.files.transfer.FileRegion;
+import com.nullptr.files.transfer.MultipartFileRegions;
+import com.nullptr.files.transfer.NonBlockingRegionWriter;
+import com.nullptr.files.validation.InputValidator;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+// Serves /f/ul and /f/dl/{title} when file.transport=non-blocking, in place of the controller. Both
+// run as async requests with servlet non-blocking I/O, so the request thread is handed back as soon as
+// the work is queued and no thread waits on a slow client while a body goes in or out. Responses are
+// the same as the controller's; small ones (errors, upload results) are written directly.
+public class NonBlockingFileServlet extends HttpServlet {
+
+    static final String UPLOAD_PATH = "/f/ul";
+    static final String DOWNLOAD_PATH = "/f/dl";
+
+    private static final Logger logger = LoggerFactory.getLogger(NonBlockingFileServlet.class);
+
+    private final FileStorageService fileStorageService;
+    private final OverloadExceptionHandler overloadExceptionHandler;
+    private final ExecutorService ioExecutor;
+    private final MeterRegistry meterRegistry;
+    private final TransferScheduler transferScheduler;
+    private final FileChannelPool channelPool;
+
+    public NonBlockingFileServlet(FileStorageService fileStorageService, OverloadExceptionHandler overloadExceptionHandler,
+                                  ExecutorService ioExecutor, MeterRegistry meterRegistry, TransferScheduler transferScheduler,
+                                  FileChannelPool channelPool) {
+        this.fileStorageService = fileStorageService;
+        this.overloadExceptionHandler = overloadExceptionHandler;
+        this.ioExecutor = ioExecutor;
+        this.meterRegistry = meterRegistry;
+        this.transferScheduler = transferScheduler;
+        this.channelPool = channelPool;
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        if (!UPLOAD_PATH.equals(request.getServletPath())) {
+            super.doPost(request, response);
+            return;
+        }
+        AsyncContext context = startAsync(request);
+        CompletableFuture<ResponseEntity<?>> result = fileStorageService.saveNonBlocking(request.getInputStream(), request.getContentType())
+                .<ResponseEntity<?>>thenApply(message -> ResponseEntity.status(HttpStatus.OK).body(message))
+                .exceptionally(ex -> (unwrap(ex) instanceof TaskRejectedException rejected)
+                        ? overloadExceptionHandler.handleRejected(rejected)
+                        : FileOperationController.uploadFailure(ex));
+        result.whenComplete((entity, ex) -> send(context, entity, false));
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        download(request, response, false);
+    }
+
+    @Override
+    protected void doHead(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+        download(request, response, true);
+    }
+
+    private void download(HttpServletRequest request, HttpServletResponse response, boolean head) throws ServletException, IOException {
+        if (!DOWNLOAD_PATH.equals(request.getServletPath())) {
+            if (head) {
+                super.doHead(request, response);
+            } else {
+                super.doGet(request, response);
+            }
+            return;
+        }
+        String pathInfo = request.getPathInfo();
+        String title = (pathInfo != null && pathInfo.length() > 1) ? pathInfo.substring(1) : null;
+        if (title == null || title.contains("/")) {
+            write(response, ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found"), head);
+            return;
+        }
+        if (!InputValidator.isValid(title)) {
+            write(response, ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid input detected"), head);
+            return;
+        }
+        CompletableFuture<ResponseEntity<?>> result;
+        try {
+            result = fileStorageService.loadByTitle(title, request.getHeader(HttpHeaders.RANGE), request.getHeader(HttpHeaders.ACCEPT_ENCODING),
+                    new ConditionalHeaders(request.getHeader(HttpHeaders.IF_NONE_MATCH), request.getHeader(HttpHeaders.IF_MODIFIED_SINCE),
+                            request.getHeader(HttpHeaders.IF_RANGE)));
+        } catch (TaskRejectedException e) {
+            write(response, overloadExceptionHandler.handleRejected(e), head);
+            return;
+        }
+        AsyncContext context = startAsync(request);
+        result.whenComplete((entity, ex) -> {
+            if (ex != null) {
+                Throwable cause = unwrap(ex);
+                if (cause instanceof TaskRejectedException rejected) {
+                    entity = overloadExceptionHandler.handleRejected(rejected);
+                } else {
+                    logger.error("Download of {} failed", title, cause);
+                    entity = ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to download file");
+                }
+            }
+            send(context, entity, head);
+        });
+    }
+
+    // Transfers can take as long as the client does; a client that stops reading or sending is cut off
+    // by the connector's socket timeout instead.
+    private static AsyncContext startAsync(HttpServletRequest request) {
+        AsyncContext context = request.startAsync();
+        context.setTimeout(0);
+        return context;
+    }
+
+    private void send(AsyncContext context, ResponseEntity<?> entity, boolean head) {
+        HttpServletResponse response = (HttpServletResponse) context.getResponse();
+        try {
+            Object body = entity.getBody();
+            if (!head && (body instanceof FileRegion || body instanceof MultipartFileRegions)) {
+                writeHeaders(response, entity);
+                if (response.getContentType() == null) {
+                    response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+                }
+                new NonBlockingRegionWriter(context, body, ioExecutor, meterRegistry, transferScheduler, channelPool).start();
+                return;
+            }
+            write(response, entity, head);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Could not send response", e);
+        }
+        context.complete();
+    }
+
+    private static void write(HttpServletResponse response, ResponseEntity<?> entity, boolean head) throws IOException {
+        writeHeaders(response, entity);
+        Object body = entity.getBody();
+        if (body instanceof String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            if (response.getContentType() == null) {
+                response.setContentType(MediaType.TEXT_PLAIN_VALUE + ";charset=UTF-8");
+            }
+            response.setContentLength(bytes.length);
+            if (!head) {
+                response.getOutputStream().write(bytes);
+            }
+        } else if (head && response.getContentType() == null && (body instanceof FileRegion || body instanceof MultipartFileRegions)) {
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        }
+    }
+
+    private static void writeHeaders(HttpServletResponse response, ResponseEntity<?> entity) {
+        response.setStatus(entity.getStatusCode().value());
+        entity.getHeaders().forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+    }
+}
@@ -0,0 +1,30 @@
+package com.nullptr.files.controller;
+
+import com.nullptr.files.concurrent.BulkheadFullException;
+
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.time.Duration;
+
+// Turns a task the executors refused to queue into a fast 503, so clients back off instead of
+// waiting for a request that would have timed out anyway.
+@RestControllerAdvice
+public class OverloadExceptionHandler {
+
+    private static final Duration DEFAULT_RETRY_AFTER = Duration.ofSeconds(1);
+
+    @ExceptionHandler(TaskRejectedException.class)
+    public ResponseEntity<String> handleRejected(TaskRejectedException ex) {
+        Duration retryAfter = (ex instanceof BulkheadFullException full) ? full.getRetryAfter() : DEFAULT_RETRY_AFTER;
+        // Retry-After is in whole seconds; round up so clients never retry early.
+        long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(seconds))
+                .body("Server is busy, please retry later");
+    }
+}
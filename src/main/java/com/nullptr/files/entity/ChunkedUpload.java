@@ -0,0 +1,150 @@
+package com.nullptr.files.entity;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+@Entity
+@Table(name = "chunked_upload")
+public class ChunkedUpload {
+
+    public static final int MAX_CHUNKS = 100_000;
+
+    @Id
+    private String id;
+
+    @Column(nullable = false)
+    @JsonIgnore
+    private String filename;
+
+    @Column(nullable = false)
+    private String title;
+
+    @Column(nullable = false)
+    private String description;
+
+    @Column(nullable = false)
+    private long size;
+
+    @Column(nullable = false)
+    private int chunkSize;
+
+    @Column(nullable = false)
+    private int chunkCount;
+
+    @Column(nullable = false, length = MAX_CHUNKS / 8)
+    @JsonIgnore
+    private byte[] receivedChunks;
+
+    @Column(nullable = false)
+    @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime createdTime;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public void setTitle(String title) {
+        this.title = title;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public void setDescription(String description) {
+        this.description = description;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(int chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    public byte[] getReceivedChunks() {
+        return receivedChunks;
+    }
+
+    public void setReceivedChunks(byte[] receivedChunks) {
+        this.receivedChunks = receivedChunks;
+    }
+
+    public LocalDateTime getCreatedTime() {
+        return createdTime;
+    }
+
+    public void setCreatedTime(LocalDateTime createdTime) {
+        this.createdTime = createdTime;
+    }
+
+    public long chunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public long chunkLength(int index) {
+        return Math.min(chunkSize, size - chunkOffset(index));
+    }
+
+    public int getReceivedChunkCount() {
+        return BitSet.valueOf(receivedChunks).cardinality();
+    }
+
+    public List<Integer> getMissingChunks() {
+        BitSet received = BitSet.valueOf(receivedChunks);
+        return IntStream.range(0, chunkCount).filter(index -> !received.get(index)).boxed().toList();
+    }
+
+    @JsonIgnore
+    public boolean isComplete() {
+        return getReceivedChunkCount() == chunkCount;
+    }
+
+    public void markReceived(int index) {
+        BitSet received = BitSet.valueOf(receivedChunks);
+        received.set(index);
+        byte[] bitmap = new byte[(chunkCount + 7) / 8];
+        byte[] set = received.toByteArray();
+        System.arraycopy(set, 0, bitmap, 0, set.length);
+        this.receivedChunks = bitmap;
+    }
+}
@@ -7,7 +7,10 @@ import jakarta.persistence.*;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "file_metadata")
+@Table(name = "file_metadata", indexes = {
+        @Index(name = "idx_file_metadata_upload_time_id", columnList = "upload_time, id"),
+        @Index(name = "idx_file_metadata_title_id", columnList = "title, id")
+})
 public class FileMetadata {
 
     @Id
@@ -29,6 +32,13 @@ public class FileMetadata {
     @JsonFormat(pattern = "yyyy-MM-dd'T'HH:mm:ss")
     private LocalDateTime uploadTime;
 
+    @JsonIgnore
+    private String blobHash;
+
+    // Copied from the blob so downloads know how it is stored without another query.
+    @JsonIgnore
+    private String blobEncoding;
+
     public Long getId() {
         return id;
     }
@@ -68,4 +78,20 @@ public class FileMetadata {
     public void setUploadTime(LocalDateTime uploadTime) {
         this.uploadTime = uploadTime;
     }
+
+    public String getBlobHash() {
+        return blobHash;
+    }
+
+    public void setBlobHash(String blobHash) {
+        this.blobHash = blobHash;
+    }
+
+    public String getBlobEncoding() {
+        return blobEncoding;
+    }
+
+    public void setBlobEncoding(String blobEncoding) {
+        this.blobEncoding = blobEncoding;
+    }
 }
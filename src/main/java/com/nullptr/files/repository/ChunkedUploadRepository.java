@@ -0,0 +1,14 @@
+package com.nullptr.files.repository;
+
+import com.nullptr.files.entity.ChunkedUpload;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface ChunkedUploadRepository extends JpaRepository<ChunkedUpload, String> {
+
+    List<ChunkedUpload> findByCreatedTimeBefore(LocalDateTime cutoff);
+}
@@ -1,19 +1,88 @@
 package com.nullptr.files.repository;
 
+import com.nullptr.files.config.CacheConfig;
 import com.nullptr.files.entity.FileMetadata;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.AvailableHints;
+import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface FileMetadataRepository extends JpaRepository<FileMetadata, Long> {
+    @Cacheable(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, unless = "#result == null")
     Optional<FileMetadata> findByTitle(String title);
 
     @Query("SELECT f FROM FileMetadata f WHERE (:title IS NULL OR f.title = :title) AND (:date IS NULL OR f.uploadTime >= :date AND f.uploadTime < :datePlusOneDay)")
     List<FileMetadata> findByTitleAndDate(@Param("title") String title, @Param("date") LocalDateTime date, @Param("datePlusOneDay") LocalDateTime datePlusOneDay);
+
+    List<FileMetadata> findByTitleInOrderById(Collection<String> titles);
+
+    @Query("SELECT f FROM FileMetadata f ORDER BY f.uploadTime, f.id")
+    List<FileMetadata> findPageOrderByUploadTime(Pageable page);
+
+    @Query("SELECT f FROM FileMetadata f WHERE f.uploadTime > :uploadTime OR (f.uploadTime = :uploadTime AND f.id > :id) ORDER BY f.uploadTime, f.id")
+    List<FileMetadata> findPageOrderByUploadTimeAfter(@Param("uploadTime") LocalDateTime uploadTime, @Param("id") Long id, Pageable page);
+
+    @Query("SELECT f FROM FileMetadata f ORDER BY f.title, f.id")
+    List<FileMetadata> findPageOrderByTitle(Pageable page);
+
+    @Query("SELECT f FROM FileMetadata f WHERE f.title > :title OR (f.title = :title AND f.id > :id) ORDER BY f.title, f.id")
+    List<FileMetadata> findPageOrderByTitleAfter(@Param("title") String title, @Param("id") Long id, Pageable page);
+
+    @QueryHints(@QueryHint(name = AvailableHints.HINT_FETCH_SIZE, value = "1000"))
+    @Query("SELECT f FROM FileMetadata f ORDER BY f.id")
+    Stream<FileMetadata> streamAllOrderById();
+
+    // Keyed by the title being written; an update that renames a title must also evict the old one.
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, key = "#p0.title")
+    <S extends FileMetadata> S save(S entity);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    <S extends FileMetadata> List<S> saveAll(Iterable<S> entities);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, key = "#p0.title")
+    void delete(FileMetadata entity);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteById(Long id);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteAllById(Iterable<? extends Long> ids);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteAll();
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteAll(Iterable<? extends FileMetadata> entities);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteAllInBatch(Iterable<FileMetadata> entities);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteAllByIdInBatch(Iterable<Long> ids);
+
+    @Override
+    @CacheEvict(cacheNames = CacheConfig.FILE_METADATA_BY_TITLE, allEntries = true)
+    void deleteAllInBatch();
 }
@@ -0,0 +1,324 @@
+package com.nullptr.files.repository;
+
+import com.nullptr.files.config.CacheConfig;
+import com.nullptr.files.entity.ChunkedUpload;
+import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.entity.StoredBlob;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Single writer for the rows an upload creates: blob reference counts, file_metadata, and the
+// chunked_upload rows that track which chunks of an upload have arrived. SQLite lets
+// one connection write at a time and syncs on every commit, so uploads each writing in their own
+// transaction mostly wait on each other, or fail outright when a read snapshot goes stale before the
+// write. Here one thread takes whatever has queued up while the previous commit ran and writes it in
+// one transaction, metadata rows as one JDBC batch, so a burst costs one sync instead of two per
+// upload. Each caller's future completes only after its transaction has committed. Chunk maps of the
+// same upload queued together are written once, with the newest map.
+//
+// The batch driver API returns no generated keys on SQLite, so metadata rows are inserted one at a
+// time through a single statement inside the batch's transaction, each reading back the rowid SQLite
+// assigned (last_insert_rowid(), through getGeneratedKeys). The rows still share the one commit,
+// which is what costs.
+@Component
+public class MetadataWriter implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetadataWriter.class);
+    private static final String INSERT_METADATA_SQL = "INSERT INTO file_metadata (filename, title, description, upload_time, blob_hash, blob_encoding) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String ADJUST_REFERENCES_SQL = "UPDATE stored_blob SET ref_count = ref_count + ? WHERE hash = ?";
+    private static final String INSERT_BLOB_SQL = "INSERT INTO stored_blob (hash, size, ref_count, created_time, encoding) VALUES (?, ?, ?, ?, ?)";
+    private static final String INSERT_CHUNKED_UPLOAD_SQL = "INSERT INTO chunked_upload (id, filename, title, description, size, chunk_size, chunk_count, received_chunks, created_time) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_RECEIVED_CHUNKS_SQL = "UPDATE chunked_upload SET received_chunks = ? WHERE id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Cache titleCache;
+    private final int maxBatchSize;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Timer batchTime;
+    private final DistributionSummary batchSize;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public MetadataWriter(JdbcTemplate jdbcTemplate,
+                          PlatformTransactionManager transactionManager,
+                          CacheManager cacheManager,
+                          @Value("${file.metadata-writer.max-batch-size:500}") int maxBatchSize,
+                          @Value("${file.metadata-writer.queue-capacity:10000}") int queueCapacity,
+                          MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.titleCache = cacheManager.getCache(CacheConfig.FILE_METADATA_BY_TITLE);
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.batchTime = Timer.builder("metadata.writer.batch")
+                .description("Time to write and commit one batch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("metadata.writer.batch.size")
+                .description("Writes committed per batch")
+                .register(meterRegistry);
+        Gauge.builder("metadata.writer.queue.depth", queue, BlockingQueue::size)
+                .description("Writes waiting for the writer")
+                .register(meterRegistry);
+    }
+
+    // Completes with the inserted row, id assigned, once it is committed.
+    public CompletableFuture<FileMetadata> insert(FileMetadata metadata) {
+        PendingInsert pending = new PendingInsert(metadata, new CompletableFuture<>());
+        enqueue(pending);
+        return pending.result();
+    }
+
+    // Adds delta to the blob's reference count, creating the row on the first reference and deleting
+    // it when the count reaches zero. Completes with the new count once it is committed.
+    public CompletableFuture<Integer> adjustReferences(StoredBlob blob, int delta) {
+        PendingReferences pending = new PendingReferences(blob, delta, new CompletableFuture<>());
+        enqueue(pending);
+        return pending.result();
+    }
+
+    public CompletableFuture<Void> insertChunkedUpload(ChunkedUpload upload) {
+        PendingChunkedUpload pending = new PendingChunkedUpload(upload, new CompletableFuture<>());
+        enqueue(pending);
+        return pending.result();
+    }
+
+    // receivedChunks must not change after it is queued, and maps of one upload must be queued in the
+    // order they were taken, since only the last one queued in a batch is written.
+    public CompletableFuture<Void> updateReceivedChunks(String uploadId, byte[] receivedChunks) {
+        PendingReceivedChunks pending = new PendingReceivedChunks(uploadId, receivedChunks, new CompletableFuture<>());
+        enqueue(pending);
+        return pending.result();
+    }
+
+    private void enqueue(PendingWrite pending) {
+        if (!running) {
+            pending.result().completeExceptionally(new IllegalStateException("Metadata writer is not running"));
+        } else if (!queue.offer(pending)) {
+            pending.result().completeExceptionally(new TaskRejectedException("Metadata write queue is full"));
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        thread = Thread.ofPlatform().name("metadata-writer").start(this::run);
+    }
+
+    // Stops taking new writes, then commits everything already queued.
+    @Override
+    public void stop() {
+        running = false;
+        if (thread == null) {
+            return;
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // before WebServerStartStopLifecycle, so uploads in flight at shutdown still get written
+        return 0;
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingWrite first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                batchSize.record(batch.size());
+                batchTime.record(() -> write(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                logger.error("Metadata writer failed on a batch of {} writes", batch.size(), e);
+                batch.forEach(pending -> pending.result().completeExceptionally(e));
+            } finally {
+                batch.clear();
+            }
+        }
+        queue.forEach(pending -> pending.result().completeExceptionally(new IllegalStateException("Metadata writer stopped")));
+    }
+
+    private void write(List<PendingWrite> batch) {
+        List<Integer> referenceCounts;
+        try {
+            referenceCounts = writeBatch(batch);
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                if (batch.get(0) instanceof PendingInsert insert) {
+                    insert.metadata().setId(null);
+                }
+                batch.get(0).result().completeExceptionally(e);
+                return;
+            }
+            // The whole transaction rolled back; retry one by one so a bad write fails alone.
+            for (PendingWrite pending : batch) {
+                write(List.of(pending));
+            }
+            return;
+        }
+        int reference = 0;
+        for (PendingWrite pending : batch) {
+            if (pending instanceof PendingInsert insert) {
+                titleCache.evict(insert.metadata().getTitle());
+                insert.result().complete(insert.metadata());
+            } else if (pending instanceof PendingReferences references) {
+                references.result().complete(referenceCounts.get(reference++));
+            } else if (pending instanceof PendingChunkedUpload upload) {
+                upload.result().complete(null);
+            } else if (pending instanceof PendingReceivedChunks chunks) {
+                chunks.result().complete(null);
+            }
+        }
+    }
+
+    // Returns the new reference counts in the order of the reference writes in the batch.
+    private List<Integer> writeBatch(List<PendingWrite> batch) {
+        List<FileMetadata> inserts = new ArrayList<>();
+        List<PendingReferences> references = new ArrayList<>();
+        List<ChunkedUpload> uploads = new ArrayList<>();
+        Map<String, byte[]> receivedChunks = new LinkedHashMap<>();
+        for (PendingWrite pending : batch) {
+            if (pending instanceof PendingInsert insert) {
+                inserts.add(insert.metadata());
+            } else if (pending instanceof PendingReferences reference) {
+                references.add(reference);
+            } else if (pending instanceof PendingChunkedUpload upload) {
+                uploads.add(upload.upload());
+            } else if (pending instanceof PendingReceivedChunks chunks) {
+                receivedChunks.put(chunks.uploadId(), chunks.receivedChunks());
+            }
+        }
+        List<Integer> referenceCounts = transactionTemplate.execute(status -> {
+            // References first, in order: an upload's blob row must exist before its metadata row.
+            List<Integer> counts = new ArrayList<>(references.size());
+            for (PendingReferences reference : references) {
+                counts.add(adjust(reference.blob(), reference.delta()));
+            }
+            if (!inserts.isEmpty()) {
+                jdbcTemplate.execute(connection -> connection.prepareStatement(INSERT_METADATA_SQL, Statement.RETURN_GENERATED_KEYS),
+                        (PreparedStatementCallback<Void>) ps -> insertMetadata(ps, inserts));
+            }
+            // after the inserts, so chunks of an upload started in the same batch find its row
+            if (!uploads.isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_CHUNKED_UPLOAD_SQL, uploads, uploads.size(), (ps, upload) -> {
+                    ps.setString(1, upload.getId());
+                    ps.setString(2, upload.getFilename());
+                    ps.setString(3, upload.getTitle());
+                    ps.setString(4, upload.getDescription());
+                    ps.setLong(5, upload.getSize());
+                    ps.setInt(6, upload.getChunkSize());
+                    ps.setInt(7, upload.getChunkCount());
+                    ps.setBytes(8, upload.getReceivedChunks());
+                    ps.setTimestamp(9, Timestamp.valueOf(upload.getCreatedTime()));
+                });
+            }
+            if (!receivedChunks.isEmpty()) {
+                jdbcTemplate.batchUpdate(UPDATE_RECEIVED_CHUNKS_SQL, receivedChunks.entrySet(), receivedChunks.size(), (ps, chunks) -> {
+                    ps.setBytes(1, chunks.getValue());
+                    ps.setString(2, chunks.getKey());
+                });
+            }
+            return counts;
+        });
+        return referenceCounts;
+    }
+
+    private static Void insertMetadata(PreparedStatement ps, List<FileMetadata> inserts) throws SQLException {
+        for (FileMetadata metadata : inserts) {
+            ps.setString(1, metadata.getFilename());
+            ps.setString(2, metadata.getTitle());
+            ps.setString(3, metadata.getDescription());
+            ps.setTimestamp(4, Timestamp.valueOf(metadata.getUploadTime()));
+            ps.setString(5, metadata.getBlobHash());
+            ps.setString(6, metadata.getBlobEncoding());
+            ps.executeUpdate();
+            try (ResultSet generated = ps.getGeneratedKeys()) {
+                generated.next();
+                metadata.setId(generated.getLong(1));
+            }
+        }
+        return null;
+    }
+
+    private int adjust(StoredBlob blob, int delta) {
+        if (jdbcTemplate.update(ADJUST_REFERENCES_SQL, delta, blob.getHash()) == 0) {
+            if (delta <= 0) {
+                return 0;
+            }
+            jdbcTemplate.update(INSERT_BLOB_SQL, blob.getHash(), blob.getSize(), delta, Timestamp.valueOf(blob.getCreatedTime()), blob.getEncoding());
+            return delta;
+        }
+        Integer count = jdbcTemplate.queryForObject("SELECT ref_count FROM stored_blob WHERE hash = ?", Integer.class, blob.getHash());
+        if (count == null || count <= 0) {
+            jdbcTemplate.update("DELETE FROM stored_blob WHERE hash = ?", blob.getHash());
+            return 0;
+        }
+        return count;
+    }
+
+    private sealed interface PendingWrite permits PendingInsert, PendingReferences, PendingChunkedUpload, PendingReceivedChunks {
+
+        CompletableFuture<?> result();
+    }
+
+    private record PendingInsert(FileMetadata metadata, CompletableFuture<FileMetadata> result) implements PendingWrite {
+    }
+
+    private record PendingReferences(StoredBlob blob, int delta, CompletableFuture<Integer> result) implements PendingWrite {
+    }
+
+    private record PendingChunkedUpload(ChunkedUpload upload, CompletableFuture<Void> result) implements PendingWrite {
+    }
+
+    private record PendingReceivedChunks(String uploadId, byte[] receivedChunks, CompletableFuture<Void> result) implements PendingWrite {
+    }
+}
@@ -0,0 +1,9 @@
+package com.nullptr.files.repository;
+
+import com.nullptr.files.entity.StoredBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+}
@@ -0,0 +1,114 @@
+package com.nullptr.files.search;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Sorted, duplicate-free list of file ids. Ids are assigned in insert order, so adds are almost
+// always appends.
+final class LongList {
+
+    private static final long[] EMPTY = new long[0];
+
+    private long[] values;
+    private int size;
+
+    LongList() {
+        this.values = new long[2];
+    }
+
+    private LongList(long[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long get(int index) {
+        return values[index];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void add(long value) {
+        if (size > 0 && values[size - 1] >= value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) {
+                return;
+            }
+            insert(-index - 1, value);
+            return;
+        }
+        insert(size, value);
+    }
+
+    boolean remove(long value) {
+        int index = Arrays.binarySearch(values, 0, size, value);
+        if (index < 0) {
+            return false;
+        }
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        size--;
+        return true;
+    }
+
+    boolean contains(long value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    private void insert(int index, long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(2, size * 2));
+        }
+        System.arraycopy(values, index, values, index + 1, size - index);
+        values[index] = value;
+        size++;
+    }
+
+    static LongList unionAll(List<LongList> lists) {
+        if (lists.size() == 1) {
+            return lists.get(0);
+        }
+        int total = 0;
+        for (LongList list : lists) {
+            total += list.size;
+        }
+        long[] all = new long[total];
+        int n = 0;
+        for (LongList list : lists) {
+            System.arraycopy(list.values, 0, all, n, list.size);
+            n += list.size;
+        }
+        Arrays.sort(all);
+        int distinct = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (distinct == 0 || all[distinct - 1] != all[i]) {
+                all[distinct++] = all[i];
+            }
+        }
+        return new LongList(all, distinct);
+    }
+
+    // Walks the smaller list and binary-searches the larger one, which is cheap when a rare term
+    // is combined with a common one.
+    static LongList intersect(LongList a, LongList b) {
+        LongList small = (a.size <= b.size) ? a : b;
+        LongList large = (small == a) ? b : a;
+        long[] result = new long[small.size];
+        int n = 0;
+        int from = 0;
+        for (int i = 0; i < small.size; i++) {
+            int index = Arrays.binarySearch(large.values, from, large.size, small.values[i]);
+            if (index >= 0) {
+                result[n++] = small.values[i];
+                from = index + 1;
+            } else {
+                from = -index - 1;
+            }
+        }
+        return new LongList(n == 0 ? EMPTY : result, n);
+    }
+}
@@ -0,0 +1,264 @@
+package com.nullptr.files.search;
+
+import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.repository.FileMetadataRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-memory inverted index over file titles and descriptions. Tokens live in a sorted map, so a prefix
+// query is a sub-map range and a fuzzy query only scans tokens sharing its first character. Upload
+// times are kept in a sorted set for date-range queries.
+@Component
+public class SearchIndex implements SmartLifecycle {
+
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+    private static final int LOAD_PAGE_SIZE = 10_000;
+    private static final Comparator<IndexedFile> BY_UPLOAD_TIME =
+            Comparator.comparing(IndexedFile::uploadTime).thenComparingLong(IndexedFile::id);
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final TreeMap<String, LongList> postings = new TreeMap<>();
+    private final Map<String, LongList> titles = new HashMap<>();
+    private final Map<Long, IndexedFile> files = new HashMap<>();
+    private final NavigableSet<IndexedFile> byUploadTime = new TreeSet<>(BY_UPLOAD_TIME);
+    private volatile boolean running;
+
+    @Autowired
+    private FileMetadataRepository fileMetadataRepository;
+
+    // Loads the index before the web server starts accepting requests, a page at a time so the
+    // whole catalog is never held as entities at once.
+    @Override
+    public void start() {
+        List<FileMetadata> page = fileMetadataRepository.findPageOrderByUploadTime(PageRequest.ofSize(LOAD_PAGE_SIZE));
+        while (!page.isEmpty()) {
+            page.forEach(this::index);
+            FileMetadata last = page.get(page.size() - 1);
+            page = (page.size() < LOAD_PAGE_SIZE) ? List.of()
+                    : fileMetadataRepository.findPageOrderByUploadTimeAfter(last.getUploadTime(), last.getId(), PageRequest.ofSize(LOAD_PAGE_SIZE));
+        }
+        logger.info("Indexed {} files with {} distinct terms for search", size(), termCount());
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        // before WebServerStartStopLifecycle
+        return 0;
+    }
+
+    public void index(FileMetadata file) {
+        if (file.getId() == null) {
+            return;
+        }
+        IndexedFile indexed = new IndexedFile(file.getId(), file.getTitle(), file.getUploadTime());
+        Set<String> tokens = new LinkedHashSet<>(Tokenizer.tokenize(file.getTitle()));
+        tokens.addAll(Tokenizer.tokenize(file.getDescription()));
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(file.getId());
+            files.put(indexed.id(), indexed);
+            byUploadTime.add(indexed);
+            titles.computeIfAbsent(indexed.title(), key -> new LongList()).add(indexed.id());
+            for (String token : tokens) {
+                postings.computeIfAbsent(token, key -> new LongList()).add(indexed.id());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void removeLocked(long id) {
+        IndexedFile indexed = files.remove(id);
+        if (indexed == null) {
+            return;
+        }
+        byUploadTime.remove(indexed);
+        removePosting(titles, indexed.title(), id);
+        // Without the original text the posting lists cannot be found directly; removal is rare
+        // (deletes and re-indexing), so a scan of the vocabulary is acceptable.
+        postings.entrySet().removeIf(entry -> entry.getValue().remove(id) && entry.getValue().isEmpty());
+    }
+
+    private static void removePosting(Map<String, LongList> map, String key, long id) {
+        LongList ids = map.get(key);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            map.remove(key);
+        }
+    }
+
+    public List<String> search(SearchQuery query) {
+        lock.readLock().lock();
+        try {
+            LongList candidates = null;
+            if (query.title() != null && !query.title().isEmpty()) {
+                candidates = titles.getOrDefault(query.title(), new LongList());
+            }
+            for (Term term : parse(query.text())) {
+                LongList matches = match(term);
+                candidates = (candidates == null) ? matches : LongList.intersect(candidates, matches);
+                if (candidates.isEmpty()) {
+                    return List.of();
+                }
+            }
+
+            List<String> result = new ArrayList<>();
+            if (candidates == null) {
+                // Date range only: walk the upload-time index directly.
+                for (IndexedFile file : dateRange(query.from(), query.to())) {
+                    if (result.size() >= query.limit()) {
+                        break;
+                    }
+                    result.add(file.title());
+                }
+                return result;
+            }
+            for (int i = 0; i < candidates.size() && result.size() < query.limit(); i++) {
+                IndexedFile file = files.get(candidates.get(i));
+                if (inRange(file.uploadTime(), query.from(), query.to())) {
+                    result.add(file.title());
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return files.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private LongList match(Term term) {
+        List<LongList> matches = new ArrayList<>();
+        switch (term.kind()) {
+            case EXACT -> {
+                LongList ids = postings.get(term.text());
+                if (ids != null) {
+                    matches.add(ids);
+                }
+            }
+            case PREFIX -> matches.addAll(startingWith(term.text()).values());
+            case FUZZY -> {
+                int maxEdits = maxEdits(term.text());
+                String first = term.text().substring(0, Character.charCount(term.text().codePointAt(0)));
+                for (Map.Entry<String, LongList> entry : startingWith(first).entrySet()) {
+                    if (Tokenizer.boundedDistance(term.text(), entry.getKey(), maxEdits) <= maxEdits) {
+                        matches.add(entry.getValue());
+                    }
+                }
+            }
+        }
+        return matches.isEmpty() ? new LongList() : LongList.unionAll(matches);
+    }
+
+    private Map<String, LongList> startingWith(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    // Same thresholds as Lucene's AUTO fuzziness: short words must match exactly.
+    private static int maxEdits(String term) {
+        if (term.length() <= 2) {
+            return 0;
+        }
+        return (term.length() <= 5) ? 1 : 2;
+    }
+
+    private NavigableSet<IndexedFile> dateRange(LocalDateTime from, LocalDateTime to) {
+        NavigableSet<IndexedFile> range = byUploadTime;
+        if (from != null) {
+            range = range.tailSet(new IndexedFile(Long.MIN_VALUE, null, from), true);
+        }
+        if (to != null) {
+            range = range.headSet(new IndexedFile(Long.MIN_VALUE, null, to), false);
+        }
+        return range;
+    }
+
+    private static boolean inRange(LocalDateTime time, LocalDateTime from, LocalDateTime to) {
+        return (from == null || !time.isBefore(from)) && (to == null || time.isBefore(to));
+    }
+
+    static List<Term> parse(String text) {
+        List<Term> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        for (String raw : text.trim().split("\\s+")) {
+            TermKind kind = TermKind.EXACT;
+            if (raw.endsWith("*")) {
+                kind = TermKind.PREFIX;
+            } else if (raw.endsWith("~")) {
+                kind = TermKind.FUZZY;
+            }
+            List<String> tokens = Tokenizer.tokenize(raw);
+            for (int i = 0; i < tokens.size(); i++) {
+                // "foo-ba*" is foo AND ba*: only the last token carries the operator.
+                terms.add(new Term(tokens.get(i), (i == tokens.size() - 1) ? kind : TermKind.EXACT));
+            }
+        }
+        return terms;
+    }
+
+    enum TermKind {
+        EXACT, PREFIX, FUZZY
+    }
+
+    record Term(String text, TermKind kind) {
+    }
+
+    private record IndexedFile(long id, String title, LocalDateTime uploadTime) {
+    }
+}
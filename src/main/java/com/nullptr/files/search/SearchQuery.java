@@ -0,0 +1,9 @@
+package com.nullptr.files.search;
+
+import java.time.LocalDateTime;
+
+// text holds whitespace-separated terms that must all match: "term" matches the word exactly,
+// "term*" any word starting with it and "term~" words within a small edit distance. title, when set,
+// must match exactly. from is inclusive and to exclusive; either may be null.
+public record SearchQuery(String title, String text, LocalDateTime from, LocalDateTime to, int limit) {
+}
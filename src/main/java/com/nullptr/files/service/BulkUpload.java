@@ -0,0 +1,144 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.entity.StoredBlob;
+import com.nullptr.files.storage.BlobStore;
+import com.nullptr.files.storage.BlobWriter;
+
+import org.springframework.http.HttpStatus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+// Reads repeated title, description and file parts. Each file is stored as soon as its part ends and
+// handed to the listener, so its database writes are queued while the next file is still arriving.
+class BulkUpload extends UploadPartHandler {
+
+    private final BlobStore blobStore;
+    private final int maxFiles;
+    private final Consumer<Item> listener;
+    private final List<Item> items = new ArrayList<>();
+    private Item current;
+    private BlobWriter writer;
+
+    BulkUpload(BlobStore blobStore, int maxFiles, Consumer<Item> listener) {
+        this.blobStore = blobStore;
+        this.maxFiles = maxFiles;
+        this.listener = listener;
+    }
+
+    List<Item> getItems() {
+        return items;
+    }
+
+    // A file takes the title and description sent since the previous file; a problem with them
+    // fails only that file.
+    @Override
+    void startFile(String originalFilename) throws IOException {
+        if (items.size() >= maxFiles) {
+            throw new IllegalArgumentException("At most " + maxFiles + " files per request");
+        }
+        current = new Item(getTitle(), getDescription(), FileStorageService.safeFilename(originalFilename));
+        items.add(current);
+        clearFields();
+        if (current.title == null || current.description == null) {
+            current.finish(HttpStatus.BAD_REQUEST, "Fields title and description must precede each file part");
+        } else if (!isValid(current.title, current.description)) {
+            current.finish(HttpStatus.BAD_REQUEST, INVALID_INPUT);
+        } else if (current.filename == null) {
+            current.finish(HttpStatus.BAD_REQUEST, MISSING_FILENAME);
+        } else {
+            writer = blobStore.newWriter();
+        }
+    }
+
+    @Override
+    void fileData(ByteBuffer data) throws IOException {
+        if (writer != null) {
+            writer.write(data);
+        } else {
+            data.position(data.limit());
+        }
+    }
+
+    @Override
+    void fileFinished() throws IOException {
+        if (current == null) {
+            return;
+        }
+        if (writer != null) {
+            try {
+                current.blob = writer.commitAsync();
+            } catch (IOException e) {
+                current.finish(HttpStatus.EXPECTATION_FAILED, "Failed to upload file");
+            } finally {
+                writer.close();
+                writer = null;
+            }
+        }
+        if (current.blob != null) {
+            listener.accept(current);
+        }
+        current = null;
+    }
+
+    void discard() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not discard incomplete upload", e);
+        }
+    }
+
+    // Ends the upload at a malformed or cut-off part: the file being read, if any, is dropped and
+    // reported with the error, otherwise the error gets an entry of its own.
+    void abort(HttpStatus status, String message) {
+        try {
+            discard();
+        } finally {
+            writer = null;
+            if (current == null || current.hasResult()) {
+                current = new Item(getTitle(), getDescription(), null);
+                items.add(current);
+            }
+            current.finish(status, message);
+            current = null;
+        }
+    }
+
+    static class Item {
+
+        final String title;
+        final String description;
+        final String filename;
+        CompletableFuture<StoredBlob> blob;
+        CompletableFuture<FileMetadata> saved;
+        private HttpStatus status;
+        private String message;
+
+        Item(String title, String description, String filename) {
+            this.title = title;
+            this.description = description;
+            this.filename = filename;
+        }
+
+        void finish(HttpStatus status, String message) {
+            this.status = status;
+            this.message = message;
+        }
+
+        boolean hasResult() {
+            return status != null;
+        }
+
+        BulkUploadResult result() {
+            return new BulkUploadResult(title, filename, status.value(), message);
+        }
+    }
+}
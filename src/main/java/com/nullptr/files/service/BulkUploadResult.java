@@ -0,0 +1,8 @@
+package com.nullptr.files.service;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// status uses the HTTP code the file would have got from /f/ul on its own.
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BulkUploadResult(String title, String filename, int status, String message) {
+}
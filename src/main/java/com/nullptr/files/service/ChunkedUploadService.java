@@ -0,0 +1,316 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.config.FileStorageConfig;
+import com.nullptr.files.entity.ChunkedUpload;
+import com.nullptr.files.entity.StoredBlob;
+import com.nullptr.files.repository.ChunkedUploadRepository;
+import com.nullptr.files.repository.MetadataWriter;
+import com.nullptr.files.storage.BlobStore;
+
+import io.micrometer.core.annotation.Timed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import jakarta.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+@Service
+public class ChunkedUploadService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final int CHUNK_BUFFER_SIZE = 64 * 1024;
+
+    private final Path partialDir;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    private ChunkedUploadRepository chunkedUploadRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private MetadataWriter metadataWriter;
+
+    @Value("${file.chunked.max-size:10GB}")
+    private DataSize maxSize = DataSize.ofGigabytes(10);
+
+    @Value("${file.chunked.session-timeout:P1D}")
+    private Duration sessionTimeout = Duration.ofDays(1);
+
+    public ChunkedUploadService(FileStorageConfig fileStorageConfig) {
+        this.partialDir = Paths.get(fileStorageConfig.getUploadDir()).resolve(".chunked");
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(partialDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not initialize folder for chunked uploads!", e);
+        }
+    }
+
+    @Async("fileUploadTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "chunked-start"}, histogram = true)
+    public CompletableFuture<ChunkedUpload> start(String filename, String title, String description, long size, int chunkSize) {
+        String safeFilename = FileStorageService.safeFilename(filename);
+        if (safeFilename == null || size < 0 || chunkSize <= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid chunked upload parameters"));
+        }
+        // the partial file is allocated at full size up front
+        if (size > maxSize.toBytes()) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Chunked uploads are limited to " + maxSize.toBytes() + " bytes"));
+        }
+        long chunkCount = (size + chunkSize - 1) / chunkSize;
+        if (chunkCount > ChunkedUpload.MAX_CHUNKS) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Chunked uploads are limited to " + ChunkedUpload.MAX_CHUNKS + " chunks"));
+        }
+
+        ChunkedUpload upload = new ChunkedUpload();
+        upload.setId(UUID.randomUUID().toString());
+        upload.setFilename(safeFilename);
+        upload.setTitle(title);
+        upload.setDescription(description);
+        upload.setSize(size);
+        upload.setChunkSize(chunkSize);
+        upload.setChunkCount((int) chunkCount);
+        upload.setReceivedChunks(new byte[(int) ((chunkCount + 7) / 8)]);
+        upload.setCreatedTime(LocalDateTime.now());
+        try (RandomAccessFile partial = new RandomAccessFile(partialFile(upload.getId()).toFile(), "rw")) {
+            partial.setLength(size);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        try {
+            metadataWriter.insertChunkedUpload(upload).join();
+        } catch (CompletionException e) {
+            return CompletableFuture.failedFuture(e.getCause());
+        }
+        sessions.put(upload.getId(), new Session(upload));
+        return CompletableFuture.completedFuture(upload);
+    }
+
+    // Runs on the calling request thread, like FileStorageService.saveStream, so that concurrent chunks
+    // of one upload are limited by the connector rather than by the file-operation pool. Chunks share
+    // the session's guard; commit and cleanup take it exclusively, so they wait for chunks in flight
+    // and chunks that come later find the session closed. Received-chunk maps are written by the
+    // metadata writer, so chunks arriving together share one commit.
+    @Timed(value = "file.operation", extraTags = {"operation", "chunked-write"}, histogram = true)
+    public CompletableFuture<ChunkedUpload> writeChunk(String id, int index, ReadableByteChannel body) {
+        try {
+            Session session = session(id);
+            session.guard.readLock().lock();
+            try {
+                return CompletableFuture.completedFuture(writeChunk(session, index, body));
+            } finally {
+                session.guard.readLock().unlock();
+            }
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private ChunkedUpload writeChunk(Session session, int index, ReadableByteChannel body) throws IOException {
+        ChunkedUpload upload = session.upload;
+        String id = upload.getId();
+        if (session.closed) {
+            throw new IllegalStateException("Upload " + id + " is closed");
+        }
+        if (index < 0 || index >= upload.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk index " + index + " is out of range");
+        }
+        session.lastActivity = LocalDateTime.now();
+        long offset = upload.chunkOffset(index);
+        long length = upload.chunkLength(index);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BUFFER_SIZE);
+        long written = 0;
+        try (FileChannel channel = FileChannel.open(partialFile(id), StandardOpenOption.WRITE)) {
+            while (body.read(buffer) >= 0) {
+                if (written + buffer.position() > length) {
+                    throw new IllegalArgumentException("Chunk " + index + " exceeds " + length + " bytes");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer, offset + written);
+                }
+                buffer.clear();
+            }
+        }
+        if (written != length) {
+            throw new IllegalArgumentException("Chunk " + index + " must be " + length + " bytes, received " + written);
+        }
+
+        CompletableFuture<Void> recorded;
+        session.lock.lock();
+        try {
+            upload.markReceived(index);
+            // queued under the lock, so each map queued holds every earlier chunk too
+            recorded = metadataWriter.updateReceivedChunks(id, upload.getReceivedChunks());
+        } finally {
+            session.lock.unlock();
+        }
+        // the chunk is acknowledged only once its bit is committed
+        try {
+            recorded.join();
+        } catch (CompletionException e) {
+            throw new IOException("Could not record chunk " + index + " of upload " + id, e.getCause());
+        }
+        session.lastActivity = LocalDateTime.now();
+        return upload;
+    }
+
+    @Async("fileUploadTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "chunked-commit"}, histogram = true)
+    public CompletableFuture<String> commit(String id) {
+        try {
+            Session session = session(id);
+            ChunkedUpload upload = session.upload;
+            session.guard.writeLock().lock();
+            try {
+                if (session.closed) {
+                    throw new IllegalStateException("Upload " + id + " is closed");
+                }
+                if (!upload.isComplete()) {
+                    throw new IllegalStateException("Upload is missing " + (upload.getChunkCount() - upload.getReceivedChunkCount()) + " chunks");
+                }
+                StoredBlob blob = blobStore.importFile(partialFile(id));
+                fileStorageService.saveMetadata(upload.getFilename(), upload.getTitle(), upload.getDescription(), blob);
+                chunkedUploadRepository.deleteById(id);
+                session.closed = true;
+                sessions.remove(id, session);
+            } finally {
+                session.guard.writeLock().unlock();
+            }
+            return CompletableFuture.completedFuture("File uploaded successfully");
+        } catch (NoSuchElementException | IllegalStateException e) {
+            return CompletableFuture.failedFuture(e);
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture("Failed to upload file");
+        }
+    }
+
+    @Async("fileDetailsTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "chunked-status"}, histogram = true)
+    public CompletableFuture<Optional<ChunkedUpload>> getStatus(String id) {
+        Session session = sessions.get(id);
+        if (session != null) {
+            return CompletableFuture.completedFuture(Optional.of(session.upload));
+        }
+        return CompletableFuture.completedFuture(chunkedUploadRepository.findById(id));
+    }
+
+    @Scheduled(initialDelayString = "${file.chunked.cleanup-interval:PT1H}",
+            fixedDelayString = "${file.chunked.cleanup-interval:PT1H}")
+    public void removeStaleUploads() {
+        removeStaleUploads(LocalDateTime.now().minus(sessionTimeout));
+    }
+
+    // Drops uploads without a chunk since cutoff, and partial files that no upload owns. An upload
+    // loaded after a restart counts as last active when it started.
+    void removeStaleUploads(LocalDateTime cutoff) {
+        for (ChunkedUpload stale : chunkedUploadRepository.findByCreatedTimeBefore(cutoff)) {
+            sessions.putIfAbsent(stale.getId(), new Session(stale));
+            Session session = sessions.get(stale.getId());
+            if (session == null) {
+                continue;
+            }
+            session.guard.writeLock().lock();
+            try {
+                if (session.closed || session.lastActivity.isAfter(cutoff)) {
+                    continue;
+                }
+                session.closed = true;
+                sessions.remove(stale.getId(), session);
+                chunkedUploadRepository.deleteById(stale.getId());
+                Files.deleteIfExists(partialFile(stale.getId()));
+                logger.info("Removed chunked upload {}, idle since {}", stale.getId(), session.lastActivity);
+            } catch (IOException e) {
+                logger.warn("Could not delete the partial file of chunked upload {}", stale.getId(), e);
+            } finally {
+                session.guard.writeLock().unlock();
+            }
+        }
+
+        Instant fileCutoff = cutoff.atZone(ZoneId.systemDefault()).toInstant();
+        try (Stream<Path> partials = Files.list(partialDir)) {
+            for (Path partial : (Iterable<Path>) partials::iterator) {
+                String id = partial.getFileName().toString();
+                if (!sessions.containsKey(id) && Files.getLastModifiedTime(partial).toInstant().isBefore(fileCutoff)
+                        && !chunkedUploadRepository.existsById(id)) {
+                    Files.deleteIfExists(partial);
+                    logger.info("Removed orphaned partial file {}", partial);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not clean up {}", partialDir, e);
+        }
+    }
+
+    private Session session(String id) {
+        Session session = sessions.get(id);
+        if (session != null) {
+            return session;
+        }
+        // Loaded outside computeIfAbsent, which would hold a map lock (and pin a virtual thread)
+        // for the duration of the query.
+        session = chunkedUploadRepository.findById(id).map(Session::new)
+                .orElseThrow(() -> new NoSuchElementException("Upload " + id + " not found"));
+        Session existing = sessions.putIfAbsent(id, session);
+        return (existing != null) ? existing : session;
+    }
+
+    private Path partialFile(String id) {
+        return partialDir.resolve(id);
+    }
+
+    private static final class Session {
+
+        private final ChunkedUpload upload;
+        // guards the received-chunk map, which chunks update concurrently
+        private final ReentrantLock lock = new ReentrantLock();
+        private final ReentrantReadWriteLock guard = new ReentrantReadWriteLock();
+        // set, under the exclusive guard, once the upload is committed or removed
+        private volatile boolean closed;
+        private volatile LocalDateTime lastActivity;
+
+        private Session(ChunkedUpload upload) {
+            this.upload = upload;
+            this.lastActivity = upload.getCreatedTime();
+        }
+    }
+}
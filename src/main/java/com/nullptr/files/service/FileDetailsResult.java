@@ -0,0 +1,9 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.entity.FileMetadata;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record FileDetailsResult(String title, int status, FileMetadata file) {
+}
@@ -0,0 +1,24 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.entity.FileMetadata;
+
+import java.util.List;
+
+public class FilePage {
+
+    private final List<FileMetadata> files;
+    private final String next;
+
+    public FilePage(List<FileMetadata> files, String next) {
+        this.files = files;
+        this.next = next;
+    }
+
+    public List<FileMetadata> getFiles() {
+        return files;
+    }
+
+    public String getNext() {
+        return next;
+    }
+}
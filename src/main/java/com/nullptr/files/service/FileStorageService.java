@@ -2,41 +2,133 @@ package com.nullptr.files.service;
 
 import com.nullptr.files.config.FileStorageConfig;
 import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.entity.StoredBlob;
 import com.nullptr.files.repository.FileMetadataRepository;
+import com.nullptr.files.repository.MetadataWriter;
+import com.nullptr.files.search.SearchIndex;
+import com.nullptr.files.search.SearchQuery;
+import com.nullptr.files.storage.BlobStore;
+import com.nullptr.files.storage.BlobWriter;
+import com.nullptr.files.storage.BlockGzip;
+import com.nullptr.files.storage.ContentCache;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.transfer.ConditionalHeaders;
+import com.nullptr.files.transfer.FileRegion;
+import com.nullptr.files.transfer.FileRegionHttpMessageConverter;
+import com.nullptr.files.transfer.MultipartFileRegions;
+import com.nullptr.files.transfer.MultipartStreamParser;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.micrometer.core.annotation.Timed;
 
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.unit.DataSize;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.servlet.ServletInputStream;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Stream;
 
 @Service
 public class FileStorageService {
 
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int EXPORT_FLUSH_ROWS = 1000;
+    private static final int MAX_BULK_FILES = 1000;
+    // stays under SQLite's limit on bound parameters
+    private static final int TITLE_QUERY_CHUNK = 500;
+    static final String SEGMENT_SIZE_HEADER = "X-Segment-Size";
+
     private final Path root;
     private final String filePolicy;
 
     @Autowired
     private FileMetadataRepository fileMetadataRepository;
 
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private ContentCache contentCache;
+
+    @Autowired
+    private FileChannelPool fileChannelPool;
+
+    @Autowired
+    private SearchIndex searchIndex;
+
+    @Autowired
+    private MetadataWriter metadataWriter;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${file.download.min-segment-size:4MB}")
+    private DataSize minSegmentSize = DataSize.ofMegabytes(4);
+
+    @Value("${file.download.max-segments:8}")
+    private int maxSegments = 8;
+
+    @Autowired
+    @Qualifier("fileIoExecutor")
+    private ExecutorService ioExecutor;
+
+    @Autowired
+    @Qualifier("fileUploadTaskExecutor")
+    private Executor uploadTaskExecutor;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     public FileStorageService(FileStorageConfig fileStorageConfig) {
         this.root = Paths.get(fileStorageConfig.getUploadDir());
         this.filePolicy = fileStorageConfig.getPolicy();
@@ -70,75 +162,508 @@ public class FileStorageService {
         }
     }
 
-    @Async("fileOperationTaskExecutor")
+    @Async("fileUploadTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "upload"}, histogram = true)
     public CompletableFuture<String> save(MultipartFile file, String title, String description) {
         try {
-            Files.copy(file.getInputStream(), this.root.resolve(file.getOriginalFilename()));
+            String filename = safeFilename(file.getOriginalFilename());
+            if (filename == null) {
+                throw new IllegalArgumentException("File without a filename");
+            }
+            try (BlobWriter writer = blobStore.newWriter(); InputStream in = file.getInputStream()) {
+                writer.write(in);
+                saveMetadata(filename, title, description, writer.commit());
+            }
+
+            return CompletableFuture.completedFuture("File uploaded successfully");
+        } catch (Exception e) {
+            return CompletableFuture.completedFuture("Failed to upload file");
+        }
+    }
 
-            FileMetadata metadata = new FileMetadata();
-            metadata.setFilename(file.getOriginalFilename());
-            metadata.setTitle(title);
-            metadata.setDescription(description);
-            metadata.setUploadTime(LocalDateTime.now());
-            fileMetadataRepository.save(metadata);
+    // Runs on the calling request thread: the body is read straight off the connection, so handing it
+    // to the executor would only tie up one of its threads for as long as the client takes to send.
+    @Timed(value = "file.operation", extraTags = {"operation", "upload-stream"}, histogram = true)
+    public CompletableFuture<String> saveStream(ReadableByteChannel body, String contentType) {
+        String boundary = boundaryOf(contentType);
+        if (boundary == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Missing multipart boundary"));
+        }
+        StreamingUpload upload = new StreamingUpload(blobStore);
+        try {
+            new MultipartStreamParser(boundary, upload, STREAM_BUFFER_SIZE).parse(body);
+            if (upload.getFilename() == null) {
+                throw new IllegalArgumentException("Missing file part");
+            }
+            saveMetadata(upload.getFilename(), upload.getTitle(), upload.getDescription(), upload.commit());
 
             return CompletableFuture.completedFuture("File uploaded successfully");
+        } catch (IllegalArgumentException e) {
+            upload.discard();
+            return CompletableFuture.failedFuture(e);
         } catch (Exception e) {
+            upload.discard();
             return CompletableFuture.completedFuture("Failed to upload file");
         }
     }
 
-    @Async("fileOperationTaskExecutor")
-    public CompletableFuture<ResponseEntity<?>> loadByTitle(String title, String rangeHeader) throws IOException {
+    // The non-blocking counterpart of saveStream: no thread waits for the client while the body is read
+    // and the file written. The request must already be async. Once the body is in, the upload is
+    // stored and its row written on the upload executor. Fields may come before or after the file.
+    @Timed(value = "file.operation", extraTags = {"operation", "upload-non-blocking"}, histogram = true)
+    public CompletableFuture<String> saveNonBlocking(ServletInputStream body, String contentType) {
+        String boundary = boundaryOf(contentType);
+        if (boundary == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Missing multipart boundary"));
+        }
+        StreamingUpload upload = new StreamingUpload(blobStore, ioExecutor);
+        return new NonBlockingUpload(body, new MultipartStreamParser(boundary, upload, STREAM_BUFFER_SIZE), upload).read()
+                .thenApplyAsync(read -> {
+                    if (upload.getFilename() == null) {
+                        throw new IllegalArgumentException("Missing file part");
+                    }
+                    upload.checkFields();
+                    try {
+                        saveMetadata(upload.getFilename(), upload.getTitle(), upload.getDescription(), upload.commit());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return "File uploaded successfully";
+                }, uploadTaskExecutor)
+                .handle((response, ex) -> {
+                    if (ex == null) {
+                        return CompletableFuture.completedFuture(response);
+                    }
+                    upload.discard();
+                    Throwable cause = (ex instanceof CompletionException && ex.getCause() != null) ? ex.getCause() : ex;
+                    return (cause instanceof IllegalArgumentException || cause instanceof TaskRejectedException)
+                            ? CompletableFuture.<String>failedFuture(cause)
+                            : CompletableFuture.completedFuture("Failed to upload file");
+                })
+                .thenCompose(response -> response);
+    }
+
+    // Runs on the calling request thread like saveStream, so it is bounded by the connector's threads
+    // rather than the upload bulkhead, whose slots would otherwise wait on the client. Files are stored
+    // while the body is read and their rows queued straight away, so the metadata writer commits a
+    // whole request in a few transactions instead of one per file. Files stored before a malformed or
+    // cut-off part are kept and reported, followed by an entry for the part that failed.
+    @Timed(value = "file.operation", extraTags = {"operation", "upload-bulk"}, histogram = true)
+    public CompletableFuture<List<BulkUploadResult>> saveBulk(ReadableByteChannel body, String contentType) {
+        String boundary = boundaryOf(contentType);
+        if (boundary == null) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Missing multipart boundary"));
+        }
+        BulkUpload upload = new BulkUpload(blobStore, MAX_BULK_FILES, item -> item.saved = item.blob.thenCompose(blob ->
+                metadataWriter.insert(newMetadata(item.filename, item.title, item.description, blob))));
+        try {
+            new MultipartStreamParser(boundary, upload, STREAM_BUFFER_SIZE).parse(body);
+        } catch (Exception e) {
+            if (upload.getItems().isEmpty()) {
+                upload.discard();
+                return CompletableFuture.failedFuture(e);
+            }
+            if (e instanceof IllegalArgumentException) {
+                upload.abort(HttpStatus.BAD_REQUEST, e.getMessage());
+            } else {
+                upload.abort(HttpStatus.EXPECTATION_FAILED, "Failed to upload file");
+            }
+        }
+        return CompletableFuture.completedFuture(finishBulk(upload));
+    }
+
+    private List<BulkUploadResult> finishBulk(BulkUpload upload) {
+        List<BulkUploadResult> results = new ArrayList<>(upload.getItems().size());
+        for (BulkUpload.Item item : upload.getItems()) {
+            if (item.saved != null) {
+                try {
+                    searchIndex.index(item.saved.join());
+                    item.finish(HttpStatus.OK, "File uploaded successfully");
+                } catch (CompletionException e) {
+                    releaseAfterFailedInsert(item.blob);
+                    if (e.getCause() instanceof TaskRejectedException) {
+                        item.finish(HttpStatus.SERVICE_UNAVAILABLE, "Server is busy, please retry later");
+                    } else {
+                        item.finish(HttpStatus.EXPECTATION_FAILED, "Failed to upload file");
+                    }
+                }
+            }
+            if (item.hasResult()) {
+                results.add(item.result());
+            }
+        }
+        return results;
+    }
+
+    private void releaseAfterFailedInsert(CompletableFuture<StoredBlob> blob) {
+        if (blob.isCompletedExceptionally()) {
+            return;
+        }
+        try {
+            blobStore.release(blob.join().getHash());
+        } catch (IOException | RuntimeException e) {
+            // the blob keeps an extra reference; its file is only stored once either way
+        }
+    }
+
+    private static String boundaryOf(String contentType) {
+        try {
+            MediaType mediaType = MediaType.parseMediaType(contentType);
+            if (!MediaType.MULTIPART_FORM_DATA.includes(mediaType)) {
+                return null;
+            }
+            String boundary = mediaType.getParameter("boundary");
+            if (boundary != null && boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                boundary = boundary.substring(1, boundary.length() - 1);
+            }
+            return StringUtils.hasLength(boundary) ? boundary : null;
+        } catch (InvalidMediaTypeException e) {
+            return null;
+        }
+    }
+
+    static String safeFilename(String filename) {
+        String name = (filename != null) ? StringUtils.getFilename(StringUtils.cleanPath(filename)) : null;
+        return StringUtils.hasText(name) && !"..".equals(name) ? name : null;
+    }
+
+    void saveMetadata(String filename, String title, String description, StoredBlob blob) throws IOException {
+        FileMetadata metadata = newMetadata(filename, title, description, blob);
+        FileMetadata saved;
+        try {
+            saved = metadataWriter.insert(metadata).join();
+        } catch (CompletionException e) {
+            blobStore.release(blob.getHash());
+            throw (e.getCause() instanceof RuntimeException cause) ? cause : e;
+        }
+        searchIndex.index(saved);
+    }
+
+    private static FileMetadata newMetadata(String filename, String title, String description, StoredBlob blob) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFilename(filename);
+        metadata.setTitle(title);
+        metadata.setDescription(description);
+        // the database keeps milliseconds; match it so the search index and listing cursors agree
+        metadata.setUploadTime(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+        metadata.setBlobHash(blob.getHash());
+        metadata.setBlobEncoding(blob.getEncoding());
+        return metadata;
+    }
+
+    @Async("fileDownloadTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "download"}, histogram = true)
+    public CompletableFuture<ResponseEntity<?>> loadByTitle(String title, String rangeHeader, String acceptEncoding, ConditionalHeaders conditions) throws IOException {
+        return CompletableFuture.completedFuture(load(title, rangeHeader, acceptEncoding, conditions, false));
+    }
+
+    // Runs on the calling request thread, outside the download bulkhead: the whole-file response if
+    // the container can send it with sendfile, otherwise null and the caller goes through loadByTitle.
+    // It reads only the (cached) metadata and the pooled file size, never the content.
+    @Timed(value = "file.operation", extraTags = {"operation", "download-sendfile"}, histogram = true)
+    public ResponseEntity<?> loadForSendfile(String title, String acceptEncoding, ConditionalHeaders conditions) throws IOException {
+        ResponseEntity<?> response = load(title, null, acceptEncoding, conditions, true);
+        return (response.getBody() instanceof FileRegion region && FileRegionHttpMessageConverter.qualifiesForSendfile(region))
+                ? response
+                : null;
+    }
+
+    // forSendfile skips the content cache, whose copy would have to be written through the JVM.
+    private ResponseEntity<?> load(String title, String rangeHeader, String acceptEncoding, ConditionalHeaders conditions,
+                                   boolean forSendfile) throws IOException {
         Optional<FileMetadata> fileMetadataOpt = fileMetadataRepository.findByTitle(title);
         if (fileMetadataOpt.isPresent()) {
             FileMetadata fileMetadata = fileMetadataOpt.get();
-            Path file = root.resolve(fileMetadata.getFilename());
-            if (Files.exists(file)) {
-                long fileLength = Files.size(file);
-                if (rangeHeader == null) {
-                InputStreamResource resource = new InputStreamResource(Files.newInputStream(file));
-                    return CompletableFuture.completedFuture(ResponseEntity.ok()
-                            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName().toString() + "\"")
-                            .body(resource));
-                } else {
-                    List<HttpRange> httpRanges = HttpRange.parseRanges(rangeHeader);
-                    HttpRange httpRange = httpRanges.get(0);
-                    long start = httpRange.getRangeStart(fileLength);
-                    long end = httpRange.getRangeEnd(fileLength);
-                    long rangeLength = end - start + 1;
-
-                    byte[] data = new byte[(int) rangeLength];
-                    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "r")) {
-                        raf.seek(start);
-                        raf.readFully(data);
-                    }
+            String blobHash = fileMetadata.getBlobHash();
+            Path file = (blobHash != null)
+                    ? blobStore.resolve(blobHash)
+                    : root.resolve(fileMetadata.getFilename());
+            boolean compressed = BlockGzip.ENCODING.equals(fileMetadata.getBlobEncoding());
+            long lastModified = (fileMetadata.getUploadTime() != null)
+                    ? fileMetadata.getUploadTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                    : -1;
+            // ranges are always served decoded, so If-Range is checked against the plain tag
+            String etag = etag(blobHash, null);
+            if (conditions != null && !conditions.rangeApplies(lastModified, etag)) {
+                rangeHeader = null;
+            }
+            // the stored file goes out as it is when the client takes gzip, so only ranges and other
+            // clients pay for decoding
+            boolean sendCompressed = compressed && rangeHeader == null && acceptsGzip(acceptEncoding);
+            String sentEtag = sendCompressed ? etag(blobHash, BlockGzip.ENCODING) : etag;
+            ByteBuffer cached = (blobHash != null && !sendCompressed && !forSendfile) ? contentCache.getIfPresent(blobHash) : null;
+            // the length comes from the pooled channel, so a file that is being downloaded is not stat'ed
+            // again; it is -1 when the file is gone
+            boolean decode = compressed && !sendCompressed;
+            long fileLength = (cached != null) ? cached.capacity() : length(file, decode);
+            // the blob may have moved tiers since it was resolved
+            Path fallback = (blobHash != null) ? blobStore.fallback(blobHash) : null;
+            if (fileLength < 0 && fallback != null && !fallback.equals(file)) {
+                file = fallback;
+                fileLength = length(file, decode);
+            }
+            if (fallback != null && fallback.equals(file)) {
+                fallback = null;
+            }
+            if (fileLength >= 0) {
+                HttpHeaders headers = fileHeaders(fileMetadata.getFilename(), compressed, sentEtag, lastModified);
+                if (conditions != null && conditions.isNotModified(lastModified, etag, sentEtag)) {
+                    headers.remove(HttpHeaders.CONTENT_DISPOSITION);
+                    return ResponseEntity.status(HttpStatus.NOT_MODIFIED).headers(headers).build();
+                }
+                if (sendCompressed) {
+                    return compressedResponse(file, fallback, headers, fileLength);
+                }
+                if (cached == null) {
+                    cached = (blobHash != null && !forSendfile) ? contentCache.load(blobHash, file, fileLength, compressed) : null;
+                    return fileResponse(file, fallback, compressed, cached, headers, fileLength, rangeHeader);
+                }
+                return fileResponse(null, null, compressed, cached, headers, fileLength, rangeHeader);
+            }
+        }
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found");
+    }
+
+    // Strong tag from the content hash, which is computed while the upload is written. The stored gzip
+    // bytes are a different representation and get their own tag. Files from before content hashing
+    // have none.
+    static String etag(String blobHash, String encoding) {
+        if (blobHash == null) {
+            return null;
+        }
+        return "\"" + blobHash + ((encoding != null) ? "-" + encoding : "") + "\"";
+    }
+
+    private long length(Path file, boolean decode) throws IOException {
+        return decode ? fileChannelPool.uncompressedLength(file) : fileChannelPool.size(file);
+    }
+
+    private ResponseEntity<?> compressedResponse(Path file, Path fallback, HttpHeaders headers, long storedLength) {
+        return ResponseEntity.ok()
+                .headers(headers)
+                .header(HttpHeaders.CONTENT_ENCODING, BlockGzip.ENCODING)
+                .contentLength(storedLength)
+                .body(new FileRegion(file, fallback, false, 0, storedLength));
+    }
+
+    // cached, when present, holds the whole (uncompressed) file and is served instead of file.
+    private ResponseEntity<?> fileResponse(Path file, Path fallback, boolean compressed, ByteBuffer cached, HttpHeaders headers, long fileLength, String rangeHeader) {
+        if (fileLength > 0) {
+            headers.set(SEGMENT_SIZE_HEADER, String.valueOf(segmentSize(fileLength, minSegmentSize.toBytes(), maxSegments)));
+        }
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(rangeHeader);
+        } catch (IllegalArgumentException e) {
+            return rangeNotSatisfiable(fileLength);
+        }
+        if (httpRanges.isEmpty()) {
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .contentLength(fileLength)
+                    .body(region(file, fallback, compressed, cached, 0, fileLength));
+        }
 
-                    return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
-                            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.getFileName().toString() + "\"")
-                            .header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileLength)
-                            .body(data));
+        List<FileRegion> regions = new ArrayList<>(httpRanges.size());
+        long totalLength = 0;
+        for (HttpRange httpRange : httpRanges) {
+            try {
+                long start = httpRange.getRangeStart(fileLength);
+                long end = httpRange.getRangeEnd(fileLength);
+                if (end >= start) {
+                    regions.add(region(file, fallback, compressed, cached, start, end - start + 1));
+                    totalLength += end - start + 1;
                 }
+            } catch (IllegalArgumentException e) {
+                // unsatisfiable ranges are skipped as long as another range can be served
             }
         }
-        return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.NOT_FOUND).body("File not found"));
+        if (regions.isEmpty() || (regions.size() > 1 && totalLength > fileLength)) {
+            return rangeNotSatisfiable(fileLength);
+        }
+
+        if (regions.size() == 1) {
+            FileRegion region = regions.get(0);
+            long end = region.getPosition() + region.getCount() - 1;
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .headers(headers)
+                    .header(HttpHeaders.CONTENT_RANGE, "bytes " + region.getPosition() + "-" + end + "/" + fileLength)
+                    .contentLength(region.getCount())
+                    .body(region);
+        }
+        MultipartFileRegions multipartRegions = new MultipartFileRegions((cached != null) ? null : file, fileLength, regions,
+                MimeTypeUtils.generateMultipartBoundaryString(), MediaType.APPLICATION_OCTET_STREAM);
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .contentType(multipartRegions.getContentType())
+                .contentLength(multipartRegions.getContentLength())
+                .body(multipartRegions);
     }
 
-    @Async("fileOperationTaskExecutor")
-    public CompletableFuture<List<FileMetadata>> listAllFiles() {
-        return CompletableFuture.completedFuture(fileMetadataRepository.findAll());
+    // Suggested size for clients fetching the file in parallel ranges: at most maxSegments parts of at
+    // least minSegmentSize, in whole 64KB blocks so a segment of a compressed file inflates only its own.
+    static long segmentSize(long fileLength, long minSegmentSize, int maxSegments) {
+        long segments = Math.max(1, Math.min(maxSegments, fileLength / Math.max(1, minSegmentSize)));
+        long size = (fileLength + segments - 1) / segments;
+        return (size + BlockGzip.BLOCK_SIZE - 1) / BlockGzip.BLOCK_SIZE * BlockGzip.BLOCK_SIZE;
     }
 
-    @Async("fileOperationTaskExecutor")
+    private static HttpHeaders fileHeaders(String filename, boolean compressed, String etag, long lastModified) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"");
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (etag != null) {
+            headers.setETag(etag);
+        }
+        if (lastModified >= 0) {
+            headers.setLastModified(lastModified);
+        }
+        if (compressed) {
+            // the same URL answers with or without Content-Encoding
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        }
+        return headers;
+    }
+
+    private static FileRegion region(Path file, Path fallback, boolean compressed, ByteBuffer cached, long position, long count) {
+        return (cached != null) ? new FileRegion(cached, position, count) : new FileRegion(file, fallback, compressed, position, count);
+    }
+
+    // gzip, x-gzip or * with a non-zero quality; an explicit gzip entry overrides *.
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = Math.max(gzip, quality);
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+        return ((gzip >= 0) ? gzip : any) > 0;
+    }
+
+    private ResponseEntity<?> rangeNotSatisfiable(long fileLength) {
+        return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileLength)
+                .build();
+    }
+
+    @Async("fileListTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "list"}, histogram = true)
+    public CompletableFuture<FilePage> listFiles(String sort, int size, String cursor) {
+        if (!ListingCursor.SORT_UPLOAD_TIME.equals(sort) && !ListingCursor.SORT_TITLE.equals(sort)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Unsupported sort: " + sort));
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE));
+        }
+        ListingCursor after;
+        try {
+            after = (cursor != null) ? ListingCursor.decode(cursor, sort) : null;
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // One extra row tells whether there is a next page without a count query.
+        Pageable page = PageRequest.ofSize(size + 1);
+        List<FileMetadata> files;
+        if (ListingCursor.SORT_TITLE.equals(sort)) {
+            files = (after == null)
+                    ? fileMetadataRepository.findPageOrderByTitle(page)
+                    : fileMetadataRepository.findPageOrderByTitleAfter(after.key(), after.id(), page);
+        } else {
+            files = (after == null)
+                    ? fileMetadataRepository.findPageOrderByUploadTime(page)
+                    : fileMetadataRepository.findPageOrderByUploadTimeAfter(after.uploadTime(), after.id(), page);
+        }
+
+        String next = null;
+        if (files.size() > size) {
+            files = files.subList(0, size);
+            next = ListingCursor.after(sort, files.get(size - 1)).encode();
+        }
+        return CompletableFuture.completedFuture(new FilePage(files, next));
+    }
+
+    // Runs on the calling request thread and writes each row as soon as it is read, so neither the
+    // catalog nor the response is ever held in memory. Rows are detached once written to keep the
+    // persistence context from growing with the table.
+    @Transactional(readOnly = true)
+    @Timed(value = "file.operation", extraTags = {"operation", "export"}, histogram = true)
+    public void exportCatalog(OutputStream out) throws IOException {
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        generator.setRootValueSeparator(null);
+        long rows = 0;
+        try (Stream<FileMetadata> files = fileMetadataRepository.streamAllOrderById()) {
+            for (FileMetadata file : (Iterable<FileMetadata>) files::iterator) {
+                writer.writeValue(generator, file);
+                generator.writeRaw('\n');
+                entityManager.detach(file);
+                if (++rows % EXPORT_FLUSH_ROWS == 1) {
+                    generator.flush();
+                }
+            }
+        }
+        generator.flush();
+    }
+
+    @Async("fileDetailsTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "details"}, histogram = true)
     public CompletableFuture<Optional<FileMetadata>> getFileDetailsByTitle(String title) {
         return CompletableFuture.completedFuture(fileMetadataRepository.findByTitle(title));
     }
 
-    @Async("fileOperationTaskExecutor")
-    public CompletableFuture<List<String>> findFiles(String title, LocalDateTime date) {
-        LocalDateTime datePlusOneDay = (date != null) ? date.plusDays(1) : null;
-        List<FileMetadata> files = fileMetadataRepository.findByTitleAndDate(title, date, datePlusOneDay);
-        List<String> titles = files.stream().map(FileMetadata::getTitle).collect(Collectors.toList());
-        return CompletableFuture.completedFuture(titles);
+    // One IN query per chunk instead of a lookup per title. A title held by more than one file is a
+    // conflict, as the single-title lookup cannot pick one either.
+    @Async("fileDetailsTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "details-bulk"}, histogram = true)
+    public CompletableFuture<List<FileDetailsResult>> getFileDetailsByTitles(List<String> titles) {
+        Map<String, FileMetadata> found = new HashMap<>();
+        Set<String> ambiguous = new HashSet<>();
+        List<String> distinct = titles.stream().distinct().toList();
+        for (int i = 0; i < distinct.size(); i += TITLE_QUERY_CHUNK) {
+            List<String> chunk = distinct.subList(i, Math.min(i + TITLE_QUERY_CHUNK, distinct.size()));
+            for (FileMetadata file : fileMetadataRepository.findByTitleInOrderById(chunk)) {
+                if (found.putIfAbsent(file.getTitle(), file) != null) {
+                    ambiguous.add(file.getTitle());
+                }
+            }
+        }
+        List<FileDetailsResult> results = new ArrayList<>(titles.size());
+        for (String title : titles) {
+            FileMetadata file = found.get(title);
+            if (ambiguous.contains(title)) {
+                results.add(new FileDetailsResult(title, HttpStatus.CONFLICT.value(), null));
+            } else {
+                results.add(new FileDetailsResult(title, (file != null) ? HttpStatus.OK.value() : HttpStatus.NOT_FOUND.value(), file));
+            }
+        }
+        return CompletableFuture.completedFuture(results);
+    }
+
+    @Async("fileSearchTaskExecutor")
+    @Timed(value = "file.operation", extraTags = {"operation", "search"}, histogram = true)
+    public CompletableFuture<List<String>> findFiles(SearchQuery query) {
+        return CompletableFuture.completedFuture(searchIndex.search(query));
     }
 }
@@ -0,0 +1,47 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.entity.FileMetadata;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+// Position after the last row of a page: the sort key and id of that row. Clients treat the encoded
+// form as opaque; it carries the sort order so a cursor cannot be replayed against another ordering.
+record ListingCursor(String sort, String key, long id) {
+
+    static final String SORT_UPLOAD_TIME = "uploadTime";
+    static final String SORT_TITLE = "title";
+
+    static ListingCursor after(String sort, FileMetadata last) {
+        String key = SORT_TITLE.equals(sort) ? last.getTitle() : last.getUploadTime().toString();
+        return new ListingCursor(sort, key, last.getId());
+    }
+
+    String encode() {
+        String raw = sort + "\n" + id + "\n" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    LocalDateTime uploadTime() {
+        return LocalDateTime.parse(key);
+    }
+
+    static ListingCursor decode(String cursor, String sort) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = raw.split("\n", 3);
+            if (parts.length == 3 && parts[0].equals(sort)) {
+                ListingCursor decoded = new ListingCursor(parts[0], parts[2], Long.parseLong(parts[1]));
+                if (SORT_UPLOAD_TIME.equals(sort)) {
+                    decoded.uploadTime();
+                }
+                return decoded;
+            }
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException("Invalid cursor");
+    }
+}
@@ -0,0 +1,103 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.transfer.MultipartStreamParser;
+
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+// Reads a request body as the client sends it, without a thread waiting on the connection. Each chunk
+// read goes through the parser into the upload, and the next is only read once the file data from the
+// previous one has been written, so a slow disk slows the client down instead of filling memory.
+//
+// The container calls onDataAvailable only after isReady() has returned false, and a flush completes
+// on an I/O thread, so at most one of them reads at a time. Nothing here holds a lock while calling
+// into the container: the container holds its own while it calls onAllDataRead, so a listener that
+// locked around isReady() could deadlock against it.
+class NonBlockingUpload implements ReadListener {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final ServletInputStream body;
+    private final MultipartStreamParser parser;
+    private final StreamingUpload upload;
+    private final byte[] chunk = new byte[READ_BUFFER_SIZE];
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private volatile boolean flushing;
+    private volatile boolean allDataRead;
+
+    NonBlockingUpload(ServletInputStream body, MultipartStreamParser parser, StreamingUpload upload) {
+        this.body = body;
+        this.parser = parser;
+        this.upload = upload;
+    }
+
+    // Completes once the whole body has been read and the file written; the request must be async.
+    CompletableFuture<Void> read() {
+        body.setReadListener(this);
+        return done;
+    }
+
+    @Override
+    public void onDataAvailable() {
+        readAvailable();
+    }
+
+    @Override
+    public void onAllDataRead() {
+        // if a flush is still running, flushed() sees allDataRead and finishes instead; finishing twice is harmless
+        allDataRead = true;
+        if (!flushing) {
+            finish();
+        }
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        done.completeExceptionally(failure);
+    }
+
+    private void readAvailable() {
+        try {
+            while (!flushing && !done.isDone() && body.isReady()) {
+                int read = body.read(chunk);
+                if (read < 0) {
+                    return;
+                }
+                parser.feed(ByteBuffer.wrap(chunk, 0, read));
+                CompletableFuture<Void> flush = upload.flush();
+                if (!flush.isDone()) {
+                    flushing = true;
+                    flush.whenComplete((result, failure) -> flushed(failure));
+                    return;
+                }
+                flush.join();
+            }
+        } catch (IOException | RuntimeException e) {
+            done.completeExceptionally(e);
+        }
+    }
+
+    private void flushed(Throwable failure) {
+        flushing = false;
+        if (failure != null) {
+            done.completeExceptionally(failure);
+        } else if (allDataRead) {
+            finish();
+        } else {
+            readAvailable();
+        }
+    }
+
+    private void finish() {
+        if (parser.isComplete()) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(new EOFException("Multipart body ended before its closing delimiter"));
+        }
+    }
+}
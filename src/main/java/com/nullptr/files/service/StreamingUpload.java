@@ -0,0 +1,96 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.entity.StoredBlob;
+import com.nullptr.files.storage.BlobStore;
+import com.nullptr.files.storage.BlobWriter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+class StreamingUpload extends UploadPartHandler {
+
+    private final BlobStore blobStore;
+    private final ExecutorService ioExecutor;
+    private String filename;
+    private BlobWriter writer;
+    private boolean fileFinished;
+
+    StreamingUpload(BlobStore blobStore) {
+        this(blobStore, null);
+    }
+
+    // With an ioExecutor the file is written without blocking: partData only stages it and flush
+    // writes it out. The fields may then come in any order, and are checked by checkFields once the
+    // body has been read.
+    StreamingUpload(BlobStore blobStore, ExecutorService ioExecutor) {
+        this.blobStore = blobStore;
+        this.ioExecutor = ioExecutor;
+    }
+
+    String getFilename() {
+        return fileFinished ? filename : null;
+    }
+
+    @Override
+    void startFile(String originalFilename) throws IOException {
+        if (filename != null) {
+            throw new IllegalArgumentException("Only one file part is supported");
+        }
+        if (ioExecutor == null) {
+            if (getTitle() == null || getDescription() == null) {
+                throw new IllegalArgumentException("Fields title and description must precede the file part");
+            }
+            checkFields();
+        }
+        filename = FileStorageService.safeFilename(originalFilename);
+        if (filename == null) {
+            throw new IllegalArgumentException(MISSING_FILENAME);
+        }
+        writer = (ioExecutor != null) ? blobStore.newNonBlockingWriter(ioExecutor) : blobStore.newWriter();
+    }
+
+    void checkFields() {
+        if (getTitle() == null || getDescription() == null) {
+            throw new IllegalArgumentException("Missing title or description");
+        }
+        if (!isValid(getTitle(), getDescription())) {
+            throw new IllegalArgumentException(INVALID_INPUT);
+        }
+    }
+
+    @Override
+    void fileData(ByteBuffer data) throws IOException {
+        if (writer != null && !fileFinished) {
+            writer.write(data);
+        } else {
+            data.position(data.limit());
+        }
+    }
+
+    @Override
+    void fileFinished() {
+        if (writer != null) {
+            fileFinished = true;
+        }
+    }
+
+    CompletableFuture<Void> flush() {
+        return (writer != null) ? writer.flush() : CompletableFuture.completedFuture(null);
+    }
+
+    StoredBlob commit() throws IOException {
+        return writer.commit();
+    }
+
+    void discard() {
+        try {
+            if (writer != null) {
+                writer.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Could not discard incomplete upload", e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.transfer.MultipartStreamParser;
+import com.nullptr.files.validation.InputValidator;
+
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// The part handling the upload forms share: title and description fields are collected here, and file
+// parts are passed on to the subclass.
+abstract class UploadPartHandler implements MultipartStreamParser.PartHandler {
+
+    static final int MAX_FIELD_SIZE = 64 * 1024;
+    static final String INVALID_INPUT = "Invalid input detected";
+    static final String MISSING_FILENAME = "File part without a filename";
+
+    private String title;
+    private String description;
+    private String fieldName;
+    private ByteArrayOutputStream field;
+
+    String getTitle() {
+        return title;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    // So the next file does not inherit the fields sent for this one.
+    void clearFields() {
+        title = null;
+        description = null;
+    }
+
+    static boolean isValid(String title, String description) {
+        return InputValidator.isValid(title) && InputValidator.isValid(description);
+    }
+
+    abstract void startFile(String originalFilename) throws IOException;
+
+    abstract void fileData(ByteBuffer data) throws IOException;
+
+    abstract void fileFinished() throws IOException;
+
+    @Override
+    public void partStarted(HttpHeaders headers) throws IOException {
+        String disposition = headers.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+        if (disposition == null) {
+            throw new IllegalArgumentException("Multipart part without Content-Disposition");
+        }
+        ContentDisposition contentDisposition = ContentDisposition.parse(disposition);
+        if ("file".equals(contentDisposition.getName()) && contentDisposition.getFilename() != null) {
+            startFile(contentDisposition.getFilename());
+        } else {
+            fieldName = contentDisposition.getName();
+            field = new ByteArrayOutputStream();
+        }
+    }
+
+    @Override
+    public void partData(ByteBuffer data) throws IOException {
+        if (field != null) {
+            if (field.size() + data.remaining() > MAX_FIELD_SIZE) {
+                throw new IllegalArgumentException("Field " + fieldName + " exceeds " + MAX_FIELD_SIZE + " bytes");
+            }
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            field.write(bytes, 0, bytes.length);
+        } else {
+            fileData(data);
+        }
+    }
+
+    @Override
+    public void partFinished() throws IOException {
+        if (field != null) {
+            String value = field.toString(StandardCharsets.UTF_8);
+            if ("title".equals(fieldName)) {
+                title = value;
+            } else if ("description".equals(fieldName)) {
+                description = value;
+            }
+            field = null;
+            fieldName = null;
+        } else {
+            fileFinished();
+        }
+    }
+}
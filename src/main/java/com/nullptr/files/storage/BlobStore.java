@@ -0,0 +1,245 @@
+package com.nullptr.files.storage;
+
+import com.nullptr.files.config.FileStorageConfig;
+import com.nullptr.files.entity.StoredBlob;
+import com.nullptr.files.repository.MetadataWriter;
+import com.nullptr.files.repository.StoredBlobRepository;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.ReentrantLock;
+
+@Component
+public class BlobStore {
+
+    private static final int LOCK_STRIPES = 64;
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private final StorageBackend storageBackend;
+    private final Path tempDir;
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+    // Blobs with reference writes still queued in the metadata writer. findById cannot see a new
+    // blob's row until its first write commits, so commits check here first. Entries are added under
+    // the hash's lock and dropped, without it, as the writes complete.
+    private final Map<String, PendingBlob> pending = new ConcurrentHashMap<>();
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
+    @Autowired
+    private MetadataWriter metadataWriter;
+
+    @Autowired
+    private ContentCache contentCache;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private FileChannelPool fileChannelPool;
+
+    @Value("${file.compression.enabled:false}")
+    private boolean compressionEnabled;
+
+    @Value("${file.compression.level:6}")
+    private int compressionLevel;
+
+    public BlobStore(FileStorageConfig fileStorageConfig, StorageBackend storageBackend) {
+        this.storageBackend = storageBackend;
+        this.tempDir = Paths.get(fileStorageConfig.getUploadDir()).resolve(".tmp");
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        try {
+            Files.createDirectories(tempDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Could not initialize folder for blobs!", e);
+        }
+    }
+
+    // For reads: counts as an access, which the tiered backend uses to decide placement.
+    public Path resolve(String hash) {
+        storageBackend.recordAccess(hash);
+        return storageBackend.resolve(hash);
+    }
+
+    public Path fallback(String hash) {
+        return storageBackend.fallback(hash);
+    }
+
+    public BlobWriter newWriter() throws IOException {
+        return new BlobWriter(this, Files.createTempFile(tempDir, "upload-", ".tmp"), newDigest());
+    }
+
+    // Writes go through an AsynchronousFileChannel whose completions run on ioExecutor.
+    public BlobWriter newNonBlockingWriter(ExecutorService ioExecutor) throws IOException {
+        return new BlobWriter(this, Files.createTempFile(tempDir, "upload-", ".tmp"), newDigest(), ioExecutor);
+    }
+
+    public StoredBlob importFile(Path source) throws IOException {
+        MessageDigest digest = newDigest();
+        long size = 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            int read;
+            while ((read = channel.read(buffer)) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+                size += read;
+            }
+        }
+        return commit(source, HexFormat.of().formatHex(digest.digest()), size);
+    }
+
+    StoredBlob commit(Path source, String hash, long size) throws IOException {
+        return await(commitAsync(source, hash, size));
+    }
+
+    // Stores the content and queues its new reference without waiting for it to be written. The
+    // writer applies reference changes in the order they were queued, so a release queued after
+    // this returns still counts this reference.
+    CompletableFuture<StoredBlob> commitAsync(Path source, String hash, long size) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            PendingBlob queued = pending.get(hash);
+            Optional<StoredBlob> existing = (queued != null) ? Optional.of(queued.blob()) : storedBlobRepository.findById(hash);
+            StoredBlob blob = existing.orElseGet(() -> {
+                StoredBlob created = new StoredBlob();
+                created.setHash(hash);
+                created.setSize(size);
+                created.setCreatedTime(LocalDateTime.now());
+                return created;
+            });
+            String outcome;
+            if (existing.isPresent() && storageBackend.exists(hash)) {
+                Files.delete(source);
+                outcome = "deduplicated";
+            } else if (existing.isPresent()) {
+                // the row outlived its file: store it again the way the row and its files describe it
+                store(source, hash, existing.get().getEncoding() != null, false);
+                fileChannelPool.invalidate(storageBackend.resolve(hash));
+                outcome = "restored";
+            } else {
+                if (store(source, hash, compressionEnabled, true)) {
+                    blob.setEncoding(BlockGzip.ENCODING);
+                }
+                outcome = "stored";
+            }
+            recordUpload(outcome, blob.getEncoding(), size);
+            pending.merge(hash, new PendingBlob(blob, 1), (current, added) -> new PendingBlob(current.blob(), current.writes() + 1));
+            return metadataWriter.adjustReferences(blob, 1)
+                    .whenComplete((refCount, e) -> pending.computeIfPresent(hash,
+                            (key, current) -> (current.writes() > 1) ? new PendingBlob(current.blob(), current.writes() - 1) : null))
+                    .thenApply(refCount -> {
+                        blob.setRefCount(refCount);
+                        return blob;
+                    });
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordUpload(String outcome, String encoding, long size) {
+        DistributionSummary.builder("file.upload.size")
+                .description("Bytes received per committed upload")
+                .baseUnit("bytes")
+                .tag("outcome", outcome)
+                .tag("encoding", (encoding != null) ? encoding : "identity")
+                .register(meterRegistry)
+                .record(size);
+    }
+
+    // Returns whether the stored file is compressed. With sniff set, content that would not shrink
+    // enough is stored as uploaded.
+    private boolean store(Path source, String hash, boolean compress, boolean sniff) throws IOException {
+        if (compress) {
+            Path compressed = source.resolveSibling(source.getFileName() + ".gz");
+            try {
+                if (BlockGzip.compress(source, compressed, compressionLevel, sniff)) {
+                    storageBackend.store(compressed, hash);
+                    Files.delete(source);
+                    return true;
+                }
+            } finally {
+                Files.deleteIfExists(compressed);
+            }
+        }
+        storageBackend.store(source, hash);
+        return false;
+    }
+
+    public void release(String hash) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Optional<StoredBlob> existing = storedBlobRepository.findById(hash);
+            if (existing.isEmpty()) {
+                return;
+            }
+            if (await(metadataWriter.adjustReferences(existing.get(), -1)) == 0) {
+                contentCache.invalidate(hash);
+                Path stored = storageBackend.resolve(hash);
+                storageBackend.delete(hash);
+                fileChannelPool.invalidate(stored);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> write) throws IOException {
+        try {
+            return write.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IOException("Could not update blob references", e.getCause());
+        }
+    }
+
+    private ReentrantLock lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private record PendingBlob(StoredBlob blob, int writes) {
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
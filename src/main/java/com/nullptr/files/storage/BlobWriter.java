@@ -0,0 +1,149 @@
+package com.nullptr.files.storage;
+
+import com.nullptr.files.entity.StoredBlob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+public class BlobWriter implements Closeable {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final BlobStore blobStore;
+    private final Path tempFile;
+    private final MessageDigest digest;
+    private final FileChannel channel;
+    private final AsynchronousFileChannel asyncChannel;
+    private ByteBuffer staged;
+    private long size;
+    private long flushed;
+    private boolean committed;
+
+    BlobWriter(BlobStore blobStore, Path tempFile, MessageDigest digest) throws IOException {
+        this.blobStore = blobStore;
+        this.tempFile = tempFile;
+        this.digest = digest;
+        this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.asyncChannel = null;
+    }
+
+    // A non-blocking writer only stages what write is given; flush writes it out on ioExecutor.
+    BlobWriter(BlobStore blobStore, Path tempFile, MessageDigest digest, ExecutorService ioExecutor) throws IOException {
+        this.blobStore = blobStore;
+        this.tempFile = tempFile;
+        this.digest = digest;
+        this.channel = null;
+        this.asyncChannel = AsynchronousFileChannel.open(tempFile,
+                Set.of(StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), ioExecutor);
+        this.staged = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+    }
+
+    public void write(ByteBuffer data) throws IOException {
+        if (asyncChannel != null) {
+            stage(data);
+            return;
+        }
+        ByteBuffer written = data.duplicate();
+        while (data.hasRemaining()) {
+            size += channel.write(data);
+        }
+        digest.update(written);
+    }
+
+    public void write(InputStream in) throws IOException {
+        byte[] chunk = new byte[COPY_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(chunk)) >= 0) {
+            write(ByteBuffer.wrap(chunk, 0, read));
+        }
+    }
+
+    private void stage(ByteBuffer data) {
+        if (staged.remaining() < data.remaining()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(staged.capacity() * 2, staged.position() + data.remaining()));
+            staged = larger.put(staged.flip());
+        }
+        size += data.remaining();
+        digest.update(data.duplicate());
+        staged.put(data);
+    }
+
+    // Writes out what has been staged since the last flush without blocking the caller. Nothing may be
+    // written until the returned future completes. Blocking writers have nothing staged.
+    public CompletableFuture<Void> flush() {
+        if (asyncChannel == null || staged.position() == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        staged.flip();
+        asyncChannel.write(staged, flushed, done, new CompletionHandler<>() {
+            @Override
+            public void completed(Integer written, CompletableFuture<Void> done) {
+                flushed += written;
+                if (staged.hasRemaining()) {
+                    asyncChannel.write(staged, flushed, done, this);
+                } else {
+                    staged.clear();
+                    done.complete(null);
+                }
+            }
+
+            @Override
+            public void failed(Throwable failure, CompletableFuture<Void> done) {
+                done.completeExceptionally(failure);
+            }
+        });
+        return done;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public StoredBlob commit() throws IOException {
+        closeChannel();
+        StoredBlob blob = blobStore.commit(tempFile, HexFormat.of().formatHex(digest.digest()), size);
+        committed = true;
+        return blob;
+    }
+
+    // The content is stored when this returns; the future completes once its reference is written.
+    public CompletableFuture<StoredBlob> commitAsync() throws IOException {
+        closeChannel();
+        CompletableFuture<StoredBlob> blob = blobStore.commitAsync(tempFile, HexFormat.of().formatHex(digest.digest()), size);
+        committed = true;
+        return blob;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            ((asyncChannel != null) ? asyncChannel : channel).close();
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void closeChannel() throws IOException {
+        if (asyncChannel == null) {
+            channel.close();
+            return;
+        }
+        asyncChannel.close();
+        if (flushed != size) {
+            throw new IOException("Only " + flushed + " of " + size + " bytes were flushed before commit");
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.nullptr.files.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Seekable gzip: a single ordinary gzip member, so the file can be sent as-is with Content-Encoding:
+// gzip. The deflate stream is fully flushed after every 64KB of input, which byte-aligns it and drops
+// the history, so each block can be inflated on its own. The compressed length of every block is kept
+// in the header's FEXTRA field, which gzip decoders skip; with it any uncompressed offset is reached by
+// inflating a single block.
+//
+//   1f 8b 08 04 00000000 00 ff | XLEN | 'B' 'T' 8 0 length(8) | 'B' 'I' LEN lengths... | deflate | crc(4) isize(4)
+public final class BlockGzip {
+
+    public static final String ENCODING = "gzip";
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+    static final int MAX_BLOCKS = (0xffff - 16) / 4;
+
+    private static final int HEADER_SIZE = 12;
+    private static final int TRAILER_SIZE = 8;
+    private static final int MIN_SIZE = 1024;
+    // a block must shrink to this share of its size for compression to be worth decoding on download
+    private static final double MAX_RATIO = 0.9;
+    private static final byte[][] COMPRESSED_FORMATS = {
+            {0x1f, (byte) 0x8b},                                 // gzip
+            {0x50, 0x4b, 0x03, 0x04},                            // zip, docx, jar
+            {0x28, (byte) 0xb5, 0x2f, (byte) 0xfd},              // zstd
+            {0x42, 0x5a, 0x68},                                  // bzip2
+            {(byte) 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00},         // xz
+            {0x37, 0x7a, (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c},  // 7z
+            {(byte) 0x89, 0x50, 0x4e, 0x47},                     // png
+            {(byte) 0xff, (byte) 0xd8, (byte) 0xff},             // jpeg
+            {0x47, 0x49, 0x46, 0x38},                            // gif
+            {0x52, 0x49, 0x46, 0x46},                            // webp, avi, wav
+            {0x4f, 0x67, 0x67, 0x53},                            // ogg
+            {0x49, 0x44, 0x33},                                  // mp3
+    };
+
+    private BlockGzip() {
+    }
+
+    // Writes source to target. When sniff is set, returns false without finishing target if the content
+    // is not worth compressing: too small or too large, a known compressed format, a first block that
+    // barely shrinks, or a result that is not smaller overall.
+    public static boolean compress(Path source, Path target, int level, boolean sniff) throws IOException {
+        long size = Files.size(source);
+        long blocks = Math.max(1, (size + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (blocks > MAX_BLOCKS || (sniff && size < MIN_SIZE)) {
+            if (sniff) {
+                return false;
+            }
+            throw new IOException("Cannot compress " + size + " bytes into at most " + MAX_BLOCKS + " blocks");
+        }
+        int[] lengths = new int[(int) blocks];
+        int headerSize = HEADER_SIZE + 12 + 4 + lengths.length * 4;
+        long written = headerSize;
+        CRC32 crc = new CRC32();
+        Deflater deflater = new Deflater(level, true);
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // the header is written last, once the block lengths are known
+            OutputStream data = new BufferedOutputStream(Channels.newOutputStream(out.position(headerSize)), BLOCK_SIZE);
+            byte[] block = new byte[BLOCK_SIZE];
+            byte[] compressed = new byte[BLOCK_SIZE];
+            for (int i = 0; i < blocks; i++) {
+                int length = readBlock(in, block);
+                if (sniff && i == 0 && isCompressedFormat(block, length)) {
+                    return false;
+                }
+                crc.update(block, 0, length);
+                deflater.setInput(block, 0, length);
+                boolean last = i == blocks - 1;
+                if (last) {
+                    deflater.finish();
+                }
+                int compressedLength = 0;
+                while (true) {
+                    int produced = last
+                            ? deflater.deflate(compressed)
+                            : deflater.deflate(compressed, 0, compressed.length, Deflater.FULL_FLUSH);
+                    data.write(compressed, 0, produced);
+                    compressedLength += produced;
+                    if (last ? deflater.finished() : produced < compressed.length) {
+                        break;
+                    }
+                }
+                if (sniff && i == 0 && compressedLength > length * MAX_RATIO) {
+                    return false;
+                }
+                lengths[i] = compressedLength;
+                written += compressedLength;
+            }
+            if (sniff && written + TRAILER_SIZE >= size) {
+                return false;
+            }
+            data.write(ByteBuffer.allocate(TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) crc.getValue()).putInt((int) size).array());
+            data.flush();
+            ByteBuffer header = header(lengths, size);
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+        } finally {
+            deflater.end();
+        }
+        return true;
+    }
+
+    public static long uncompressedLength(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readIndex(channel).length();
+        }
+    }
+
+    // Reads the whole content into a read-only direct buffer, checked against the gzip CRC.
+    public static ByteBuffer decode(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Index index = readIndex(channel);
+            ByteBuffer content = ByteBuffer.allocateDirect(Math.toIntExact(index.length()));
+            CRC32 crc = new CRC32();
+            Inflater inflater = new Inflater(true);
+            try {
+                byte[] block = new byte[BLOCK_SIZE];
+                for (int i = 0; i < index.blockCount(); i++) {
+                    int length = inflateBlock(channel, index, i, inflater, block);
+                    crc.update(block, 0, length);
+                    content.put(block, 0, length);
+                }
+            } finally {
+                inflater.end();
+            }
+            ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, trailer, index.offsets()[index.blockCount()]);
+            if (trailer.flip().getInt() != (int) crc.getValue()) {
+                throw new IOException("Checksum mismatch in " + file);
+            }
+            return content.flip().asReadOnlyBuffer();
+        }
+    }
+
+    // Sends count uncompressed bytes starting at position, inflating only the blocks they fall in.
+    public static void transfer(FileChannel channel, long position, long count, WritableByteChannel target) throws IOException {
+        transfer(channel, readIndex(channel), position, count, target);
+    }
+
+    // For callers that keep the index of a file they read often.
+    public static void transfer(FileChannel channel, Index index, long position, long count, WritableByteChannel target) throws IOException {
+        if (position < 0 || count < 0 || position + count > index.length()) {
+            throw new EOFException("Range " + position + "+" + count + " is outside " + index.length() + " bytes");
+        }
+        Inflater inflater = new Inflater(true);
+        try {
+            byte[] block = new byte[BLOCK_SIZE];
+            int i = (int) (position / BLOCK_SIZE);
+            int skip = (int) (position % BLOCK_SIZE);
+            while (count > 0) {
+                int length = inflateBlock(channel, index, i++, inflater, block);
+                int sent = (int) Math.min(count, length - skip);
+                ByteBuffer data = ByteBuffer.wrap(block, skip, sent);
+                while (data.hasRemaining()) {
+                    target.write(data);
+                }
+                count -= sent;
+                skip = 0;
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int inflateBlock(FileChannel channel, Index index, int i, Inflater inflater, byte[] block) throws IOException {
+        ByteBuffer compressed = ByteBuffer.allocate(index.compressedLength(i));
+        readFully(channel, compressed, index.offsets()[i]);
+        return inflateBlock(index, i, compressed.array(), inflater, block);
+    }
+
+    // Inflates block i from its compressed bytes, for callers that read them themselves (say, with an
+    // AsynchronousFileChannel) using index.offsets() and index.compressedLength(i).
+    public static int inflateBlock(Index index, int i, byte[] compressed, Inflater inflater, byte[] block) throws IOException {
+        int expected = (int) Math.min(BLOCK_SIZE, index.length() - (long) i * BLOCK_SIZE);
+        inflater.reset();
+        inflater.setInput(compressed, 0, index.compressedLength(i));
+        int length = 0;
+        try {
+            while (length < expected) {
+                int inflated = inflater.inflate(block, length, expected - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + i, e);
+        }
+        if (length != expected) {
+            throw new IOException("Corrupt block " + i);
+        }
+        return length;
+    }
+
+    public static Index readIndex(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readIndex(channel);
+        }
+    }
+
+    public static Index readIndex(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header, 0);
+        if (header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || header.get(2) != 8 || header.get(3) != 4) {
+            throw new IOException("Not a block gzip file");
+        }
+        int extraLength = header.getShort(10) & 0xffff;
+        ByteBuffer extra = ByteBuffer.allocate(extraLength).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, extra, HEADER_SIZE);
+        extra.flip();
+        if (extraLength < 16 || extra.get() != 'B' || extra.get() != 'T' || extra.getShort() != 8) {
+            throw new IOException("Not a block gzip file");
+        }
+        long length = extra.getLong();
+        int blocks = (int) Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (extra.get() != 'B' || extra.get() != 'I' || (extra.getShort() & 0xffff) != blocks * 4 || extra.remaining() != blocks * 4) {
+            throw new IOException("Corrupt block gzip index");
+        }
+        long[] offsets = new long[blocks + 1];
+        offsets[0] = HEADER_SIZE + extraLength;
+        for (int i = 0; i < blocks; i++) {
+            offsets[i + 1] = offsets[i] + (extra.getInt() & 0xffffffffL);
+        }
+        if (offsets[blocks] + TRAILER_SIZE != channel.size()) {
+            throw new IOException("Corrupt block gzip index");
+        }
+        return new Index(length, offsets);
+    }
+
+    private static boolean isCompressedFormat(byte[] block, int length) {
+        for (byte[] magic : COMPRESSED_FORMATS) {
+            if (length >= magic.length && Arrays.equals(block, 0, magic.length, magic, 0, magic.length)) {
+                return true;
+            }
+        }
+        // ISO base media (mp4, mov, heic): "ftyp" after the box size
+        return length >= 8 && block[4] == 'f' && block[5] == 't' && block[6] == 'y' && block[7] == 'p';
+    }
+
+    private static int readBlock(FileChannel in, byte[] block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+            // keep reading until the block is full or the file ends
+        }
+        return buffer.position();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Block gzip file ended early");
+            }
+            position += read;
+        }
+    }
+
+    private static ByteBuffer header(int[] lengths, long size) {
+        int extraLength = 12 + 4 + lengths.length * 4;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + extraLength).order(ByteOrder.LITTLE_ENDIAN);
+        header.put(new byte[] {0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff});
+        header.putShort((short) extraLength);
+        header.put((byte) 'B').put((byte) 'T').putShort((short) 8).putLong(size);
+        header.put((byte) 'B').put((byte) 'I').putShort((short) (lengths.length * 4));
+        for (int length : lengths) {
+            header.putInt(length);
+        }
+        return header.flip();
+    }
+
+    // length is the uncompressed length; offsets[i] is where compressed block i starts, with one more
+    // entry for the end of the last block.
+    public record Index(long length, long[] offsets) {
+
+        int blockCount() {
+            return offsets.length - 1;
+        }
+
+        public int compressedLength(int i) {
+            return (int) (offsets[i + 1] - offsets[i]);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.nullptr.files.storage;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps the content of small, popular blobs in direct buffers. Entries are keyed by blob hash, and a
+// blob's content never changes under its hash, so entries only leave through eviction or release.
+// Caffeine's W-TinyLFU admission keeps one-off downloads from pushing out frequently read files.
+//
+// Caffeine only decides on admission once the content has been read, so a doorkeeper sits in front of
+// it: the first miss on a blob only records its hash and the blob is served from disk, and it is read
+// into a direct buffer on a later miss while the hash is still recorded. One-off downloads then cost
+// an entry in the doorkeeper rather than a buffer of their full size. The doorkeeper is cleared once
+// it holds DOORKEEPER_SIZE hashes, so it only remembers recent misses.
+@Component
+public class ContentCache {
+
+    static final int DOORKEEPER_SIZE = 10_000;
+
+    private final long maxFileSize;
+    private final Cache<String, ByteBuffer> cache;
+    private final Set<String> doorkeeper = ConcurrentHashMap.newKeySet();
+
+    public ContentCache(@Value("${file.content-cache.capacity:0}") DataSize capacity,
+                        @Value("${file.content-cache.max-file-size:1MB}") DataSize maxFileSize,
+                        MeterRegistry meterRegistry) {
+        this.maxFileSize = Math.min(maxFileSize.toBytes(), Integer.MAX_VALUE);
+        if (capacity.toBytes() > 0) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumWeight(capacity.toBytes())
+                    .<String, ByteBuffer>weigher((hash, content) -> content.capacity())
+                    .recordStats()
+                    .build();
+            CaffeineCacheMetrics.monitor(meterRegistry, cache, "fileContent");
+        } else {
+            this.cache = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    public ByteBuffer getIfPresent(String hash) {
+        return isEnabled() ? cache.getIfPresent(hash) : null;
+    }
+
+    // Returns the cached content of file, loading it if it has missed recently, or null if the file is
+    // not cacheable or has not.
+    public ByteBuffer load(String hash, Path file, long size) throws IOException {
+        return load(hash, file, size, false);
+    }
+
+    // For a compressed (block gzip) file, size is the uncompressed size and the uncompressed content
+    // is cached, so hits skip decoding as well as the disk read.
+    public ByteBuffer load(String hash, Path file, long size, boolean compressed) throws IOException {
+        if (!isEnabled() || size > maxFileSize) {
+            return null;
+        }
+        ByteBuffer content = cache.getIfPresent(hash);
+        if (content != null) {
+            return content;
+        }
+        if (doorkeeper.add(hash)) {
+            if (doorkeeper.size() > DOORKEEPER_SIZE) {
+                doorkeeper.clear();
+            }
+            return null;
+        }
+        doorkeeper.remove(hash);
+        // Read outside the cache's compute: it holds a map lock for the whole load, which would pin
+        // a virtual thread to its carrier during the disk read. Concurrent misses may read twice.
+        content = compressed ? BlockGzip.decode(file) : read(file, (int) size);
+        ByteBuffer existing = cache.asMap().putIfAbsent(hash, content);
+        return (existing != null) ? existing : content;
+    }
+
+    public void invalidate(String hash) {
+        if (isEnabled()) {
+            cache.invalidate(hash);
+        }
+    }
+
+    private static ByteBuffer read(Path file, int size) throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect(size);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (content.hasRemaining()) {
+                if (channel.read(content) < 0) {
+                    throw new EOFException("File " + file + " is shorter than " + size + " bytes");
+                }
+            }
+        }
+        return content.flip().asReadOnlyBuffer();
+    }
+}
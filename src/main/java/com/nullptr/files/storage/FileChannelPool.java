@@ -0,0 +1,243 @@
+package com.nullptr.files.storage;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+// Open read-only FileChannels for stored files, keyed by path, with the file's size (and, for block
+// gzip files, its index) read once when the channel is opened. Downloads only use positional reads,
+// which do not touch the channel's position, so every download of a file, and every parallel segment
+// of one, reads through the same channel, and a popular file is not opened and stat'ed per request.
+//
+// A channel stays open while it has leases and for up to idleTimeout after the last one closes. Past
+// maxOpen, idle channels are closed oldest first; a channel still leased when the pool is full is
+// closed with its last lease. Stored files never change under their path, but they can be deleted or
+// replaced, so whoever does that invalidates the path and later opens see the new file.
+@Component
+public class FileChannelPool implements DisposableBean {
+
+    private final int maxOpen;
+    private final long idleTimeoutNanos;
+    private final LongSupplier nanoClock;
+    private final ConcurrentHashMap<Path, Entry> open = new ConcurrentHashMap<>();
+    private final Counter opened;
+
+    @Autowired
+    public FileChannelPool(@Value("${file.channel-pool.max-open:256}") int maxOpen,
+                           @Value("${file.channel-pool.idle-timeout:30s}") Duration idleTimeout,
+                           MeterRegistry meterRegistry) {
+        this(maxOpen, idleTimeout, meterRegistry, System::nanoTime);
+    }
+
+    FileChannelPool(int maxOpen, Duration idleTimeout, MeterRegistry meterRegistry, LongSupplier nanoClock) {
+        this.maxOpen = maxOpen;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.nanoClock = nanoClock;
+        Gauge.builder("file.channel.pool.open", open, Map::size)
+                .description("Stored files held open for reading")
+                .register(meterRegistry);
+        this.opened = Counter.builder("file.channel.pool.opened")
+                .description("Stored files opened because no open channel could be shared")
+                .register(meterRegistry);
+    }
+
+    public Lease open(Path file) throws IOException {
+        Entry entry;
+        try {
+            // leases are counted under the map's lock for the path, so a channel is never handed out
+            // while its last lease is closing it
+            entry = open.compute(file, (path, current) -> {
+                // an interrupted reader closes the channel for everyone; later readers get a new one
+                if (current == null || !current.channel.isOpen()) {
+                    if (current != null) {
+                        current.invalid = true;
+                    }
+                    current = newEntry(path);
+                }
+                current.leases++;
+                return current;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (open.size() > maxOpen) {
+            evictIdle(open.size() - maxOpen, Long.MAX_VALUE);
+        }
+        return new Lease(file, entry);
+    }
+
+    // Stored size of file, or -1 if it does not exist.
+    public long size(Path file) throws IOException {
+        try (Lease lease = open(file)) {
+            return lease.size();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    // Uncompressed length of a block gzip file, or -1 if it does not exist.
+    public long uncompressedLength(Path file) throws IOException {
+        try (Lease lease = open(file)) {
+            return lease.index().length();
+        } catch (NoSuchFileException e) {
+            return -1;
+        }
+    }
+
+    // For a stored file that has been deleted or replaced. Leases already handed out keep reading the
+    // file they opened and close it when they are done.
+    public void invalidate(Path file) {
+        open.computeIfPresent(file, (path, entry) -> {
+            entry.invalid = true;
+            if (entry.leases == 0) {
+                close(entry);
+            }
+            return null;
+        });
+    }
+
+    public int openCount() {
+        return open.size();
+    }
+
+    @Scheduled(initialDelayString = "${file.channel-pool.sweep-interval:PT10S}",
+            fixedDelayString = "${file.channel-pool.sweep-interval:PT10S}")
+    public void evictIdle() {
+        evictIdle(Integer.MAX_VALUE, nanoClock.getAsLong() - idleTimeoutNanos);
+    }
+
+    // Closes up to count channels that have had no leases since idleBefore, oldest first. Leases and
+    // idle times are read without the lock to pick candidates and checked again under it.
+    private void evictIdle(int count, long idleBefore) {
+        List<Map.Entry<Path, Entry>> idle = open.entrySet().stream()
+                .filter(e -> e.getValue().leases == 0 && e.getValue().idleSince < idleBefore)
+                .sorted(Comparator.comparingLong(e -> e.getValue().idleSince))
+                .limit(count)
+                .toList();
+        for (Map.Entry<Path, Entry> candidate : idle) {
+            open.computeIfPresent(candidate.getKey(), (path, entry) -> {
+                if (entry != candidate.getValue() || entry.leases > 0) {
+                    return entry;
+                }
+                close(entry);
+                return null;
+            });
+        }
+    }
+
+    private void release(Path file, Entry entry) {
+        open.compute(file, (path, current) -> {
+            if (--entry.leases > 0) {
+                return current;
+            }
+            if (entry.invalid || current != entry || !entry.channel.isOpen() || open.size() > maxOpen) {
+                close(entry);
+                return (current == entry) ? null : current;
+            }
+            entry.idleSince = nanoClock.getAsLong();
+            return current;
+        });
+    }
+
+    private Entry newEntry(Path path) {
+        try {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                Entry entry = new Entry(channel, channel.size());
+                opened.increment();
+                return entry;
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void close(Entry entry) {
+        try {
+            entry.channel.close();
+        } catch (IOException e) {
+            // nothing was written, so there is nothing to lose
+        }
+    }
+
+    @Override
+    public void destroy() {
+        open.keySet().forEach(this::invalidate);
+    }
+
+    private static final class Entry {
+
+        private final FileChannel channel;
+        private final long size;
+        private volatile int leases;
+        private volatile long idleSince;
+        private volatile boolean invalid;
+        private volatile BlockGzip.Index index;
+
+        private Entry(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    public final class Lease implements AutoCloseable {
+
+        private final Path file;
+        private final Entry entry;
+        private boolean closed;
+
+        private Lease(Path file, Entry entry) {
+            this.file = file;
+            this.entry = entry;
+        }
+
+        // Only for positional reads; never close it.
+        public FileChannel channel() {
+            return entry.channel;
+        }
+
+        public long size() {
+            return entry.size;
+        }
+
+        // For block gzip files; read on first use and kept with the channel.
+        public BlockGzip.Index index() throws IOException {
+            BlockGzip.Index index = entry.index;
+            if (index == null) {
+                index = BlockGzip.readIndex(entry.channel);
+                entry.index = index;
+            }
+            return index;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                release(file, entry);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.nullptr.files.storage;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.stream.Stream;
+
+public class LocalStorageBackend implements StorageBackend {
+
+    private static final int HASH_LENGTH = 64;
+
+    private final Path root;
+
+    public LocalStorageBackend(Path root) {
+        this.root = root;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    @Override
+    public Path resolve(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+    }
+
+    @Override
+    public boolean exists(String hash) {
+        return Files.exists(resolve(hash));
+    }
+
+    @Override
+    public void store(Path source, String hash) throws IOException {
+        Path target = resolve(hash);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // Different volume: copy next to the target first so readers never see a partial blob.
+            copy(source, hash);
+            Files.delete(source);
+        }
+    }
+
+    // Leaves source in place; the copy is published with a rename so it appears complete or not at all.
+    public void copy(Path source, String hash) throws IOException {
+        Path target = resolve(hash);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+        try {
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public void delete(String hash) throws IOException {
+        Files.deleteIfExists(resolve(hash));
+    }
+
+    public Stream<Path> blobs() throws IOException {
+        if (!Files.isDirectory(root)) {
+            return Stream.empty();
+        }
+        return Files.walk(root, 3)
+                .filter(Files::isRegularFile)
+                .filter(path -> path.getFileName().toString().length() == HASH_LENGTH);
+    }
+}
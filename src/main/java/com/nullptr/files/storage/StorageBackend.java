@@ -0,0 +1,26 @@
+package com.nullptr.files.storage;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface StorageBackend {
+
+    // Location the blob can currently be read from. Callers open it straight away; a path is not a lease.
+    Path resolve(String hash);
+
+    // Where the blob can still be read once the path resolve returned is gone, e.g. because the blob
+    // moved to another tier in between; null when there is no such place.
+    default Path fallback(String hash) {
+        return null;
+    }
+
+    boolean exists(String hash);
+
+    // Takes ownership of source, which is moved (not copied) when it lives on the same volume.
+    void store(Path source, String hash) throws IOException;
+
+    void delete(String hash) throws IOException;
+
+    default void recordAccess(String hash) {
+    }
+}
@@ -0,0 +1,243 @@
+package com.nullptr.files.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Blobs are written to the hot tier and demoted to the cold tier once they have not been read for
+// demoteAfter, or when the hot tier grows past hotCapacity. The cold tier is the tier of record:
+// promotion copies a blob back to the hot tier and leaves the cold copy, so a later demotion only has
+// to drop the hot copy.
+//
+// Which blobs are hot is kept in memory, read from the hot tier's directory at startup and updated as
+// blobs are stored, promoted, demoted and deleted, so resolving a blob does not stat the file system.
+// A reader that resolved a blob just before it was demoted finds it through fallback.
+public class TieredStorageBackend implements StorageBackend {
+
+    private static final Logger logger = LoggerFactory.getLogger(TieredStorageBackend.class);
+    private static final int LOCK_STRIPES = 64;
+
+    private final LocalStorageBackend hot;
+    private final LocalStorageBackend cold;
+    private final Duration demoteAfter;
+    private final int promoteAfterHits;
+    private final long hotCapacity;
+    private final Clock clock;
+    private final FileChannelPool fileChannelPool;
+    private final Map<String, AccessStats> stats = new ConcurrentHashMap<>();
+    private final Set<String> hotBlobs = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+
+    public TieredStorageBackend(LocalStorageBackend hot, LocalStorageBackend cold, Duration demoteAfter,
+                                int promoteAfterHits, long hotCapacity, Clock clock, FileChannelPool fileChannelPool) {
+        this.hot = hot;
+        this.cold = cold;
+        this.demoteAfter = demoteAfter;
+        this.promoteAfterHits = promoteAfterHits;
+        this.hotCapacity = hotCapacity;
+        this.clock = clock;
+        this.fileChannelPool = fileChannelPool;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        try (Stream<Path> blobs = hot.blobs()) {
+            blobs.forEach(path -> hotBlobs.add(path.getFileName().toString()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not list the hot storage tier", e);
+        }
+    }
+
+    @Override
+    public Path resolve(String hash) {
+        return hotBlobs.contains(hash) ? hot.resolve(hash) : cold.resolve(hash);
+    }
+
+    // The cold tier keeps every blob that has been demoted, so a reader that lost the race with a
+    // demotion finds it there.
+    @Override
+    public Path fallback(String hash) {
+        return cold.resolve(hash);
+    }
+
+    public boolean isHot(String hash) {
+        return hotBlobs.contains(hash);
+    }
+
+    @Override
+    public boolean exists(String hash) {
+        return hotBlobs.contains(hash) || cold.exists(hash);
+    }
+
+    @Override
+    public void store(Path source, String hash) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            hot.store(source, hash);
+            hotBlobs.add(hash);
+            stats.put(hash, new AccessStats(clock.instant()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String hash) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            hotBlobs.remove(hash);
+            hot.delete(hash);
+            cold.delete(hash);
+            stats.remove(hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void recordAccess(String hash) {
+        Instant now = clock.instant();
+        stats.computeIfAbsent(hash, key -> new AccessStats(now)).record(now);
+    }
+
+    @Scheduled(initialDelayString = "${file.storage.tiered.sweep-interval:PT10M}",
+            fixedDelayString = "${file.storage.tiered.sweep-interval:PT10M}")
+    public void sweep() {
+        try {
+            promote();
+            demote();
+        } catch (IOException | UncheckedIOException e) {
+            logger.warn("Storage tier sweep failed", e);
+        }
+    }
+
+    private void promote() throws IOException {
+        for (Map.Entry<String, AccessStats> entry : stats.entrySet()) {
+            String hash = entry.getKey();
+            AccessStats accessStats = entry.getValue();
+            if (accessStats.hits() >= promoteAfterHits && !hotBlobs.contains(hash)) {
+                ReentrantLock lock = lockFor(hash);
+                lock.lock();
+                try {
+                    if (cold.exists(hash) && !hotBlobs.contains(hash)) {
+                        hot.copy(cold.resolve(hash), hash);
+                        hotBlobs.add(hash);
+                        logger.debug("Promoted blob {} to the hot tier", hash);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            // Decay so that promotion reflects recent popularity rather than lifetime totals.
+            accessStats.decay();
+        }
+    }
+
+    private void demote() throws IOException {
+        Instant idleSince = clock.instant().minus(demoteAfter);
+        List<HotBlob> remaining = new ArrayList<>();
+        long hotBytes = 0;
+        try (Stream<Path> blobs = hot.blobs()) {
+            for (Path path : (Iterable<Path>) blobs::iterator) {
+                String hash = path.getFileName().toString();
+                Instant lastAccess = lastAccess(hash, path);
+                if (lastAccess.isBefore(idleSince)) {
+                    demote(hash);
+                } else {
+                    long size = Files.size(path);
+                    remaining.add(new HotBlob(hash, lastAccess, size));
+                    hotBytes += size;
+                }
+            }
+        }
+
+        if (hotCapacity > 0 && hotBytes > hotCapacity) {
+            remaining.sort(Comparator.comparing(HotBlob::lastAccess));
+            for (HotBlob blob : remaining) {
+                if (hotBytes <= hotCapacity) {
+                    break;
+                }
+                demote(blob.hash());
+                hotBytes -= blob.size();
+            }
+        }
+    }
+
+    private void demote(String hash) throws IOException {
+        ReentrantLock lock = lockFor(hash);
+        lock.lock();
+        try {
+            Path hotPath = hot.resolve(hash);
+            if (!hotBlobs.contains(hash)) {
+                return;
+            }
+            if (!cold.exists(hash)) {
+                cold.copy(hotPath, hash);
+            }
+            hotBlobs.remove(hash);
+            hot.delete(hash);
+            // a pooled channel would keep the deleted hot copy open and readable for as long as it is idle
+            fileChannelPool.invalidate(hotPath);
+            logger.debug("Demoted blob {} to the cold tier", hash);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blobs stored before a restart have no in-memory stats; their modification time stands in.
+    private Instant lastAccess(String hash, Path path) throws IOException {
+        AccessStats accessStats = stats.get(hash);
+        return accessStats != null ? accessStats.lastAccess() : Files.getLastModifiedTime(path).toInstant();
+    }
+
+    private ReentrantLock lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private record HotBlob(String hash, Instant lastAccess, long size) {
+    }
+
+    private static final class AccessStats {
+
+        private volatile Instant lastAccess;
+        private int hits;
+
+        private AccessStats(Instant lastAccess) {
+            this.lastAccess = lastAccess;
+        }
+
+        private synchronized void record(Instant now) {
+            lastAccess = now;
+            hits++;
+        }
+
+        private synchronized int hits() {
+            return hits;
+        }
+
+        private synchronized void decay() {
+            hits /= 2;
+        }
+
+        private Instant lastAccess() {
+            return lastAccess;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.nullptr.files.transfer;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+// The validators a download request carries. Any of them may be null. HTTP dates have whole seconds,
+// so lastModified is compared at that precision.
+public record ConditionalHeaders(String ifNoneMatch, String ifModifiedSince, String ifRange) {
+
+    public static final ConditionalHeaders NONE = new ConditionalHeaders(null, null, null);
+
+    // True when a GET can be answered with 304 Not Modified. etags are the tags the current content is
+    // known by; any may be null. If-Modified-Since only counts when If-None-Match is absent.
+    public boolean isNotModified(long lastModified, String... etags) {
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*")) {
+                    return true;
+                }
+                // weak comparison
+                tag = tag.startsWith("W/") ? tag.substring(2) : tag;
+                for (String etag : etags) {
+                    if (tag.equals(etag)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+        long since = parseDate(ifModifiedSince);
+        return since >= 0 && lastModified >= 0 && lastModified / 1000 <= since / 1000;
+    }
+
+    // False when If-Range names something other than the current content, in which case the Range
+    // header is ignored and the whole file is sent.
+    public boolean rangeApplies(long lastModified, String etag) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // strong comparison: a weak tag never matches
+            return ifRange.equals(etag);
+        }
+        long date = parseDate(ifRange);
+        return date >= 0 && lastModified >= 0 && date / 1000 == lastModified / 1000;
+    }
+
+    private static long parseDate(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
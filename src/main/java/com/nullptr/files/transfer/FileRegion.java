@@ -0,0 +1,77 @@
+package com.nullptr.files.transfer;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+public class FileRegion {
+
+    private final Path file;
+    private final Path fallback;
+    private final ByteBuffer content;
+    private final boolean compressed;
+    private final long position;
+    private final long count;
+    private long transferred;
+
+    public FileRegion(Path file, long position, long count) {
+        this(file, false, position, count);
+    }
+
+    // A compressed file is a block gzip file; position and count are uncompressed offsets into it.
+    public FileRegion(Path file, boolean compressed, long position, long count) {
+        this(file, null, compressed, position, count);
+    }
+
+    // fallback is read instead when file is gone by the time the region is written, as happens when
+    // a blob moves to another storage tier in between.
+    public FileRegion(Path file, Path fallback, boolean compressed, long position, long count) {
+        this.file = file;
+        this.fallback = fallback;
+        this.content = null;
+        this.compressed = compressed;
+        this.position = position;
+        this.count = count;
+    }
+
+    // Serves the region from an in-memory copy of the whole file instead of reading the file again.
+    public FileRegion(ByteBuffer content, long position, long count) {
+        this.file = null;
+        this.fallback = null;
+        this.content = content;
+        this.compressed = false;
+        this.position = position;
+        this.count = count;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public Path getFallback() {
+        return fallback;
+    }
+
+    public ByteBuffer getContent() {
+        return content;
+    }
+
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTransferred() {
+        return transferred;
+    }
+
+    void addTransferred(long bytes) {
+        this.transferred += bytes;
+    }
+}
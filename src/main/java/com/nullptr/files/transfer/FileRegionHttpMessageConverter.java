@@ -0,0 +1,273 @@
+package com.nullptr.files.transfer;
+
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.storage.BlockGzip;
+import com.nullptr.files.storage.FileChannelPool;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class FileRegionHttpMessageConverter extends AbstractHttpMessageConverter<Object> {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileRegionHttpMessageConverter.class);
+
+    // Tomcat's request attributes for sendfile
+    static final String SENDFILE_SUPPORTED = "org.apache.tomcat.sendfile.support";
+    static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    // Tomcat's DefaultServlet threshold: smaller files are cheaper to write from a buffer
+    static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    private final MeterRegistry meterRegistry;
+    private final TransferScheduler transferScheduler;
+    private final FileChannelPool channelPool;
+    private final Counter sendfileBytes;
+
+    public FileRegionHttpMessageConverter(MeterRegistry meterRegistry) {
+        this(meterRegistry, TransferScheduler.unlimited(), new FileChannelPool(256, Duration.ofSeconds(30), meterRegistry));
+    }
+
+    public FileRegionHttpMessageConverter(MeterRegistry meterRegistry, TransferScheduler transferScheduler, FileChannelPool channelPool) {
+        super(MediaType.ALL);
+        this.meterRegistry = meterRegistry;
+        this.transferScheduler = transferScheduler;
+        this.channelPool = channelPool;
+        this.sendfileBytes = Counter.builder("file.download.sendfile")
+                .description("File bytes handed to the container's sendfile instead of being copied")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return FileRegion.class.isAssignableFrom(clazz) || MultipartFileRegions.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected MediaType getDefaultContentType(Object body) {
+        if (body instanceof MultipartFileRegions regions) {
+            return regions.getContentType();
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    @Override
+    protected Long getContentLength(Object body, MediaType contentType) {
+        if (body instanceof MultipartFileRegions regions) {
+            return regions.getContentLength();
+        }
+        return ((FileRegion) body).getCount();
+    }
+
+    @Override
+    protected Object readInternal(Class<?> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("File regions are write-only", inputMessage);
+    }
+
+    // Anything not handed to sendfile is copied. The servlet output is a stream, so transferTo reads
+    // the file into the JDK's temporary direct buffer and copies that into the stream's own buffer.
+    @Override
+    protected void writeInternal(Object body, HttpOutputMessage outputMessage) throws IOException {
+        if (body instanceof FileRegion region && sendfile(region)) {
+            recordDownload("full", outputMessage.getHeaders(), region.getCount());
+            logger.debug("Handed {} bytes of {} to sendfile", region.getCount(), region.getFile());
+            return;
+        }
+        WritableByteChannel target = Channels.newChannel(outputMessage.getBody());
+        if (transferScheduler.isEnabled()) {
+            boolean range = body instanceof MultipartFileRegions || outputMessage.getHeaders().containsKey(HttpHeaders.CONTENT_RANGE);
+            long count = (body instanceof FileRegion region) ? region.getCount() : ((MultipartFileRegions) body).getContentLength();
+            target = new ShapedChannel(target, transferScheduler, currentClient(), transferScheduler.lane(count, range));
+        }
+        if (body instanceof MultipartFileRegions regions) {
+            try (FileChannelPool.Lease lease = (regions.getFile() != null) ? open(regions.getFile(), regions.getFallback()) : null) {
+                for (FileRegion region : regions.getRegions()) {
+                    write(ByteBuffer.wrap(regions.partHeader(region)), target);
+                    transfer(lease, region, target);
+                }
+                write(ByteBuffer.wrap(regions.closingDelimiter()), target);
+            } finally {
+                recordDownload("multirange", outputMessage.getHeaders(), regions.getTransferred());
+            }
+            logger.debug("Transferred {} bytes in {} ranges from {}",
+                    regions.getTransferred(), regions.getRegions().size(), (regions.getFile() != null) ? regions.getFile() : "cache");
+        } else {
+            FileRegion region = (FileRegion) body;
+            try (FileChannelPool.Lease lease = (region.getFile() != null) ? open(region.getFile(), region.getFallback()) : null) {
+                transfer(lease, region, target);
+            } finally {
+                boolean range = outputMessage.getHeaders().containsKey(HttpHeaders.CONTENT_RANGE);
+                recordDownload(range ? "range" : "full", outputMessage.getHeaders(), region.getTransferred());
+            }
+            logger.debug("Transferred {} of {} bytes from {}",
+                    region.getTransferred(), region.getCount(), (region.getFile() != null) ? region.getFile() : "cache");
+        }
+    }
+
+    private FileChannelPool.Lease open(Path file, Path fallback) throws IOException {
+        try {
+            return channelPool.open(file);
+        } catch (NoSuchFileException e) {
+            if (fallback == null) {
+                throw e;
+            }
+            logger.debug("{} is gone, reading {} instead", file, fallback);
+            return channelPool.open(fallback);
+        }
+    }
+
+    // The container sends the file from the page cache to the socket once this dispatch ends, so this
+    // only works on a synchronous dispatch (and not over TLS, where the connector does not offer it).
+    // Shaping has to see every write, so it turns sendfile off.
+    private boolean sendfile(FileRegion region) {
+        if (!qualifiesForSendfile(region) || transferScheduler.isEnabled()
+                || !(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)
+                || !sendfileAvailable(attributes.getRequest())) {
+            return false;
+        }
+        HttpServletRequest request = attributes.getRequest();
+        request.setAttribute(SENDFILE_FILENAME, region.getFile().toAbsolutePath().toString());
+        request.setAttribute(SENDFILE_START, region.getPosition());
+        request.setAttribute(SENDFILE_END, region.getPosition() + region.getCount());
+        sendfileBytes.increment(region.getCount());
+        return true;
+    }
+
+    // The container opens the file by name after the dispatch, without a pooled lease and without the
+    // fallback, so a region whose file can still move to another tier is copied instead.
+    public static boolean qualifiesForSendfile(FileRegion region) {
+        return region.getFile() != null && region.getFallback() == null && !region.isCompressed()
+                && region.getCount() >= SENDFILE_MIN_SIZE;
+    }
+
+    public static boolean sendfileAvailable(HttpServletRequest request) {
+        return request.getDispatcherType() == DispatcherType.REQUEST && !request.isAsyncStarted()
+                && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED));
+    }
+
+    private void recordDownload(String type, HttpHeaders headers, long transferred) {
+        recordDownload(meterRegistry, type, headers.getFirst(HttpHeaders.CONTENT_ENCODING), transferred);
+    }
+
+    // Bytes of file content sent per response, including responses cut short by the client.
+    static void recordDownload(MeterRegistry meterRegistry, String type, String encoding, long transferred) {
+        DistributionSummary.builder("file.download.size")
+                .description("File content bytes sent per download response")
+                .baseUnit("bytes")
+                .tag("type", type)
+                .tag("encoding", (encoding != null) ? encoding : "identity")
+                .register(meterRegistry)
+                .record(transferred);
+    }
+
+    // lease is null for regions served from memory.
+    static void transfer(FileChannelPool.Lease lease, FileRegion region, WritableByteChannel target) throws IOException {
+        if (region.getContent() != null) {
+            ByteBuffer slice = region.getContent().slice(Math.toIntExact(region.getPosition()), Math.toIntExact(region.getCount()));
+            write(slice, target);
+            region.addTransferred(region.getCount());
+        } else if (region.isCompressed()) {
+            BlockGzip.transfer(lease.channel(), lease.index(), region.getPosition(), region.getCount(), target);
+            region.addTransferred(region.getCount());
+        } else {
+            transferFromFile(lease.channel(), region, target);
+        }
+    }
+
+    private static void transferFromFile(FileChannel channel, FileRegion region, WritableByteChannel target) throws IOException {
+        long position = region.getPosition();
+        long remaining = region.getCount();
+        while (remaining > 0) {
+            long sent = channel.transferTo(position, remaining, target);
+            if (sent <= 0) {
+                throw new EOFException("File " + region.getFile() + " ended before " + remaining + " remaining bytes were sent");
+            }
+            region.addTransferred(sent);
+            position += sent;
+            remaining -= sent;
+        }
+    }
+
+    private static void write(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+        while (buffer.hasRemaining()) {
+            target.write(buffer);
+        }
+    }
+
+    // The response is written on a dispatch of the request, which Spring binds to the thread.
+    private static String currentClient() {
+        return (RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes attributes)
+                ? attributes.getRequest().getRemoteAddr()
+                : null;
+    }
+
+    // Waits for the scheduler's grant before each write of up to a quantum.
+    private static final class ShapedChannel implements WritableByteChannel {
+
+        private final WritableByteChannel target;
+        private final TransferScheduler scheduler;
+        private final String client;
+        private final TransferScheduler.Lane lane;
+
+        ShapedChannel(WritableByteChannel target, TransferScheduler scheduler, String client, TransferScheduler.Lane lane) {
+            this.target = target;
+            this.scheduler = scheduler;
+            this.client = client;
+            this.lane = lane;
+        }
+
+        @Override
+        public int write(ByteBuffer source) throws IOException {
+            int length = Math.min(source.remaining(), scheduler.getQuantum());
+            scheduler.acquire(client, lane, length).join();
+            ByteBuffer slice = source.slice(source.position(), length);
+            while (slice.hasRemaining()) {
+                target.write(slice);
+            }
+            source.position(source.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return target.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.nullptr.files.transfer;
+
+import org.springframework.http.MediaType;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+public class MultipartFileRegions {
+
+    private final Path file;
+    private final long fileLength;
+    private final List<FileRegion> regions;
+    private final String boundary;
+    private final MediaType partContentType;
+
+    public MultipartFileRegions(Path file, long fileLength, List<FileRegion> regions, String boundary, MediaType partContentType) {
+        this.file = file;
+        this.fileLength = fileLength;
+        this.regions = Collections.unmodifiableList(regions);
+        this.boundary = boundary;
+        this.partContentType = partContentType;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    // every part is a region of the same file
+    public Path getFallback() {
+        return regions.isEmpty() ? null : regions.get(0).getFallback();
+    }
+
+    public long getFileLength() {
+        return fileLength;
+    }
+
+    public List<FileRegion> getRegions() {
+        return regions;
+    }
+
+    public String getBoundary() {
+        return boundary;
+    }
+
+    public MediaType getContentType() {
+        return new MediaType("multipart", "byteranges", Map.of("boundary", boundary));
+    }
+
+    public long getContentLength() {
+        long length = closingDelimiter().length;
+        for (FileRegion region : regions) {
+            length += partHeader(region).length + region.getCount();
+        }
+        return length;
+    }
+
+    public long getTransferred() {
+        long transferred = 0;
+        for (FileRegion region : regions) {
+            transferred += region.getTransferred();
+        }
+        return transferred;
+    }
+
+    byte[] partHeader(FileRegion region) {
+        long end = region.getPosition() + region.getCount() - 1;
+        String header = "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + partContentType + "\r\n"
+                + "Content-Range: bytes " + region.getPosition() + "-" + end + "/" + fileLength + "\r\n"
+                + "\r\n";
+        return header.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    byte[] closingDelimiter() {
+        return ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+    }
+}
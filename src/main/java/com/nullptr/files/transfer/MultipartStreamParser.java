@@ -0,0 +1,175 @@
+package com.nullptr.files.transfer;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+public class MultipartStreamParser {
+
+    public interface PartHandler {
+
+        void partStarted(HttpHeaders headers) throws IOException;
+
+        void partData(ByteBuffer data) throws IOException;
+
+        void partFinished() throws IOException;
+    }
+
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    private enum State { PREAMBLE, DELIMITER_SUFFIX, HEADERS, BODY, EPILOGUE }
+
+    private final byte[] delimiter;
+    private final PartHandler handler;
+    private final ByteBuffer buffer;
+    private State state = State.PREAMBLE;
+
+    public MultipartStreamParser(String boundary, PartHandler handler, int bufferSize) {
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.US_ASCII);
+        this.handler = handler;
+        this.buffer = ByteBuffer.allocateDirect(Math.max(bufferSize, MAX_HEADER_SIZE + delimiter.length));
+        // the first delimiter may start the body without a leading CRLF
+        this.buffer.put((byte) '\r').put((byte) '\n');
+    }
+
+    public boolean isComplete() {
+        return state == State.EPILOGUE;
+    }
+
+    public void parse(ReadableByteChannel input) throws IOException {
+        while (!isComplete()) {
+            if (input.read(buffer) < 0) {
+                throw new EOFException("Multipart body ended before its closing delimiter");
+            }
+            process();
+        }
+    }
+
+    public void feed(ByteBuffer input) throws IOException {
+        while (input.hasRemaining() && !isComplete()) {
+            int length = Math.min(input.remaining(), buffer.remaining());
+            ByteBuffer slice = input.slice(input.position(), length);
+            buffer.put(slice);
+            input.position(input.position() + length);
+            process();
+        }
+    }
+
+    private void process() throws IOException {
+        buffer.flip();
+        boolean progress = true;
+        while (progress && !isComplete()) {
+            progress = switch (state) {
+                case PREAMBLE -> skipPreamble();
+                case DELIMITER_SUFFIX -> readDelimiterSuffix();
+                case HEADERS -> readHeaders();
+                case BODY -> readBody();
+                case EPILOGUE -> false;
+            };
+        }
+        if (isComplete()) {
+            buffer.position(buffer.limit());
+        }
+        buffer.compact();
+    }
+
+    private boolean skipPreamble() {
+        int index = indexOf(delimiter, buffer.position());
+        if (index < 0) {
+            buffer.position(Math.max(buffer.position(), buffer.limit() - delimiter.length + 1));
+            return false;
+        }
+        buffer.position(index + delimiter.length);
+        state = State.DELIMITER_SUFFIX;
+        return true;
+    }
+
+    private boolean readDelimiterSuffix() throws IOException {
+        int position = buffer.position();
+        while (position < buffer.limit() && (buffer.get(position) == ' ' || buffer.get(position) == '\t')) {
+            position++;
+        }
+        if (buffer.limit() - position < 2) {
+            return false;
+        }
+        byte first = buffer.get(position);
+        byte second = buffer.get(position + 1);
+        if (first == '-' && second == '-') {
+            state = State.EPILOGUE;
+        } else if (first == '\r' && second == '\n') {
+            state = State.HEADERS;
+        } else {
+            throw new IOException("Malformed multipart delimiter");
+        }
+        buffer.position(position + 2);
+        return true;
+    }
+
+    private boolean readHeaders() throws IOException {
+        int end = indexOf(new byte[] {'\r', '\n', '\r', '\n'}, buffer.position());
+        boolean emptyHeaders = buffer.remaining() >= 2 && buffer.get(buffer.position()) == '\r' && buffer.get(buffer.position() + 1) == '\n';
+        if (end < 0 && !emptyHeaders) {
+            if (buffer.remaining() > MAX_HEADER_SIZE) {
+                throw new IOException("Multipart part headers exceed " + MAX_HEADER_SIZE + " bytes");
+            }
+            return false;
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (emptyHeaders) {
+            buffer.position(buffer.position() + 2);
+        } else {
+            byte[] raw = new byte[end - buffer.position()];
+            buffer.get(raw);
+            buffer.position(end + 4);
+            for (String line : new String(raw, StandardCharsets.UTF_8).split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.add(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+                }
+            }
+        }
+        handler.partStarted(headers);
+        state = State.BODY;
+        return true;
+    }
+
+    private boolean readBody() throws IOException {
+        int index = indexOf(delimiter, buffer.position());
+        int dataEnd = (index >= 0) ? index : Math.max(buffer.position(), buffer.limit() - delimiter.length + 1);
+        if (dataEnd > buffer.position()) {
+            ByteBuffer data = buffer.slice(buffer.position(), dataEnd - buffer.position());
+            buffer.position(dataEnd);
+            while (data.hasRemaining()) {
+                handler.partData(data);
+            }
+        }
+        if (index < 0) {
+            return false;
+        }
+        buffer.position(index + delimiter.length);
+        handler.partFinished();
+        state = State.DELIMITER_SUFFIX;
+        return true;
+    }
+
+    private int indexOf(byte[] pattern, int from) {
+        int last = buffer.limit() - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (buffer.get(i) != pattern[0]) {
+                continue;
+            }
+            int j = 1;
+            while (j < pattern.length && buffer.get(i + j) == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,340 @@
+package com.nullptr.files.transfer;
+
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.storage.BlockGzip;
+import com.nullptr.files.storage.FileChannelPool;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Inflater;
+
+// Sends a FileRegion or MultipartFileRegions body with non-blocking servlet writes. One buffer is read
+// from the file with an AsynchronousFileChannel, written once the connection can take it, and only
+// then is the next one read, so a slow client holds a buffer and an open file but no thread.
+// Compressed regions are read a block at a time and inflated as they arrive. Each write of up to a
+// quantum waits for the transfer scheduler's grant without holding a thread.
+//
+// The file's size and block index come from a lease on the shared channel pool, so they are read once
+// per file rather than per response. The JDK cannot wrap an open FileChannel as an asynchronous one,
+// so the AsynchronousFileChannel itself is still opened for each response, on the leased path.
+//
+// The container calls onWritePossible only after isReady() has returned false, and reads complete on
+// an I/O thread, so at most one of them writes at a time. No lock is held while calling into the
+// container, which holds its own while it calls the listener; onError only has to stop the transfer.
+public class NonBlockingRegionWriter implements WriteListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(NonBlockingRegionWriter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsyncContext context;
+    private final ServletOutputStream out;
+    private final Object body;
+    private final Path fallback;
+    private Path file;
+    private final ExecutorService ioExecutor;
+    private final MeterRegistry meterRegistry;
+    private final TransferScheduler transferScheduler;
+    private final FileChannelPool channelPool;
+    private final String client;
+    private final TransferScheduler.Lane lane;
+    private final Iterator<Object> parts;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+    private boolean pendingContent;
+    private int granted;
+    private FileChannelPool.Lease lease;
+    private AsynchronousFileChannel channel;
+    private FileRegion region;
+    private long position;
+    private long remaining;
+    private BlockGzip.Index index;
+    private Inflater inflater;
+    private ByteBuffer compressed;
+    private final AtomicBoolean done = new AtomicBoolean();
+
+    // body is a FileRegion or MultipartFileRegions; status and headers must already be set.
+    public NonBlockingRegionWriter(AsyncContext context, Object body, ExecutorService ioExecutor, MeterRegistry meterRegistry,
+                                   TransferScheduler transferScheduler, FileChannelPool channelPool) throws IOException {
+        this.context = context;
+        this.out = context.getResponse().getOutputStream();
+        this.body = body;
+        this.ioExecutor = ioExecutor;
+        this.meterRegistry = meterRegistry;
+        this.transferScheduler = transferScheduler;
+        this.channelPool = channelPool;
+        this.client = context.getRequest().getRemoteAddr();
+        boolean range = body instanceof MultipartFileRegions
+                || ((HttpServletResponse) context.getResponse()).containsHeader(HttpHeaders.CONTENT_RANGE);
+        long count = (body instanceof FileRegion region) ? region.getCount() : ((MultipartFileRegions) body).getContentLength();
+        this.lane = transferScheduler.lane(count, range);
+        List<Object> sequence = new ArrayList<>();
+        if (body instanceof MultipartFileRegions regions) {
+            for (FileRegion part : regions.getRegions()) {
+                sequence.add(regions.partHeader(part));
+                sequence.add(part);
+            }
+            sequence.add(regions.closingDelimiter());
+            this.file = regions.getFile();
+            this.fallback = regions.getFallback();
+        } else {
+            sequence.add(body);
+            this.file = ((FileRegion) body).getFile();
+            this.fallback = ((FileRegion) body).getFallback();
+        }
+        this.parts = sequence.iterator();
+    }
+
+    public void start() {
+        out.setWriteListener(this);
+    }
+
+    @Override
+    public void onWritePossible() {
+        pump();
+    }
+
+    @Override
+    public void onError(Throwable failure) {
+        logger.debug("Download ended early", failure);
+        finish();
+    }
+
+    private void pump() {
+        try {
+            while (!done.get() && out.isReady()) {
+                if (pending.hasRemaining()) {
+                    if (granted == 0 && !acquire()) {
+                        return;
+                    }
+                    int length = Math.min(pending.remaining(), granted);
+                    out.write(pending.array(), pending.arrayOffset() + pending.position(), length);
+                    pending.position(pending.position() + length);
+                    granted -= length;
+                    if (pendingContent) {
+                        region.addTransferred(length);
+                    }
+                } else if (!fill()) {
+                    return;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    // Returns true once the next quantum of pending may be written, or false if pump will be called
+    // again when it may; the grant can complete on the scheduler's thread, so the writing moves off it.
+    private boolean acquire() {
+        int length = Math.min(pending.remaining(), transferScheduler.getQuantum());
+        CompletableFuture<Void> grant = transferScheduler.acquire(client, lane, length);
+        if (grant.isDone() && !grant.isCompletedExceptionally()) {
+            granted = length;
+            return true;
+        }
+        grant.whenCompleteAsync((result, failure) -> {
+            if (failure != null) {
+                fail(failure);
+            } else {
+                granted = length;
+                pump();
+            }
+        }, ioExecutor);
+        return false;
+    }
+
+    // Puts the next bytes in pending and returns true, or starts a read that calls pump when it
+    // completes and returns false.
+    private boolean fill() throws IOException {
+        while (region == null || remaining == 0) {
+            if (!parts.hasNext()) {
+                finish();
+                return false;
+            }
+            Object part = parts.next();
+            if (part instanceof byte[] literal) {
+                pending = ByteBuffer.wrap(literal);
+                pendingContent = false;
+                return true;
+            }
+            region = (FileRegion) part;
+            position = region.getPosition();
+            remaining = region.getCount();
+        }
+        if (region.getContent() != null) {
+            int length = (int) Math.min(remaining, BUFFER_SIZE);
+            readBuffer.clear();
+            readBuffer.put(region.getContent().slice(Math.toIntExact(position), length)).flip();
+            advance(length);
+            return true;
+        }
+        if (channel == null) {
+            open();
+        }
+        if (region.isCompressed()) {
+            readBlock();
+        } else {
+            if (position + remaining > lease.size()) {
+                throw new EOFException("File " + file + " ends before the " + remaining + " bytes at " + position);
+            }
+            readBuffer.clear().limit((int) Math.min(remaining, BUFFER_SIZE));
+            channel.read(readBuffer, position, null, new CompletionHandler<>() {
+                @Override
+                public void completed(Integer read, Object attachment) {
+                    if (read < 0) {
+                        fail(new EOFException("File " + file + " ended before " + remaining + " remaining bytes were sent"));
+                        return;
+                    }
+                    readBuffer.flip();
+                    advance(read);
+                    pump();
+                }
+
+                @Override
+                public void failed(Throwable failure, Object attachment) {
+                    fail(failure);
+                }
+            });
+        }
+        return false;
+    }
+
+    // A blob moved to another tier since the response was built is read from where it went.
+    private void open() throws IOException {
+        try {
+            open(file);
+        } catch (NoSuchFileException e) {
+            if (fallback == null || fallback.equals(file)) {
+                throw e;
+            }
+            logger.debug("{} is gone, reading {} instead", file, fallback);
+            file = fallback;
+            open(file);
+        }
+    }
+
+    private void open(Path path) throws IOException {
+        FileChannelPool.Lease opened = channelPool.open(path);
+        try {
+            channel = AsynchronousFileChannel.open(path, Set.of(StandardOpenOption.READ), ioExecutor);
+        } catch (IOException | RuntimeException e) {
+            opened.close();
+            throw e;
+        }
+        lease = opened;
+    }
+
+    // Reads the whole compressed block that position falls in, then inflates it into readBuffer.
+    private void readBlock() throws IOException {
+        if (index == null) {
+            index = lease.index();
+            inflater = new Inflater(true);
+        }
+        int block = (int) (position / BlockGzip.BLOCK_SIZE);
+        int length = index.compressedLength(block);
+        if (compressed == null || compressed.capacity() < length) {
+            compressed = ByteBuffer.allocate(Math.max(length, BUFFER_SIZE));
+        }
+        compressed.clear().limit(length);
+        long start = index.offsets()[block];
+        channel.read(compressed, start, null, new CompletionHandler<>() {
+            @Override
+            public void completed(Integer read, Object attachment) {
+                if (read < 0) {
+                    fail(new EOFException("Block gzip file " + file + " ended early"));
+                } else if (compressed.hasRemaining()) {
+                    channel.read(compressed, start + compressed.position(), null, this);
+                } else {
+                    inflated(block);
+                }
+            }
+
+            @Override
+            public void failed(Throwable failure, Object attachment) {
+                fail(failure);
+            }
+        });
+    }
+
+    private void inflated(int block) {
+        try {
+            int length = BlockGzip.inflateBlock(index, block, compressed.array(), inflater, readBuffer.array());
+            int skip = (int) (position - (long) block * BlockGzip.BLOCK_SIZE);
+            int sent = (int) Math.min(remaining, length - skip);
+            readBuffer.limit(skip + sent).position(skip);
+            advance(sent);
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+            return;
+        }
+        pump();
+    }
+
+    private void advance(int length) {
+        position += length;
+        remaining -= length;
+        pending = readBuffer;
+        pendingContent = true;
+    }
+
+    // The response is already committed, so all that can be done is to stop; the client sees the body
+    // end short of its Content-Length.
+    private void fail(Throwable failure) {
+        if (!done.get()) {
+            logger.warn("Download from {} failed", file, failure);
+            finish();
+        }
+    }
+
+    private void finish() {
+        if (!done.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            logger.debug("Could not close {}", file, e);
+        }
+        if (lease != null) {
+            lease.close();
+        }
+        if (inflater != null) {
+            inflater.end();
+        }
+        HttpServletResponse response = (HttpServletResponse) context.getResponse();
+        String encoding = response.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (body instanceof MultipartFileRegions regions) {
+            FileRegionHttpMessageConverter.recordDownload(meterRegistry, "multirange", encoding, regions.getTransferred());
+        } else {
+            String type = response.containsHeader(HttpHeaders.CONTENT_RANGE) ? "range" : "full";
+            FileRegionHttpMessageConverter.recordDownload(meterRegistry, type, encoding, ((FileRegion) body).getTransferred());
+        }
+        context.complete();
+    }
+}
@@ -2,16 +2,79 @@ package com.nullptr.files.validation;
 
 import java.util.regex.Pattern;
 
+// Rejects input containing quotes, semicolons, "--" or an SQL keyword as a whole word. Every title,
+// description and search term goes through here, so the check is a single pass over the chars with a
+// keyword automaton rather than a regex. SQL_INJECTION_PATTERN is the rule it implements, kept as the
+// reference for the tests and benchmarks.
 public class InputValidator {
 
-    private static final Pattern SQL_INJECTION_PATTERN = Pattern.compile(
+    static final Pattern SQL_INJECTION_PATTERN = Pattern.compile(
             "(['\";])+|(--)+|((?i)\\b(SELECT|INSERT|UPDATE|DELETE|DROP|TRUNCATE|EXEC|EXECUTE|DECLARE|UNION|FETCH|ALTER|CREATE|RENAME|DESCRIBE)\\b)"
     );
 
+    private static final KeywordAutomaton SQL_KEYWORDS = new KeywordAutomaton(
+            "SELECT", "INSERT", "UPDATE", "DELETE", "DROP", "TRUNCATE", "EXEC", "EXECUTE", "DECLARE", "UNION",
+            "FETCH", "ALTER", "CREATE", "RENAME", "DESCRIBE");
+
     public static boolean isValid(String input) {
         if (input == null || input.isEmpty()) {
             return true;
         }
-        return !SQL_INJECTION_PATTERN.matcher(input).find();
+        int state = 0;
+        char previous = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            if (c == '\'' || c == '"' || c == ';' || (c == '-' && previous == '-')) {
+                return false;
+            }
+            previous = c;
+            state = SQL_KEYWORDS.next(state, c);
+            for (int length : SQL_KEYWORDS.matchLengths(state)) {
+                if (!wordBefore(input, i + 1 - length) && !wordAt(input, i + 1)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    static boolean matchesPattern(String input) {
+        return input != null && SQL_INJECTION_PATTERN.matcher(input).find();
+    }
+
+    // The two checks below are what the pattern's \b sees on either side of a keyword: ASCII word
+    // chars, plus non-spacing marks that follow a letter or digit.
+    private static boolean wordBefore(String input, int index) {
+        if (index == 0) {
+            return false;
+        }
+        int c = Character.codePointBefore(input, index);
+        return isAsciiWord(c) || (Character.getType(c) == Character.NON_SPACING_MARK && hasBaseCharacter(input, index - 1));
+    }
+
+    // the char before index is always a keyword letter, which is the base for any mark after it
+    private static boolean wordAt(String input, int index) {
+        if (index == input.length()) {
+            return false;
+        }
+        int c = Character.codePointAt(input, index);
+        return isAsciiWord(c) || Character.getType(c) == Character.NON_SPACING_MARK;
+    }
+
+    private static boolean hasBaseCharacter(String input, int index) {
+        for (int i = index; i >= 0; i--) {
+            int c = Character.codePointAt(input, i);
+            if (Character.isLetterOrDigit(c)) {
+                return true;
+            }
+            if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isAsciiWord(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
     }
 }
@@ -0,0 +1,110 @@
+package com.nullptr.files.validation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+// Aho-Corasick automaton over ASCII letters, case-insensitive, with the failure links folded into a
+// full transition table so each input char costs one lookup. Keywords may only contain letters; any
+// other char sends the automaton back to the start state.
+final class KeywordAutomaton {
+
+    private static final int ALPHABET = 26;
+    private static final int[] NO_MATCHES = new int[0];
+
+    private final int[] transitions;
+    private final int[][] matchLengths;
+
+    KeywordAutomaton(String... keywords) {
+        List<int[]> children = new ArrayList<>();
+        List<int[]> lengths = new ArrayList<>();
+        children.add(newState());
+        lengths.add(NO_MATCHES);
+        for (String keyword : keywords) {
+            String lower = keyword.toLowerCase(Locale.ROOT);
+            int state = 0;
+            for (int i = 0; i < lower.length(); i++) {
+                int letter = letter(lower.charAt(i));
+                if (letter < 0) {
+                    throw new IllegalArgumentException("Keywords may only contain ASCII letters: " + keyword);
+                }
+                if (children.get(state)[letter] < 0) {
+                    children.get(state)[letter] = children.size();
+                    children.add(newState());
+                    lengths.add(NO_MATCHES);
+                }
+                state = children.get(state)[letter];
+            }
+            lengths.set(state, append(lengths.get(state), lower.length()));
+        }
+
+        // breadth-first, so a state's failure target is complete before the state itself
+        int states = children.size();
+        transitions = new int[states * ALPHABET];
+        matchLengths = new int[states][];
+        int[] failure = new int[states];
+        Queue<Integer> queue = new ArrayDeque<>();
+        matchLengths[0] = NO_MATCHES;
+        for (int letter = 0; letter < ALPHABET; letter++) {
+            int child = children.get(0)[letter];
+            if (child > 0) {
+                failure[child] = 0;
+                queue.add(child);
+            }
+            transitions[letter] = Math.max(child, 0);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int[] own = lengths.get(state);
+            int[] inherited = matchLengths[failure[state]];
+            matchLengths[state] = inherited.length == 0 ? own : concat(own, inherited);
+            for (int letter = 0; letter < ALPHABET; letter++) {
+                int child = children.get(state)[letter];
+                int fallback = transitions[failure[state] * ALPHABET + letter];
+                if (child > 0) {
+                    failure[child] = fallback;
+                    queue.add(child);
+                    transitions[state * ALPHABET + letter] = child;
+                } else {
+                    transitions[state * ALPHABET + letter] = fallback;
+                }
+            }
+        }
+    }
+
+    int next(int state, char c) {
+        int letter = letter(c);
+        return letter < 0 ? 0 : transitions[state * ALPHABET + letter];
+    }
+
+    // Lengths of the keywords that end at the char that led to this state; usually empty.
+    int[] matchLengths(int state) {
+        return matchLengths[state];
+    }
+
+    private static int letter(char c) {
+        int lower = c | 0x20;
+        return c < 0x80 && lower >= 'a' && lower <= 'z' ? lower - 'a' : -1;
+    }
+
+    private static int[] newState() {
+        int[] children = new int[ALPHABET];
+        Arrays.fill(children, -1);
+        return children;
+    }
+
+    private static int[] append(int[] values, int value) {
+        int[] result = Arrays.copyOf(values, values.length + 1);
+        result[values.length] = value;
+        return result;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -49,17 +49,22 @@ document.getElementById('download-button').addEventListener('click', async () =>
     }
 });
 
+let listCursor = null;
+
 document.getElementById('list-button').addEventListener('click', async () => {
-    const response = await fetch(`${serverAddress}/f/ls`);
+    const listButton = document.getElementById('list-button');
+    const listResponse = document.getElementById('list-response');
+    const query = listCursor ? `?cursor=${encodeURIComponent(listCursor)}` : '';
+    const response = await fetch(`${serverAddress}/f/ls${query}`);
     const result = await response.json();
-    if (result.length === 0) {
-        document.getElementById('list-response').textContent = "No Results";
-    } else {
-        document.getElementById('list-response').textContent = "List Of Files:";
-        result.forEach(function (obj) {
-            document.getElementById('list-response').textContent += "\n\nTitle: " + obj.title + "\nDescription: " + obj.description + "\nUpload Time: " + obj.uploadTime;
-        });
+    if (!listCursor) {
+        listResponse.textContent = result.files.length === 0 ? "No Results" : "List Of Files:";
     }
+    result.files.forEach(function (obj) {
+        listResponse.textContent += "\n\nTitle: " + obj.title + "\nDescription: " + obj.description + "\nUpload Time: " + obj.uploadTime;
+    });
+    listCursor = result.next;
+    listButton.textContent = listCursor ? "Load More" : "List Files";
 });
 
 document.getElementById('details-button').addEventListener('click', async () => {
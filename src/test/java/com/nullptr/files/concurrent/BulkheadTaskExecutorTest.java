@@ -0,0 +1,127 @@
+package com.nullptr.files.concurrent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkheadTaskExecutorTest {
+
+    private final ManualExecutor delegate = new ManualExecutor();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private long now;
+
+    private BulkheadTaskExecutor bulkhead(int maxConcurrent, int maxQueue, Duration maxQueueWait) {
+        return new BulkheadTaskExecutor("test", delegate, maxConcurrent, maxQueue, maxQueueWait, meterRegistry, () -> now);
+    }
+
+    @Test
+    public void testRunsAtMostMaxConcurrentAndQueuesTheRest() {
+        BulkheadTaskExecutor bulkhead = bulkhead(2, 10, Duration.ofSeconds(1));
+        List<Integer> ran = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int task = i;
+            bulkhead.execute(() -> ran.add(task));
+        }
+        assertEquals(2, delegate.pending());
+        assertEquals(2, bulkhead.activeCount());
+        assertEquals(2, bulkhead.queueDepth());
+
+        delegate.runNext();
+        assertEquals(2, delegate.pending());
+        assertEquals(1, bulkhead.queueDepth());
+
+        delegate.runAll();
+        assertEquals(List.of(0, 1, 2, 3), ran);
+        assertEquals(0, bulkhead.activeCount());
+        assertEquals(0, bulkhead.queueDepth());
+    }
+
+    @Test
+    public void testRejectsWhenQueueIsFull() {
+        BulkheadTaskExecutor bulkhead = bulkhead(1, 1, Duration.ofSeconds(1));
+        bulkhead.execute(() -> { });
+        bulkhead.execute(() -> { });
+
+        BulkheadFullException ex = assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> { }));
+        assertEquals("test", ex.getBulkhead());
+        assertEquals(1, meterRegistry.get("bulkhead.rejected").tag("bulkhead", "test").counter().count());
+    }
+
+    @Test
+    public void testRejectsWhenBacklogExceedsLatencyTarget() {
+        BulkheadTaskExecutor bulkhead = bulkhead(1, 100, Duration.ofMillis(100));
+        bulkhead.execute(() -> now += TimeUnit.MILLISECONDS.toNanos(60));
+        delegate.runNext();
+
+        // one running, one queued: the next would wait two 60 ms tasks
+        bulkhead.execute(() -> { });
+        bulkhead.execute(() -> { });
+        BulkheadFullException ex = assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> { }));
+        assertEquals(Duration.ofMillis(120), ex.getRetryAfter());
+    }
+
+    @Test
+    public void testRejectsWhenOldestQueuedTaskWaitedTooLong() {
+        BulkheadTaskExecutor bulkhead = bulkhead(1, 100, Duration.ofMillis(100));
+        bulkhead.execute(() -> { });
+        bulkhead.execute(() -> { });
+
+        now += TimeUnit.MILLISECONDS.toNanos(50);
+        bulkhead.execute(() -> { });
+        now += TimeUnit.MILLISECONDS.toNanos(51);
+        assertThrows(BulkheadFullException.class, () -> bulkhead.execute(() -> { }));
+
+        delegate.runNext();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(101),
+                (long) meterRegistry.get("bulkhead.queue.wait").tag("bulkhead", "test").timer().max(TimeUnit.NANOSECONDS));
+        assertEquals(1, meterRegistry.get("bulkhead.queue.depth").tag("bulkhead", "test").gauge().value());
+    }
+
+    @Test
+    public void testFailingTaskReleasesItsSlot() {
+        BulkheadTaskExecutor bulkhead = bulkhead(1, 10, Duration.ofSeconds(1));
+        bulkhead.execute(() -> {
+            throw new IllegalStateException("boom");
+        });
+        bulkhead.execute(() -> { });
+
+        assertThrows(IllegalStateException.class, delegate::runNext);
+        assertEquals(1, bulkhead.activeCount());
+        assertEquals(0, bulkhead.queueDepth());
+        delegate.runNext();
+        assertEquals(0, bulkhead.activeCount());
+    }
+
+    private static final class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        int pending() {
+            return tasks.size();
+        }
+
+        void runNext() {
+            tasks.poll().run();
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                runNext();
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.nullptr.files.concurrent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PinnedThreadMonitorTest {
+
+    private final Object lock = new Object();
+
+    @Test
+    public void testBlockingInsideSynchronizedIsReported() throws Exception {
+        PinnedThreadMonitor monitor = new PinnedThreadMonitor(Duration.ofMillis(10), new SimpleMeterRegistry());
+        monitor.start();
+        try {
+            Thread.ofVirtual().start(() -> {
+                synchronized (lock) {
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }).join();
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (monitor.pinnedCount() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, monitor.pinnedCount());
+        } finally {
+            monitor.stop();
+        }
+    }
+}
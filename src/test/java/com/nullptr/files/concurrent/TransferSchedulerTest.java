@@ -0,0 +1,136 @@
+package com.nullptr.files.concurrent;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TransferSchedulerTest {
+
+    private static final int QUANTUM = 1000;
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<TransferScheduler> schedulers = new ArrayList<>();
+    private long now;
+
+    // rates of 10 quanta a second give buckets of exactly one quantum
+    private TransferScheduler scheduler(long maxRate, long clientMaxRate) {
+        TransferScheduler scheduler = new TransferScheduler(maxRate, clientMaxRate, QUANTUM, 5000, meterRegistry, () -> now);
+        schedulers.add(scheduler);
+        return scheduler;
+    }
+
+    @AfterEach
+    public void tearDown() {
+        schedulers.forEach(TransferScheduler::destroy);
+    }
+
+    @Test
+    public void testUnlimitedGrantsEverythingAtOnce() {
+        TransferScheduler scheduler = scheduler(0, 0);
+        assertFalse(scheduler.isEnabled());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(scheduler.acquire("client", TransferScheduler.Lane.BULK, QUANTUM).isDone());
+        }
+    }
+
+    @Test
+    public void testGlobalRateHoldsRequestsUntilTokensRefill() {
+        TransferScheduler scheduler = scheduler(10 * QUANTUM, 0);
+        assertTrue(scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM).isDone());
+        CompletableFuture<Void> second = scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+        assertFalse(second.isDone());
+        assertEquals(1, scheduler.queueDepth(TransferScheduler.Lane.BULK));
+
+        now += SECOND / 20;
+        scheduler.dispatch();
+        assertFalse(second.isDone());
+
+        now += SECOND / 20;
+        scheduler.dispatch();
+        assertTrue(second.isDone());
+        assertEquals(0, scheduler.queueDepth(TransferScheduler.Lane.BULK));
+        assertEquals(2, meterRegistry.get("transfer.wait").tag("lane", "bulk").timer().count());
+    }
+
+    @Test
+    public void testQuantaAreSharedRoundRobin() {
+        TransferScheduler scheduler = scheduler(10 * QUANTUM, 0);
+        scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+        List<String> order = new ArrayList<>();
+        scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM).thenRun(() -> order.add("a"));
+        scheduler.acquire("b", TransferScheduler.Lane.BULK, QUANTUM).thenRun(() -> order.add("b"));
+        scheduler.acquire("c", TransferScheduler.Lane.BULK, QUANTUM).thenRun(() -> order.add("c"));
+
+        for (int i = 0; i < 3; i++) {
+            now += SECOND / 10;
+            scheduler.dispatch();
+            assertEquals(i + 1, order.size());
+        }
+        assertEquals(List.of("a", "b", "c"), order);
+    }
+
+    @Test
+    public void testPriorityLaneGoesFirst() {
+        TransferScheduler scheduler = scheduler(10 * QUANTUM, 0);
+        scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+        CompletableFuture<Void> bulk = scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+        CompletableFuture<Void> priority = scheduler.acquire("b", TransferScheduler.Lane.PRIORITY, QUANTUM);
+
+        now += SECOND / 10;
+        scheduler.dispatch();
+        assertTrue(priority.isDone());
+        assertFalse(bulk.isDone());
+
+        now += SECOND / 10;
+        scheduler.dispatch();
+        assertTrue(bulk.isDone());
+    }
+
+    @Test
+    public void testClientOverItsLimitDoesNotHoldUpOthers() {
+        TransferScheduler scheduler = scheduler(0, 10 * QUANTUM);
+        assertTrue(scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM).isDone());
+        CompletableFuture<Void> limited = scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+        assertFalse(limited.isDone());
+
+        assertTrue(scheduler.acquire("b", TransferScheduler.Lane.BULK, QUANTUM).isDone());
+        assertFalse(limited.isDone());
+
+        now += SECOND / 10;
+        scheduler.dispatch();
+        assertTrue(limited.isDone());
+    }
+
+    @Test
+    public void testLane() {
+        TransferScheduler scheduler = scheduler(10 * QUANTUM, 0);
+        assertEquals(TransferScheduler.Lane.PRIORITY, scheduler.lane(5000, false));
+        assertEquals(TransferScheduler.Lane.BULK, scheduler.lane(5001, false));
+        assertEquals(TransferScheduler.Lane.PRIORITY, scheduler.lane(1_000_000, true));
+    }
+
+    @Test
+    public void testRejectsRequestsLargerThanTheQuantum() {
+        TransferScheduler scheduler = scheduler(10 * QUANTUM, 0);
+        assertThrows(IllegalArgumentException.class, () -> scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM + 1));
+    }
+
+    @Test
+    public void testDestroyReleasesWaitingTransfers() {
+        TransferScheduler scheduler = scheduler(10 * QUANTUM, 0);
+        scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+        CompletableFuture<Void> waiting = scheduler.acquire("a", TransferScheduler.Lane.BULK, QUANTUM);
+
+        scheduler.destroy();
+        assertTrue(waiting.isCompletedExceptionally());
+    }
+}
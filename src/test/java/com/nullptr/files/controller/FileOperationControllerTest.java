@@ -1,7 +1,16 @@
 package com.nullptr.files.controller;
 
+import com.nullptr.files.concurrent.BulkheadFullException;
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.entity.ChunkedUpload;
 import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.search.SearchQuery;
+import com.nullptr.files.service.BulkUploadResult;
+import com.nullptr.files.service.ChunkedUploadService;
+import com.nullptr.files.service.FileDetailsResult;
+import com.nullptr.files.service.FilePage;
 import com.nullptr.files.service.FileStorageService;
+import com.nullptr.files.transfer.FileRegion;
 import com.nullptr.files.validation.InputValidator;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -18,6 +27,9 @@ import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.http.ResponseEntity;
 
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.List;
@@ -26,7 +38,11 @@ import java.util.concurrent.CompletableFuture;
 
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
@@ -36,6 +52,12 @@ public class FileOperationControllerTest {
     @Mock
     private FileStorageService fileStorageService;
 
+    @Mock
+    private ChunkedUploadService chunkedUploadService;
+
+    @Mock
+    private TransferScheduler transferScheduler;
+
     @InjectMocks
     private FileOperationController fileOperationController;
 
@@ -44,7 +66,9 @@ public class FileOperationControllerTest {
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
-        mockMvc = MockMvcBuilders.standaloneSetup(fileOperationController).build();
+        mockMvc = MockMvcBuilders.standaloneSetup(fileOperationController)
+                .setControllerAdvice(new OverloadExceptionHandler())
+                .build();
         doNothing().when(fileStorageService).init();
     }
 
@@ -82,16 +106,159 @@ public class FileOperationControllerTest {
                 .andExpect(content().string("Invalid input detected"));
     }
 
+    @Test
+    public void testUploadFileStream() throws Exception {
+        when(fileStorageService.saveStream(any(), anyString())).thenReturn(CompletableFuture.completedFuture("File uploaded successfully"));
+
+        MvcResult mvcResult = mockMvc.perform(post("/f/ul/stream")
+                .contentType("multipart/form-data; boundary=b")
+                .content("--b--\r\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().string("File uploaded successfully"));
+    }
+
+    @Test
+    public void testUploadFileStreamInvalidInput() throws Exception {
+        when(fileStorageService.saveStream(any(), anyString()))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalArgumentException("Invalid input detected")));
+
+        MvcResult mvcResult = mockMvc.perform(post("/f/ul/stream")
+                .contentType("multipart/form-data; boundary=b")
+                .content("--b--\r\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Invalid input detected"));
+    }
+
+    @Test
+    public void testUploadFilesBulk() throws Exception {
+        when(fileStorageService.saveBulk(any(), anyString())).thenReturn(CompletableFuture.completedFuture(List.of(
+                new BulkUploadResult("First", "first.txt", 200, "File uploaded successfully"),
+                new BulkUploadResult(null, "orphan.txt", 400, "Fields title and description must precede each file part"))));
+
+        MvcResult mvcResult = mockMvc.perform(post("/f/ul/bulk")
+                .contentType("multipart/form-data; boundary=b")
+                .content("--b--\r\n"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].title").value("First"))
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[1].title").doesNotExist())
+                .andExpect(jsonPath("$[1].status").value(400));
+    }
+
+    @Test
+    public void testUploadChunk() throws Exception {
+        ChunkedUpload upload = new ChunkedUpload();
+        upload.setId("upload-id");
+        upload.setChunkCount(2);
+        upload.setReceivedChunks(new byte[] {1});
+        when(chunkedUploadService.writeChunk(eq("upload-id"), eq(0), any())).thenReturn(CompletableFuture.completedFuture(upload));
+
+        MvcResult mvcResult = mockMvc.perform(put("/f/ul/chunked/{id}/{index}", "upload-id", 0)
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .content("0123"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.id").value("upload-id"))
+                .andExpect(jsonPath("$.receivedChunkCount").value(1))
+                .andExpect(jsonPath("$.missingChunks[0]").value(1))
+                .andExpect(jsonPath("$.receivedChunks").doesNotExist());
+    }
+
+    @Test
+    public void testCommitIncompleteChunkedUpload() throws Exception {
+        when(chunkedUploadService.commit("upload-id"))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Upload is missing 1 chunks")));
+
+        MvcResult mvcResult = mockMvc.perform(post("/f/ul/chunked/{id}/commit", "upload-id"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isConflict())
+                .andExpect(content().string("Upload is missing 1 chunks"));
+    }
+
     @Test
     public void testDownloadFileValidTitle() throws Exception {
-        when(fileStorageService.loadByTitle(anyString(), any())).thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
+        when(fileStorageService.loadByTitle(anyString(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
 
+        // without sendfile support the download goes through the bulkhead
         MvcResult mvcResult = mockMvc.perform(get("/f/dl/{title}", "Valid Title"))
                 .andExpect(request().asyncStarted())
                 .andReturn();
 
         mockMvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk());
+        verify(fileStorageService, never()).loadForSendfile(any(), any(), any());
+    }
+
+    @Test
+    public void testSendfileDownloadIsAnsweredOnRequestThread() throws Exception {
+        when(fileStorageService.loadForSendfile(eq("Valid Title"), any(), any())).thenReturn(ResponseEntity.ok().build());
+
+        mockMvc.perform(get("/f/dl/{title}", "Valid Title").requestAttr("org.apache.tomcat.sendfile.support", true))
+                .andExpect(request().asyncNotStarted())
+                .andExpect(status().isOk());
+        verify(fileStorageService, never()).loadByTitle(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testDownloadNotSuitedToSendfileIsAsync() throws Exception {
+        when(fileStorageService.loadForSendfile(eq("Valid Title"), any(), any())).thenReturn(null);
+        when(fileStorageService.loadByTitle(eq("Valid Title"), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok().build()));
+
+        MvcResult mvcResult = mockMvc.perform(get("/f/dl/{title}", "Valid Title").requestAttr("org.apache.tomcat.sendfile.support", true))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void testDownloadRangeIsAsync() throws Exception {
+        when(fileStorageService.loadByTitle(eq("Valid Title"), eq("bytes=0-9"), any(), any()))
+                .thenReturn(CompletableFuture.completedFuture(ResponseEntity.status(206).build()));
+
+        MvcResult mvcResult = mockMvc.perform(get("/f/dl/{title}", "Valid Title").header("Range", "bytes=0-9"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isPartialContent());
+    }
+
+    @Test
+    public void testHeadFileSendsHeadersWithoutBody() throws Exception {
+        when(fileStorageService.loadByTitle(anyString(), any(), any(), any())).thenReturn(CompletableFuture.completedFuture(ResponseEntity.ok()
+                .header("Accept-Ranges", "bytes")
+                .contentLength(10)
+                .body(new FileRegion(Paths.get("missing.bin"), 0, 10))));
+
+        MvcResult mvcResult = mockMvc.perform(head("/f/dl/{title}", "Valid Title"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Accept-Ranges", "bytes"))
+                .andExpect(header().longValue("Content-Length", 10))
+                .andExpect(content().bytes(new byte[0]));
     }
 
     @Test
@@ -107,7 +274,7 @@ public class FileOperationControllerTest {
 
     @Test
     public void testFindFilesValidInput() throws Exception {
-        when(fileStorageService.findFiles(anyString(), any())).thenReturn(CompletableFuture.completedFuture(List.of("Valid Title")));
+        when(fileStorageService.findFiles(any())).thenReturn(CompletableFuture.completedFuture(List.of("Valid Title")));
 
         String requestJson = "{\"title\":\"Valid Title\",\"date\":\"2024-06-30T00:00:00\"}";
 
@@ -120,6 +287,27 @@ public class FileOperationControllerTest {
         mockMvc.perform(asyncDispatch(mvcResult))
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$[0]").value("Valid Title"));
+        verify(fileStorageService).findFiles(new SearchQuery("Valid Title", null,
+                LocalDateTime.of(2024, 6, 30, 0, 0), LocalDateTime.of(2024, 7, 1, 0, 0), 100));
+    }
+
+    @Test
+    public void testFindFilesWithQueryAndRange() throws Exception {
+        when(fileStorageService.findFiles(any())).thenReturn(CompletableFuture.completedFuture(List.of("Annual Report")));
+
+        String requestJson = "{\"query\":\"repo* anual~\",\"from\":\"2024-01-01T00:00:00\",\"to\":\"2025-01-01T00:00:00\",\"limit\":20}";
+
+        MvcResult mvcResult = mockMvc.perform(post("/f/fd")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(requestJson))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0]").value("Annual Report"));
+        verify(fileStorageService).findFiles(new SearchQuery(null, "repo* anual~",
+                LocalDateTime.of(2024, 1, 1, 0, 0), LocalDateTime.of(2025, 1, 1, 0, 0), 20));
     }
 
     @Test
@@ -137,6 +325,57 @@ public class FileOperationControllerTest {
                 .andExpect(content().string(""));
     }
 
+    @Test
+    public void testListFiles() throws Exception {
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setTitle("Listed Title");
+        fileMetadata.setDescription("Listed Description");
+        fileMetadata.setUploadTime(LocalDateTime.now());
+
+        when(fileStorageService.listFiles("title", 10, "abc")).thenReturn(CompletableFuture.completedFuture(new FilePage(List.of(fileMetadata), "def")));
+
+        MvcResult mvcResult = mockMvc.perform(get("/f/ls")
+                .param("sort", "title")
+                .param("size", "10")
+                .param("cursor", "abc"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.files[0].title").value("Listed Title"))
+                .andExpect(jsonPath("$.files[0].filename").doesNotExist())
+                .andExpect(jsonPath("$.next").value("def"));
+    }
+
+    @Test
+    public void testListFilesInvalidCursor() throws Exception {
+        when(fileStorageService.listFiles("uploadTime", 50, "bad"))
+                .thenReturn(CompletableFuture.failedFuture(new IllegalArgumentException("Invalid cursor")));
+
+        MvcResult mvcResult = mockMvc.perform(get("/f/ls")
+                .param("cursor", "bad"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().string("Invalid cursor"));
+    }
+
+    @Test
+    public void testExportCatalog() throws Exception {
+        doAnswer(invocation -> {
+            invocation.<OutputStream>getArgument(0).write("{\"title\":\"Exported\"}\n".getBytes());
+            return null;
+        }).when(fileStorageService).exportCatalog(any());
+
+        mockMvc.perform(get("/f/export"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                .andExpect(content().string("{\"title\":\"Exported\"}\n"));
+    }
+
     @Test
     public void testGetFileDetailsValidTitle() throws Exception {
         FileMetadata fileMetadata = new FileMetadata();
@@ -174,6 +413,41 @@ public class FileOperationControllerTest {
                 .andExpect(content().string(""));
     }
 
+    @Test
+    public void testGetFileDetailsBulk() throws Exception {
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setTitle("Found");
+        when(fileStorageService.getFileDetailsByTitles(List.of("Found", "Missing"))).thenReturn(CompletableFuture.completedFuture(List.of(
+                new FileDetailsResult("Found", 200, fileMetadata),
+                new FileDetailsResult("Missing", 404, null))));
+
+        MvcResult mvcResult = mockMvc.perform(post("/f/dt")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"Found\", \"Missing\"]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value(200))
+                .andExpect(jsonPath("$[0].file.title").value("Found"))
+                .andExpect(jsonPath("$[1].status").value(404))
+                .andExpect(jsonPath("$[1].file").doesNotExist());
+    }
+
+    @Test
+    public void testGetFileDetailsBulkInvalidTitle() throws Exception {
+        MvcResult mvcResult = mockMvc.perform(post("/f/dt")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"Fine\", \"Bad'; DROP TABLE file_metadata; --\"]"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isBadRequest());
+        verify(fileStorageService, never()).getFileDetailsByTitles(any());
+    }
+
     @Test
     public void testGetFileDetailsNotFound() throws Exception {
         when(fileStorageService.getFileDetailsByTitle(anyString())).thenReturn(CompletableFuture.completedFuture(Optional.empty()));
@@ -187,4 +461,13 @@ public class FileOperationControllerTest {
                 .andExpect(status().isNotFound())
                 .andExpect(content().string(""));
     }
+
+    @Test
+    public void testSaturatedBulkheadIsRejectedWithRetryAfter() throws Exception {
+        when(fileStorageService.getFileDetailsByTitle("Busy")).thenThrow(new BulkheadFullException("details", Duration.ofMillis(1500)));
+
+        mockMvc.perform(get("/f/dt").param("title", "Busy"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "2"));
+    }
 }
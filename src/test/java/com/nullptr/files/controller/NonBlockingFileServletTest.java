@@ -0,0 +1,99 @@
+package com.nullptr.files.controller;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "file.transport=non-blocking")
+public class NonBlockingFileServletTest {
+
+    private static final String BOUNDARY = "nonblockingboundary";
+
+    @LocalServerPort
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    public void testUploadThenDownload() throws Exception {
+        byte[] content = new byte[300 * 1024];
+        new Random(7).nextBytes(content);
+
+        // the file part comes first, which the blocking streaming upload would reject
+        HttpResponse<String> upload = send(HttpRequest.newBuilder(uri("/f/ul"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(content, "nonBlockingTitle", "nonBlockingDescription"))),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(200, upload.statusCode(), upload.body());
+
+        HttpResponse<byte[]> full = send(HttpRequest.newBuilder(uri("/f/dl/nonBlockingTitle")).GET(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, full.statusCode());
+        assertArrayEquals(content, full.body());
+
+        HttpResponse<byte[]> range = send(HttpRequest.newBuilder(uri("/f/dl/nonBlockingTitle"))
+                .header("Range", "bytes=100000-200000").GET(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(206, range.statusCode());
+        assertArrayEquals(Arrays.copyOfRange(content, 100000, 200001), range.body());
+
+        HttpResponse<String> multirange = send(HttpRequest.newBuilder(uri("/f/dl/nonBlockingTitle"))
+                .header("Range", "bytes=0-9,1000-1009").GET(), HttpResponse.BodyHandlers.ofString(StandardCharsets.ISO_8859_1));
+        assertEquals(206, multirange.statusCode());
+        assertTrue(multirange.headers().firstValue("Content-Type").orElseThrow().startsWith("multipart/byteranges"));
+        assertTrue(multirange.body().contains(new String(content, 1000, 10, StandardCharsets.ISO_8859_1)));
+
+        HttpResponse<byte[]> head = send(HttpRequest.newBuilder(uri("/f/dl/nonBlockingTitle"))
+                .method("HEAD", HttpRequest.BodyPublishers.noBody()), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, head.statusCode());
+        assertEquals(String.valueOf(content.length), head.headers().firstValue("Content-Length").orElseThrow());
+    }
+
+    @Test
+    public void testUploadRejectsInvalidInput() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/f/ul"))
+                .header("Content-Type", "multipart/form-data; boundary=" + BOUNDARY)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(new byte[10], "bad'title", "description"))),
+                HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, response.statusCode());
+        assertEquals("Invalid input detected", response.body());
+    }
+
+    @Test
+    public void testDownloadErrors() throws Exception {
+        assertEquals(404, send(HttpRequest.newBuilder(uri("/f/dl/missingTitle")).GET(), HttpResponse.BodyHandlers.ofString()).statusCode());
+        assertEquals(404, send(HttpRequest.newBuilder(uri("/f/dl/")).GET(), HttpResponse.BodyHandlers.ofString()).statusCode());
+        HttpResponse<String> invalid = send(HttpRequest.newBuilder(uri("/f/dl/drop%20table")).GET(), HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, invalid.statusCode());
+        assertEquals("Invalid input detected", invalid.body());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private <T> HttpResponse<T> send(HttpRequest.Builder request, HttpResponse.BodyHandler<T> handler) throws Exception {
+        return client.send(request.build(), handler);
+    }
+
+    private static byte[] multipart(byte[] content, String title, String description) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"file\"; filename=\"test.bin\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(content);
+        body.writeBytes(("\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\n" + title
+                + "\r\n--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"description\"\r\n\r\n" + description
+                + "\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,87 @@
+package com.nullptr.files.repository;
+
+import com.nullptr.files.config.CacheConfig;
+import com.nullptr.files.entity.FileMetadata;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.cache.CacheType;
+import org.springframework.boot.test.autoconfigure.core.AutoConfigureCache;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.annotation.Import;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest
+@Import(CacheConfig.class)
+@AutoConfigureCache(cacheProvider = CacheType.CAFFEINE)
+public class FileMetadataRepositoryCacheTest {
+
+    @Autowired
+    private FileMetadataRepository repository;
+
+    @Autowired
+    private CacheManager cacheManager;
+
+    private Cache cache;
+
+    @BeforeEach
+    void setUp() {
+        repository.deleteAll();
+        cache = cacheManager.getCache(CacheConfig.FILE_METADATA_BY_TITLE);
+        repository.save(metadata("cached.txt", "Cached Title"));
+    }
+
+    @Test
+    public void testFindByTitleIsCached() {
+        assertNull(cache.get("Cached Title"));
+
+        Optional<FileMetadata> first = repository.findByTitle("Cached Title");
+        assertTrue(first.isPresent());
+        assertNotNull(cache.get("Cached Title"));
+        assertSame(first.get(), repository.findByTitle("Cached Title").get());
+    }
+
+    @Test
+    public void testMissingTitleIsNotCached() {
+        assertTrue(repository.findByTitle("Missing Title").isEmpty());
+        assertNull(cache.get("Missing Title"));
+
+        repository.save(metadata("late.txt", "Missing Title"));
+        assertTrue(repository.findByTitle("Missing Title").isPresent());
+    }
+
+    @Test
+    public void testSaveEvictsTitle() {
+        FileMetadata cached = repository.findByTitle("Cached Title").get();
+        assertNotNull(cache.get("Cached Title"));
+
+        cached.setDescription("Updated description");
+        repository.save(cached);
+        assertNull(cache.get("Cached Title"));
+        assertEquals("Updated description", repository.findByTitle("Cached Title").get().getDescription());
+    }
+
+    @Test
+    public void testDeleteEvictsTitle() {
+        FileMetadata cached = repository.findByTitle("Cached Title").get();
+
+        repository.delete(cached);
+        assertNull(cache.get("Cached Title"));
+        assertTrue(repository.findByTitle("Cached Title").isEmpty());
+    }
+
+    private static FileMetadata metadata(String filename, String title) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFilename(filename);
+        metadata.setTitle(title);
+        metadata.setDescription("Description for " + filename);
+        metadata.setUploadTime(LocalDateTime.now());
+        return metadata;
+    }
+}
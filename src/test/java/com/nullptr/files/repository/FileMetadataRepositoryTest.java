@@ -5,10 +5,13 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
 
 import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,14 +28,14 @@ public class FileMetadataRepositoryTest {
         file1.setFilename("test_file_1.txt");
         file1.setTitle("Test Title 1");
         file1.setDescription("This is a test description for test_file_1.txt.");
-        file1.setUploadTime(LocalDateTime.now().minusDays(1));
+        file1.setUploadTime(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS).minusDays(1));
         repository.save(file1);
 
         FileMetadata file2 = new FileMetadata();
         file2.setFilename("test_file_2.txt");
         file2.setTitle("Test Title 2");
         file2.setDescription("This is a test description for test_file_2.txt.");
-        file2.setUploadTime(LocalDateTime.now());
+        file2.setUploadTime(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS));
         repository.save(file2);
     }
 
@@ -52,4 +55,45 @@ public class FileMetadataRepositoryTest {
         assertEquals(1, files.size());
         assertEquals("test_file_2.txt", files.get(0).getFilename());
     }
+
+    @Test
+    public void testFindByTitleIn() {
+        List<FileMetadata> files = repository.findByTitleInOrderById(List.of("Test Title 2", "Missing", "Test Title 1"));
+        assertEquals(List.of("test_file_1.txt", "test_file_2.txt"), files.stream().map(FileMetadata::getFilename).toList());
+    }
+
+    @Test
+    public void testKeysetPageByUploadTime() {
+        List<FileMetadata> first = repository.findPageOrderByUploadTime(PageRequest.ofSize(1));
+        assertEquals(1, first.size());
+        assertEquals("test_file_1.txt", first.get(0).getFilename());
+
+        FileMetadata last = first.get(0);
+        List<FileMetadata> second = repository.findPageOrderByUploadTimeAfter(last.getUploadTime(), last.getId(), PageRequest.ofSize(10));
+        assertEquals(1, second.size());
+        assertEquals("test_file_2.txt", second.get(0).getFilename());
+    }
+
+    @Test
+    public void testKeysetPageByTitleBreaksTiesById() {
+        FileMetadata duplicate = new FileMetadata();
+        duplicate.setFilename("test_file_3.txt");
+        duplicate.setTitle("Test Title 1");
+        duplicate.setDescription("Shares its title with test_file_1.txt.");
+        duplicate.setUploadTime(LocalDateTime.now());
+        repository.save(duplicate);
+
+        List<FileMetadata> first = repository.findPageOrderByTitle(PageRequest.ofSize(1));
+        FileMetadata last = first.get(0);
+        List<FileMetadata> rest = repository.findPageOrderByTitleAfter(last.getTitle(), last.getId(), PageRequest.ofSize(10));
+        assertEquals(List.of("Test Title 1", "Test Title 2"), rest.stream().map(FileMetadata::getTitle).toList());
+        assertTrue(rest.get(0).getId() > last.getId());
+    }
+
+    @Test
+    public void testStreamAllOrderById() {
+        try (Stream<FileMetadata> files = repository.streamAllOrderById()) {
+            assertEquals(List.of("test_file_1.txt", "test_file_2.txt"), files.map(FileMetadata::getFilename).toList());
+        }
+    }
 }
@@ -0,0 +1,201 @@
+package com.nullptr.files.repository;
+
+import com.nullptr.files.config.CacheConfig;
+import com.nullptr.files.entity.ChunkedUpload;
+import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.entity.StoredBlob;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import org.sqlite.SQLiteDataSource;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetadataWriterTest {
+
+    @TempDir
+    Path dir;
+
+    private SQLiteDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+    private ConcurrentMapCacheManager cacheManager;
+    private MetadataWriter writer;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() {
+        dataSource = new SQLiteDataSource();
+        dataSource.setUrl("jdbc:sqlite:" + dir.resolve("test.db") + "?journal_mode=WAL&busy_timeout=10000");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE file_metadata (id integer, blob_hash varchar(255), blob_encoding varchar(255), description varchar(255) not null, "
+                + "filename varchar(255) not null, title varchar(255) not null, upload_time timestamp not null, primary key (id))");
+        jdbcTemplate.execute("CREATE TABLE stored_blob (hash varchar(255) not null, created_time timestamp not null, encoding varchar(255), "
+                + "ref_count integer not null, size bigint not null, primary key (hash))");
+        jdbcTemplate.execute("CREATE TABLE chunked_upload (id varchar(255) not null, chunk_count integer not null, chunk_size integer not null, "
+                + "created_time timestamp not null, description varchar(255) not null, filename varchar(255) not null, "
+                + "received_chunks blob not null, size bigint not null, title varchar(255) not null, primary key (id))");
+        cacheManager = new ConcurrentMapCacheManager(CacheConfig.FILE_METADATA_BY_TITLE);
+        meterRegistry = new SimpleMeterRegistry();
+        writer = new MetadataWriter(jdbcTemplate, new DataSourceTransactionManager(dataSource), cacheManager, 50, 1000, meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.stop();
+    }
+
+    @Test
+    public void testConcurrentInsertsAreAllCommittedWithUniqueIds() {
+        writer.start();
+        List<CompletableFuture<FileMetadata>> inserted = IntStream.range(0, 200)
+                .mapToObj(i -> CompletableFuture.supplyAsync(() -> writer.insert(metadata("File " + i))).thenCompose(f -> f))
+                .toList();
+
+        List<Long> ids = inserted.stream().map(f -> f.join().getId()).sorted().toList();
+        assertEquals(IntStream.rangeClosed(1, 200).mapToObj(Long::valueOf).toList(), ids);
+        assertEquals(200, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM file_metadata", Integer.class));
+        assertEquals("File 7", jdbcTemplate.queryForObject("SELECT title FROM file_metadata WHERE id = ?", String.class,
+                inserted.get(7).join().getId()));
+        assertEquals(200, meterRegistry.get("metadata.writer.batch.size").summary().totalAmount());
+        assertEquals(meterRegistry.get("metadata.writer.batch.size").summary().count(), meterRegistry.get("metadata.writer.batch").timer().count());
+    }
+
+    @Test
+    public void testIdsContinueAfterExistingRows() {
+        jdbcTemplate.update("INSERT INTO file_metadata (id, description, filename, title, upload_time) VALUES (41, 'd', 'f', 't', 0)");
+        writer.start();
+
+        assertEquals(42, writer.insert(metadata("Next")).join().getId());
+    }
+
+    @Test
+    public void testIdsFollowRowsInsertedAfterStart() {
+        writer.start();
+        assertEquals(1, writer.insert(metadata("First")).join().getId());
+        jdbcTemplate.update("INSERT INTO file_metadata (id, description, filename, title, upload_time) VALUES (2, 'd', 'f', 't', 0)");
+
+        assertEquals(3, writer.insert(metadata("Third")).join().getId());
+    }
+
+    @Test
+    public void testInvalidRowFailsWithoutItsBatch() throws Exception {
+        writer.start();
+        CompletableFuture<FileMetadata> first;
+        CompletableFuture<FileMetadata> good;
+        CompletableFuture<FileMetadata> bad;
+        CompletableFuture<FileMetadata> alsoGood;
+        // hold the write lock so the later rows pile up into one batch
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("BEGIN IMMEDIATE");
+            first = writer.insert(metadata("First"));
+            Thread.sleep(100);
+            good = writer.insert(metadata("Good"));
+            bad = writer.insert(metadata(null));
+            alsoGood = writer.insert(metadata("Also Good"));
+            statement.execute("COMMIT");
+        }
+
+        assertNotNull(first.join().getId());
+        assertNotNull(good.join().getId());
+        assertNotNull(alsoGood.join().getId());
+        assertThrows(CompletionException.class, bad::join);
+        assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM file_metadata", Integer.class));
+    }
+
+    @Test
+    public void testReferenceCountsCreateAndDeleteBlobRows() {
+        writer.start();
+        StoredBlob blob = new StoredBlob();
+        blob.setHash("b".repeat(64));
+        blob.setSize(5);
+        blob.setCreatedTime(LocalDateTime.now());
+        blob.setEncoding("gzip");
+
+        assertEquals(1, writer.adjustReferences(blob, 1).join());
+        assertEquals(2, writer.adjustReferences(blob, 1).join());
+        assertEquals(5, jdbcTemplate.queryForObject("SELECT size FROM stored_blob WHERE hash = ?", Long.class, blob.getHash()));
+        assertEquals("gzip", jdbcTemplate.queryForObject("SELECT encoding FROM stored_blob WHERE hash = ?", String.class, blob.getHash()));
+        assertEquals(1, writer.adjustReferences(blob, -1).join());
+        assertEquals(0, writer.adjustReferences(blob, -1).join());
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM stored_blob", Integer.class));
+        assertEquals(0, writer.adjustReferences(blob, -1).join());
+    }
+
+    @Test
+    public void testReceivedChunksQueuedTogetherAreWrittenOnce() throws Exception {
+        writer.start();
+        ChunkedUpload upload = new ChunkedUpload();
+        upload.setId("upload");
+        upload.setFilename("chunked.txt");
+        upload.setTitle("Chunked");
+        upload.setDescription("Description");
+        upload.setSize(24);
+        upload.setChunkSize(4);
+        upload.setChunkCount(6);
+        upload.setReceivedChunks(new byte[1]);
+        upload.setCreatedTime(LocalDateTime.now());
+        writer.insertChunkedUpload(upload).join();
+
+        List<CompletableFuture<Void>> recorded = new ArrayList<>();
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("BEGIN IMMEDIATE");
+            recorded.add(writer.updateReceivedChunks("upload", new byte[] {1}));
+            Thread.sleep(100);
+            for (int bits = 3; bits <= 63; bits = bits * 2 + 1) {
+                recorded.add(writer.updateReceivedChunks("upload", new byte[] {(byte) bits}));
+            }
+            statement.execute("COMMIT");
+        }
+
+        recorded.forEach(CompletableFuture::join);
+        assertArrayEquals(new byte[] {63}, jdbcTemplate.queryForObject("SELECT received_chunks FROM chunked_upload WHERE id = ?", byte[].class, "upload"));
+        assertEquals(3, meterRegistry.get("metadata.writer.batch.size").summary().count());
+    }
+
+    @Test
+    public void testInsertEvictsCachedTitle() {
+        cacheManager.getCache(CacheConfig.FILE_METADATA_BY_TITLE).put("Cached", "stale");
+        writer.start();
+
+        writer.insert(metadata("Cached")).join();
+        assertNull(cacheManager.getCache(CacheConfig.FILE_METADATA_BY_TITLE).get("Cached"));
+    }
+
+    @Test
+    public void testInsertIsRejectedWhenStopped() {
+        writer.start();
+        writer.stop();
+
+        assertThrows(CompletionException.class, () -> writer.insert(metadata("Late")).join());
+    }
+
+    private static FileMetadata metadata(String title) {
+        FileMetadata metadata = new FileMetadata();
+        metadata.setFilename("file.txt");
+        metadata.setTitle(title);
+        metadata.setDescription("Description");
+        metadata.setUploadTime(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+        metadata.setBlobHash("a".repeat(64));
+        return metadata;
+    }
+}
@@ -0,0 +1,99 @@
+package com.nullptr.files.search;
+
+import com.nullptr.files.entity.FileMetadata;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTest {
+
+    private SearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() {
+        searchIndex = new SearchIndex();
+        searchIndex.index(file(1L, "Annual Report 2023", "Financial results for the year", LocalDateTime.of(2024, 1, 15, 9, 0)));
+        searchIndex.index(file(2L, "Team Photo", "Summer offsite in Zürich", LocalDateTime.of(2024, 6, 30, 12, 0)));
+        searchIndex.index(file(3L, "Quarterly Report Q2", "Financial summary", LocalDateTime.of(2024, 7, 1, 8, 0)));
+    }
+
+    @Test
+    public void testTokenizedTermsMustAllMatch() {
+        assertEquals(List.of("Annual Report 2023", "Quarterly Report Q2"), search("report"));
+        assertEquals(List.of("Annual Report 2023"), search("REPORT financial results"));
+        assertEquals(List.of(), search("report photo"));
+    }
+
+    @Test
+    public void testDescriptionIsSearchable() {
+        assertEquals(List.of("Team Photo"), search("zurich~"));
+        assertEquals(List.of("Team Photo"), search("zürich"));
+    }
+
+    @Test
+    public void testPrefixQuery() {
+        assertEquals(List.of("Annual Report 2023", "Quarterly Report Q2"), search("fin*"));
+        assertEquals(List.of("Quarterly Report Q2"), search("fin* summ*"));
+    }
+
+    @Test
+    public void testFuzzyQuery() {
+        assertEquals(List.of("Annual Report 2023", "Quarterly Report Q2"), search("finacial~"));
+        assertEquals(List.of("Quarterly Report Q2"), search("quartely~"));
+        assertEquals(List.of(), search("fantastic~"));
+        assertEquals(List.of(), search("q3~"));
+    }
+
+    @Test
+    public void testDateRange() {
+        assertEquals(List.of("Team Photo"), searchIndex.search(new SearchQuery(null, null,
+                LocalDateTime.of(2024, 6, 30, 0, 0), LocalDateTime.of(2024, 7, 1, 0, 0), 10)));
+        assertEquals(List.of("Quarterly Report Q2"), searchIndex.search(new SearchQuery(null, "report",
+                LocalDateTime.of(2024, 6, 1, 0, 0), null, 10)));
+        assertEquals(List.of("Annual Report 2023", "Team Photo"), searchIndex.search(new SearchQuery(null, null,
+                null, LocalDateTime.of(2024, 7, 1, 8, 0), 10)));
+    }
+
+    @Test
+    public void testExactTitleAndLimit() {
+        assertEquals(List.of("Team Photo"), searchIndex.search(new SearchQuery("Team Photo", null, null, null, 10)));
+        assertEquals(List.of(), searchIndex.search(new SearchQuery("team photo", null, null, null, 10)));
+        assertEquals(List.of("Annual Report 2023"), searchIndex.search(new SearchQuery(null, "report", null, null, 1)));
+    }
+
+    @Test
+    public void testReindexAndRemove() {
+        searchIndex.index(file(2L, "Team Photo", "Winter offsite", LocalDateTime.of(2024, 6, 30, 12, 0)));
+        assertEquals(List.of(), search("summer"));
+        assertEquals(List.of("Team Photo"), search("winter"));
+
+        searchIndex.remove(2L);
+        assertEquals(List.of(), search("winter"));
+        assertEquals(2, searchIndex.size());
+    }
+
+    @Test
+    public void testBoundedDistance() {
+        assertEquals(1, Tokenizer.boundedDistance("report", "reprt", 2));
+        assertEquals(2, Tokenizer.boundedDistance("report", "rpeort", 2));
+        assertEquals(3, Tokenizer.boundedDistance("report", "summary", 2));
+    }
+
+    private List<String> search(String text) {
+        return searchIndex.search(new SearchQuery(null, text, null, null, 10));
+    }
+
+    private static FileMetadata file(Long id, String title, String description, LocalDateTime uploadTime) {
+        FileMetadata file = new FileMetadata();
+        file.setId(id);
+        file.setTitle(title);
+        file.setDescription(description);
+        file.setUploadTime(uploadTime);
+        return file;
+    }
+}
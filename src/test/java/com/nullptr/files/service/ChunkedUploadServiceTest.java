@@ -0,0 +1,276 @@
+package com.nullptr.files.service;
+
+import com.nullptr.files.config.FileStorageConfig;
+import com.nullptr.files.entity.ChunkedUpload;
+import com.nullptr.files.entity.StoredBlob;
+import com.nullptr.files.repository.ChunkedUploadRepository;
+import com.nullptr.files.repository.MetadataWriter;
+import com.nullptr.files.repository.StoredBlobRepository;
+import com.nullptr.files.storage.BlobStore;
+import com.nullptr.files.storage.ContentCache;
+import com.nullptr.files.storage.LocalStorageBackend;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+public class ChunkedUploadServiceTest {
+
+    @TempDir
+    Path uploadDir;
+
+    @Mock
+    private ChunkedUploadRepository chunkedUploadRepository;
+
+    @Mock
+    private FileStorageService fileStorageService;
+
+    @Mock
+    private StoredBlobRepository storedBlobRepository;
+
+    @Mock
+    private MetadataWriter metadataWriter;
+
+    private BlobStore blobStore;
+
+    private ChunkedUploadService chunkedUploadService;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(metadataWriter.insertChunkedUpload(any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(metadataWriter.updateReceivedChunks(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
+        when(storedBlobRepository.findById(any())).thenReturn(Optional.empty());
+        when(metadataWriter.adjustReferences(any(StoredBlob.class), anyInt())).thenReturn(CompletableFuture.completedFuture(1));
+
+        FileStorageConfig config = new FileStorageConfig();
+        config.setUploadDir(uploadDir.toString());
+        blobStore = new BlobStore(config, new LocalStorageBackend(uploadDir.resolve("blobs")));
+        ReflectionTestUtils.setField(blobStore, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(blobStore, "storedBlobRepository", storedBlobRepository);
+        ReflectionTestUtils.setField(blobStore, "metadataWriter", metadataWriter);
+        ReflectionTestUtils.setField(blobStore, "contentCache", new ContentCache(DataSize.ofBytes(0), DataSize.ofBytes(0), new SimpleMeterRegistry()));
+        blobStore.init();
+
+        chunkedUploadService = new ChunkedUploadService(config);
+        ReflectionTestUtils.setField(chunkedUploadService, "chunkedUploadRepository", chunkedUploadRepository);
+        ReflectionTestUtils.setField(chunkedUploadService, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(chunkedUploadService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(chunkedUploadService, "metadataWriter", metadataWriter);
+        chunkedUploadService.init();
+    }
+
+    @Test
+    public void testUploadChunksConcurrentlyAndCommit() throws IOException {
+        ChunkedUpload upload = chunkedUploadService.start("chunked.txt", "Chunked Title", "Chunked Description", 10, 4).join();
+        assertEquals(3, upload.getChunkCount());
+        assertEquals(List.of(0, 1, 2), upload.getMissingChunks());
+
+        List<CompletableFuture<ChunkedUpload>> writes = new ArrayList<>();
+        writes.add(CompletableFuture.supplyAsync(() -> chunkedUploadService.writeChunk(upload.getId(), 2, body("89")).join()));
+        writes.add(CompletableFuture.supplyAsync(() -> chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join()));
+        writes.add(CompletableFuture.supplyAsync(() -> chunkedUploadService.writeChunk(upload.getId(), 1, body("4567")).join()));
+        writes.forEach(CompletableFuture::join);
+        assertTrue(upload.isComplete());
+
+        assertEquals("File uploaded successfully", chunkedUploadService.commit(upload.getId()).join());
+        ArgumentCaptor<StoredBlob> blob = ArgumentCaptor.forClass(StoredBlob.class);
+        verify(fileStorageService).saveMetadata(eq("chunked.txt"), eq("Chunked Title"), eq("Chunked Description"), blob.capture());
+        assertEquals(10, blob.getValue().getSize());
+        assertEquals("0123456789", Files.readString(blobStore.resolve(blob.getValue().getHash())));
+        verify(chunkedUploadRepository).deleteById(upload.getId());
+    }
+
+    @Test
+    public void testChunkWithWrongLength() {
+        ChunkedUpload upload = chunkedUploadService.start("short.txt", "Short Title", "Short Description", 10, 4).join();
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.writeChunk(upload.getId(), 0, body("012")).join());
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+        assertEquals(0, upload.getReceivedChunkCount());
+    }
+
+    @Test
+    public void testCommitIncompleteUpload() throws IOException {
+        ChunkedUpload upload = chunkedUploadService.start("incomplete.txt", "Incomplete Title", "Incomplete Description", 10, 4).join();
+        chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join();
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.commit(upload.getId()).join());
+        assertInstanceOf(IllegalStateException.class, exception.getCause());
+        assertEquals(List.of(1, 2), upload.getMissingChunks());
+        verify(fileStorageService, never()).saveMetadata(any(), any(), any(), any());
+    }
+
+    @Test
+    public void testCommitWaitsForChunkInFlight() throws Exception {
+        ChunkedUpload upload = chunkedUploadService.start("inflight.txt", "Inflight Title", "Inflight Description", 8, 4).join();
+        chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ReadableByteChannel slowBody = new ReadableByteChannel() {
+            private final ReadableByteChannel content = body("4567");
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return content.read(dst);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        CompletableFuture<ChunkedUpload> chunk = CompletableFuture.supplyAsync(() -> chunkedUploadService.writeChunk(upload.getId(), 1, slowBody).join());
+        reading.await();
+        CompletableFuture<String> commit = CompletableFuture.supplyAsync(() -> chunkedUploadService.commit(upload.getId()).join());
+        Thread.sleep(100);
+        assertFalse(commit.isDone());
+
+        release.countDown();
+        chunk.join();
+        assertEquals("File uploaded successfully", commit.join());
+        ArgumentCaptor<StoredBlob> blob = ArgumentCaptor.forClass(StoredBlob.class);
+        verify(fileStorageService).saveMetadata(any(), any(), any(), blob.capture());
+        assertEquals("01234567", Files.readString(blobStore.resolve(blob.getValue().getHash())));
+    }
+
+    @Test
+    public void testChunkAfterCommitIsRejected() throws IOException {
+        ChunkedUpload upload = chunkedUploadService.start("late.txt", "Late Title", "Late Description", 4, 4).join();
+        chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join();
+        assertEquals("File uploaded successfully", chunkedUploadService.commit(upload.getId()).join());
+        when(chunkedUploadRepository.findById(upload.getId())).thenReturn(Optional.empty());
+        clearInvocations(metadataWriter);
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join());
+        assertInstanceOf(NoSuchElementException.class, exception.getCause());
+        verify(metadataWriter, never()).updateReceivedChunks(any(), any());
+    }
+
+    @Test
+    public void testChunkIsAcknowledgedOnceRecorded() throws Exception {
+        ChunkedUpload upload = chunkedUploadService.start("durable.txt", "Durable Title", "Durable Description", 8, 4).join();
+        verify(metadataWriter).insertChunkedUpload(upload);
+        CompletableFuture<Void> recorded = new CompletableFuture<>();
+        when(metadataWriter.updateReceivedChunks(eq(upload.getId()), any())).thenReturn(recorded);
+
+        CompletableFuture<ChunkedUpload> chunk = CompletableFuture.supplyAsync(() -> chunkedUploadService.writeChunk(upload.getId(), 1, body("4567")).join());
+        Thread.sleep(100);
+        assertFalse(chunk.isDone());
+
+        recorded.complete(null);
+        assertEquals(List.of(0), chunk.join().getMissingChunks());
+        verify(metadataWriter).updateReceivedChunks(upload.getId(), new byte[] {2});
+    }
+
+    @Test
+    public void testChunkFailsWhenItCannotBeRecorded() {
+        ChunkedUpload upload = chunkedUploadService.start("unrecorded.txt", "Unrecorded Title", "Unrecorded Description", 4, 4).join();
+        when(metadataWriter.updateReceivedChunks(any(), any())).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("Metadata writer is not running")));
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join());
+        assertInstanceOf(IOException.class, exception.getCause());
+    }
+
+    @Test
+    public void testUploadLargerThanMaxSizeIsRejected() throws IOException {
+        ReflectionTestUtils.setField(chunkedUploadService, "maxSize", DataSize.ofKilobytes(1));
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.start("large.bin", "Large Title", "Large Description", 1025, 512).join());
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+        try (var partials = Files.list(uploadDir.resolve(".chunked"))) {
+            assertEquals(0, partials.count());
+        }
+    }
+
+    @Test
+    public void testStaleUploadIsRemoved() throws IOException {
+        ChunkedUpload upload = chunkedUploadService.start("stale.txt", "Stale Title", "Stale Description", 8, 4).join();
+        chunkedUploadService.writeChunk(upload.getId(), 0, body("0123")).join();
+        when(chunkedUploadRepository.findByCreatedTimeBefore(any())).thenReturn(List.of(upload));
+        Path partial = uploadDir.resolve(".chunked").resolve(upload.getId());
+
+        chunkedUploadService.removeStaleUploads(LocalDateTime.now().minusMinutes(1));
+        verify(chunkedUploadRepository, never()).deleteById(any());
+        assertTrue(Files.exists(partial));
+
+        chunkedUploadService.removeStaleUploads(LocalDateTime.now().plusMinutes(1));
+        verify(chunkedUploadRepository).deleteById(upload.getId());
+        assertFalse(Files.exists(partial));
+        when(chunkedUploadRepository.findById(upload.getId())).thenReturn(Optional.empty());
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.writeChunk(upload.getId(), 1, body("4567")).join());
+        assertInstanceOf(NoSuchElementException.class, exception.getCause());
+    }
+
+    @Test
+    public void testOrphanedPartialFileIsRemoved() throws IOException {
+        Path orphan = Files.writeString(uploadDir.resolve(".chunked").resolve("orphan"), "partial");
+        Files.setLastModifiedTime(orphan, FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        chunkedUploadService.removeStaleUploads(LocalDateTime.now().minusDays(1));
+        assertFalse(Files.exists(orphan));
+    }
+
+    @Test
+    public void testUnknownUpload() {
+        when(chunkedUploadRepository.findById("missing")).thenReturn(Optional.empty());
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> chunkedUploadService.writeChunk("missing", 0, body("0123")).join());
+        assertInstanceOf(NoSuchElementException.class, exception.getCause());
+    }
+
+    private static ReadableByteChannel body(String content) {
+        return Channels.newChannel(new ByteArrayInputStream(content.getBytes()));
+    }
+}
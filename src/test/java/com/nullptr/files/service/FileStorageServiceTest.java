@@ -1,30 +1,64 @@
 package com.nullptr.files.service;
 
 import com.nullptr.files.entity.FileMetadata;
+import com.nullptr.files.entity.StoredBlob;
 import com.nullptr.files.repository.FileMetadataRepository;
+import com.nullptr.files.repository.MetadataWriter;
+import com.nullptr.files.repository.StoredBlobRepository;
 import com.nullptr.files.config.FileStorageConfig;
+import com.nullptr.files.search.SearchIndex;
+import com.nullptr.files.search.SearchQuery;
+import com.nullptr.files.storage.BlobStore;
+import com.nullptr.files.storage.ContentCache;
+import com.nullptr.files.storage.FileChannelPool;
+import com.nullptr.files.storage.LocalStorageBackend;
+import com.nullptr.files.transfer.ConditionalHeaders;
+import com.nullptr.files.transfer.FileRegion;
+import com.nullptr.files.transfer.MultipartFileRegions;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.persistence.EntityManager;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.MockitoAnnotations;
 
 import org.springframework.context.ApplicationContext;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
@@ -36,50 +70,577 @@ public class FileStorageServiceTest {
     @Mock
     private FileMetadataRepository fileMetadataRepository;
 
+    @Mock
+    private StoredBlobRepository storedBlobRepository;
+
+    @Spy
+    private FileStorageConfig fileStorageConfig = testStorageConfig();
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Spy
+    private SearchIndex searchIndex = new SearchIndex();
+
+    @Mock
+    private MetadataWriter metadataWriter;
+
     @InjectMocks
     private FileStorageService fileStorageService;
 
+    private BlobStore blobStore;
+
+    private ContentCache contentCache;
+
+    private FileChannelPool fileChannelPool;
+
+    private final Map<String, StoredBlob> blobRows = new HashMap<>();
+
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        when(storedBlobRepository.findById(any())).thenAnswer(invocation -> Optional.ofNullable(blobRows.get(invocation.<String>getArgument(0))));
+        when(metadataWriter.adjustReferences(any(StoredBlob.class), anyInt())).thenAnswer(invocation -> {
+            StoredBlob blob = invocation.getArgument(0);
+            StoredBlob row = blobRows.getOrDefault(blob.getHash(), blob);
+            row.setRefCount((blobRows.containsKey(blob.getHash()) ? row.getRefCount() : 0) + invocation.<Integer>getArgument(1));
+            if (row.getRefCount() > 0) {
+                blobRows.put(blob.getHash(), row);
+            } else {
+                blobRows.remove(blob.getHash());
+            }
+            return CompletableFuture.completedFuture(row.getRefCount());
+        });
+        AtomicLong ids = new AtomicLong();
+        when(metadataWriter.insert(any(FileMetadata.class))).thenAnswer(invocation -> {
+            FileMetadata inserted = invocation.getArgument(0);
+            inserted.setId(ids.incrementAndGet());
+            return CompletableFuture.completedFuture(inserted);
+        });
+        blobStore = new BlobStore(testStorageConfig(), new LocalStorageBackend(Paths.get("test-uploads", "blobs")));
+        ReflectionTestUtils.setField(blobStore, "meterRegistry", new SimpleMeterRegistry());
+        contentCache = new ContentCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+        fileChannelPool = new FileChannelPool(16, Duration.ofSeconds(30), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(blobStore, "storedBlobRepository", storedBlobRepository);
+        ReflectionTestUtils.setField(blobStore, "metadataWriter", metadataWriter);
+        ReflectionTestUtils.setField(blobStore, "contentCache", contentCache);
+        ReflectionTestUtils.setField(blobStore, "fileChannelPool", fileChannelPool);
+        blobStore.init();
+        ReflectionTestUtils.setField(fileStorageService, "blobStore", blobStore);
+        ReflectionTestUtils.setField(fileStorageService, "contentCache", contentCache);
+        ReflectionTestUtils.setField(fileStorageService, "fileChannelPool", fileChannelPool);
     }
 
     @Autowired
     private ApplicationContext context;
 
+    private static FileStorageConfig testStorageConfig() {
+        FileStorageConfig config = new FileStorageConfig();
+        config.setUploadDir("test-uploads");
+        config.setPolicy("discard");
+        return config;
+    }
+
     @Test
     public void testSave() throws IOException {
         MultipartFile file = mock(MultipartFile.class);
         when(file.getOriginalFilename()).thenReturn("test.txt");
         when(file.getInputStream()).thenReturn(new ByteArrayInputStream("content".getBytes()));
 
-        when(fileMetadataRepository.save(any(FileMetadata.class))).thenReturn(new FileMetadata());
-
         CompletableFuture<String> result = fileStorageService.save(file, "Test Title", "Test Description");
         assertEquals("File uploaded successfully", result.join());
+        verify(metadataWriter).insert(argThat(metadata -> "test.txt".equals(metadata.getFilename())
+                && metadata.getBlobHash() != null
+                && Files.exists(blobStore.resolve(metadata.getBlobHash()))));
+    }
+
+    @Test
+    public void testSaveDuplicateContentSharesBlob() throws IOException {
+        for (String name : List.of("first.txt", "second.txt")) {
+            MultipartFile file = mock(MultipartFile.class);
+            when(file.getOriginalFilename()).thenReturn(name);
+            when(file.getInputStream()).thenReturn(new ByteArrayInputStream("duplicate content".getBytes()));
+            assertEquals("File uploaded successfully", fileStorageService.save(file, name, "Duplicate").join());
+        }
+
+        StoredBlob stored = blobRows.values().iterator().next();
+        assertEquals(1, blobRows.size());
+        assertEquals(2, stored.getRefCount());
+        assertEquals("duplicate content", Files.readString(blobStore.resolve(stored.getHash())));
+        verify(metadataWriter, times(2)).insert(argThat(metadata -> stored.getHash().equals(metadata.getBlobHash())));
+    }
+
+    @Test
+    public void testSaveStream() throws IOException {
+        String body = "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nStream Title\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"description\"\r\n\r\nStream Description\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"../stream.txt\"\r\n\r\nstreamed content\r\n"
+                + "--b--\r\n";
+        CompletableFuture<String> result = fileStorageService.saveStream(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b");
+        assertEquals("File uploaded successfully", result.join());
+        verify(metadataWriter).insert(argThat(metadata -> "stream.txt".equals(metadata.getFilename())
+                && "Stream Title".equals(metadata.getTitle())
+                && "Stream Description".equals(metadata.getDescription())
+                && readBlob(metadata.getBlobHash()).equals("streamed content")));
+    }
+
+    @Test
+    public void testSaveStreamFileBeforeFields() {
+        String body = "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"early.txt\"\r\n\r\ncontent\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nLate Title\r\n"
+                + "--b--\r\n";
+
+        CompletableFuture<String> result = fileStorageService.saveStream(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b");
+        CompletionException exception = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+        verify(metadataWriter, never()).adjustReferences(any(), anyInt());
+        verify(metadataWriter, never()).insert(any());
+    }
+
+    @Test
+    public void testSaveBulk() {
+        String body = bulkFile("First", "One", "first.txt", "first content")
+                + "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nNo Description\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"orphan.txt\"\r\n\r\norphan\r\n"
+                + bulkFile("Bad'; DROP TABLE file_metadata;--", "Two", "bad.txt", "bad content")
+                + bulkFile("Second", "Three", "second.txt", "first content")
+                + "--b--\r\n";
+
+        List<BulkUploadResult> results = fileStorageService.saveBulk(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b").join();
+
+        assertEquals(List.of(200, 400, 400, 200), results.stream().map(BulkUploadResult::status).toList());
+        assertEquals(List.of("first.txt", "orphan.txt", "bad.txt", "second.txt"), results.stream().map(BulkUploadResult::filename).toList());
+        verify(metadataWriter, times(2)).insert(any());
+        assertEquals(2, blobRows.values().iterator().next().getRefCount());
+        assertEquals(List.of("First", "Second"), fileStorageService.findFiles(new SearchQuery(null, null, null, null, 10)).join());
+    }
+
+    @Test
+    public void testSaveBulkReportsFailedInserts() {
+        when(metadataWriter.insert(any(FileMetadata.class)))
+                .thenReturn(CompletableFuture.failedFuture(new TaskRejectedException("Metadata write queue is full")))
+                .thenAnswer(invocation -> CompletableFuture.completedFuture(invocation.getArgument(0)));
+        String body = bulkFile("Rejected", "One", "rejected.txt", "rejected content")
+                + bulkFile("Kept", "Two", "kept.txt", "kept content")
+                + "--b--\r\n";
+
+        List<BulkUploadResult> results = fileStorageService.saveBulk(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b").join();
+
+        assertEquals(List.of(503, 200), results.stream().map(BulkUploadResult::status).toList());
+        assertEquals(1, blobRows.size());
+    }
+
+    @Test
+    public void testSaveBulkMalformedBodyKeepsStoredFiles() {
+        String body = bulkFile("Stored", "One", "stored.txt", "stored content")
+                + "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nTruncated";
+
+        List<BulkUploadResult> results = fileStorageService.saveBulk(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b").join();
+
+        assertEquals(List.of(200, 417), results.stream().map(BulkUploadResult::status).toList());
+        assertEquals("stored.txt", results.get(0).filename());
+        verify(metadataWriter).insert(argThat(metadata -> "Stored".equals(metadata.getTitle())));
+        assertEquals(1, blobRows.size());
+    }
+
+    @Test
+    public void testSaveBulkReportsFileCutOffMidway() {
+        String body = bulkFile("Stored", "One", "stored.txt", "stored content")
+                + "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nCut\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"description\"\r\n\r\nTwo\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"cut.txt\"\r\n\r\npartial";
+
+        List<BulkUploadResult> results = fileStorageService.saveBulk(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b").join();
+
+        assertEquals(List.of(200, 417), results.stream().map(BulkUploadResult::status).toList());
+        assertEquals(List.of("stored.txt", "cut.txt"), results.stream().map(BulkUploadResult::filename).toList());
+        verify(metadataWriter, times(1)).insert(any());
+        assertEquals(1, blobRows.size());
+    }
+
+    @Test
+    public void testSaveBulkMalformedBodyWithoutFilesFails() {
+        String body = "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nTruncated";
+
+        CompletableFuture<List<BulkUploadResult>> result = fileStorageService.saveBulk(
+                Channels.newChannel(new ByteArrayInputStream(body.getBytes())), "multipart/form-data; boundary=b");
+
+        CompletionException exception = assertThrows(CompletionException.class, result::join);
+        assertInstanceOf(EOFException.class, exception.getCause());
+        verify(metadataWriter, never()).insert(any());
+    }
+
+    private static String bulkFile(String title, String description, String filename, String content) {
+        return "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\n" + title + "\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"description\"\r\n\r\n" + description + "\r\n"
+                + "--b\r\nContent-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n\r\n" + content + "\r\n";
+    }
+
+    @Test
+    public void testGetFileDetailsByTitles() {
+        FileMetadata first = listed(1L, "First", LocalDateTime.now());
+        FileMetadata duplicate = listed(3L, "First", LocalDateTime.now());
+        FileMetadata second = listed(2L, "Second", LocalDateTime.now());
+        when(fileMetadataRepository.findByTitleInOrderById(List.of("First", "Missing", "Second"))).thenReturn(List.of(first, second, duplicate));
+
+        List<FileDetailsResult> results = fileStorageService.getFileDetailsByTitles(List.of("First", "Missing", "Second", "First")).join();
+
+        assertEquals(List.of(409, 404, 200, 409), results.stream().map(FileDetailsResult::status).toList());
+        assertNull(results.get(0).file());
+        assertNull(results.get(1).file());
+        assertSame(second, results.get(2).file());
+        verify(fileMetadataRepository, times(1)).findByTitleInOrderById(any());
     }
 
     @Test
     public void testLoadByTitle() throws IOException {
+        Files.write(Paths.get("test-uploads", "download.txt"), "download content".getBytes());
         FileMetadata fileMetadata = new FileMetadata();
-        fileMetadata.setFilename("test.txt");
+        fileMetadata.setFilename("download.txt");
         when(fileMetadataRepository.findByTitle("Test Title")).thenReturn(Optional.of(fileMetadata));
 
-        CompletableFuture<ResponseEntity<?>> result = fileStorageService.loadByTitle("Test Title", null);
+        CompletableFuture<ResponseEntity<?>> result = fileStorageService.loadByTitle("Test Title", null, null, ConditionalHeaders.NONE);
         assertEquals(200, result.join().getStatusCodeValue());
+        FileRegion region = assertInstanceOf(FileRegion.class, result.join().getBody());
+        assertEquals(0, region.getPosition());
+        assertEquals("download content".length(), region.getCount());
+        assertEquals("bytes", result.join().getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
+        assertEquals("65536", result.join().getHeaders().getFirst(FileStorageService.SEGMENT_SIZE_HEADER));
     }
 
     @Test
-    public void testFindFiles() {
+    public void testSegmentSize() {
+        long mb = 1024 * 1024;
+        // small files are a single segment of whole blocks
+        assertEquals(64 * 1024, FileStorageService.segmentSize(10, 4 * mb, 8));
+        assertEquals(4 * mb, FileStorageService.segmentSize(4 * mb, 4 * mb, 8));
+        // split into parts of at least the minimum
+        assertEquals(5 * mb, FileStorageService.segmentSize(10 * mb, 4 * mb, 8));
+        // but never more than the maximum number of them
+        assertEquals(128 * mb, FileStorageService.segmentSize(1024 * mb, 4 * mb, 8));
+        assertEquals(0, FileStorageService.segmentSize(10 * mb + 1, 4 * mb, 8) % (64 * 1024));
+    }
+
+    @Test
+    public void testLoadByTitleFallsBackWhenBlobMovedTiers() throws IOException {
+        String hash = "c".repeat(64);
+        BlobStore tieredBlobStore = mock(BlobStore.class);
+        when(tieredBlobStore.resolve(hash)).thenReturn(Paths.get("test-uploads", "demoted-hot-copy"));
+        when(tieredBlobStore.fallback(hash)).thenReturn(Files.writeString(Files.createTempFile("cold", ".txt"), "cold content"));
+        ReflectionTestUtils.setField(fileStorageService, "blobStore", tieredBlobStore);
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setFilename("cold.txt");
+        fileMetadata.setBlobHash(hash);
+        when(fileMetadataRepository.findByTitle("Cold Title")).thenReturn(Optional.of(fileMetadata));
+
+        ResponseEntity<?> response = fileStorageService.loadByTitle("Cold Title", null, null, ConditionalHeaders.NONE).join();
+        assertEquals(200, response.getStatusCode().value());
+        FileRegion region = assertInstanceOf(FileRegion.class, response.getBody());
+        assertEquals("cold content".length(), region.getCount());
+    }
+
+    @Test
+    public void testLoadForSendfileOnlyAnswersLargeStoredFiles() throws IOException {
+        StoredBlob large = blobStore.importFile(Files.write(Files.createTempFile("large", ".bin"), new byte[64 * 1024]));
+        StoredBlob small = blobStore.importFile(Files.writeString(Files.createTempFile("small", ".txt"), "small content"));
+        FileMetadata largeFile = new FileMetadata();
+        largeFile.setFilename("large.bin");
+        largeFile.setBlobHash(large.getHash());
+        FileMetadata smallFile = new FileMetadata();
+        smallFile.setFilename("small.txt");
+        smallFile.setBlobHash(small.getHash());
+        when(fileMetadataRepository.findByTitle("Large Title")).thenReturn(Optional.of(largeFile));
+        when(fileMetadataRepository.findByTitle("Small Title")).thenReturn(Optional.of(smallFile));
+
+        ResponseEntity<?> response = fileStorageService.loadForSendfile("Large Title", null, ConditionalHeaders.NONE);
+        assertNotNull(response);
+        FileRegion region = assertInstanceOf(FileRegion.class, response.getBody());
+        assertEquals(blobStore.resolve(large.getHash()), region.getFile());
+        assertEquals(64 * 1024, region.getCount());
+        assertNull(fileStorageService.loadForSendfile("Small Title", null, ConditionalHeaders.NONE));
+        assertNull(fileStorageService.loadForSendfile("Missing Title", null, ConditionalHeaders.NONE));
+    }
+
+    @Test
+    public void testLoadByTitleFromBlob() throws IOException {
+        StoredBlob blob = blobStore.importFile(Files.writeString(Files.createTempFile("blob", ".txt"), "blob content"));
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setFilename("blob.txt");
+        fileMetadata.setBlobHash(blob.getHash());
+        when(fileMetadataRepository.findByTitle("Blob Title")).thenReturn(Optional.of(fileMetadata));
+
+        ResponseEntity<?> response = fileStorageService.loadByTitle("Blob Title", null, null, ConditionalHeaders.NONE).join();
+        assertEquals(200, response.getStatusCode().value());
+        assertEquals("attachment; filename=\"blob.txt\"", response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+        FileRegion region = assertInstanceOf(FileRegion.class, response.getBody());
+        assertEquals("blob content".length(), region.getCount());
+    }
+
+    @Test
+    public void testLoadByTitleCompressedBlob() throws IOException {
+        ReflectionTestUtils.setField(blobStore, "compressionEnabled", true);
+        ReflectionTestUtils.setField(blobStore, "compressionLevel", 6);
+        String content = "compressible line\n".repeat(1000);
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getOriginalFilename()).thenReturn("log.txt");
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream(content.getBytes()));
+        fileStorageService.save(file, "Log Title", "Compressible").join();
+        ArgumentCaptor<FileMetadata> saved = ArgumentCaptor.forClass(FileMetadata.class);
+        verify(metadataWriter).insert(saved.capture());
+        assertEquals("gzip", saved.getValue().getBlobEncoding());
+        when(fileMetadataRepository.findByTitle("Log Title")).thenReturn(Optional.of(saved.getValue()));
+
+        ResponseEntity<?> gzip = fileStorageService.loadByTitle("Log Title", null, "br;q=1.0, gzip;q=0.8", ConditionalHeaders.NONE).join();
+        assertEquals("gzip", gzip.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(List.of(HttpHeaders.ACCEPT_ENCODING), gzip.getHeaders().getVary());
+        assertEquals("\"" + saved.getValue().getBlobHash() + "-gzip\"", gzip.getHeaders().getETag());
+        FileRegion stored = assertInstanceOf(FileRegion.class, gzip.getBody());
+        assertFalse(stored.isCompressed());
+        assertTrue(stored.getCount() < content.length() / 10);
+
+        ResponseEntity<?> identity = fileStorageService.loadByTitle("Log Title", null, "identity", ConditionalHeaders.NONE).join();
+        assertNull(identity.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals(List.of(HttpHeaders.ACCEPT_ENCODING), identity.getHeaders().getVary());
+        assertEquals(content.length(), identity.getHeaders().getContentLength());
+        assertEquals("\"" + saved.getValue().getBlobHash() + "\"", identity.getHeaders().getETag());
+        assertTrue(assertInstanceOf(FileRegion.class, identity.getBody()).isCompressed());
+
+        ResponseEntity<?> range = fileStorageService.loadByTitle("Log Title", "bytes=18-34", "gzip", ConditionalHeaders.NONE).join();
+        assertEquals(206, range.getStatusCode().value());
+        assertNull(range.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("bytes 18-34/" + content.length(), range.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        FileRegion region = assertInstanceOf(FileRegion.class, range.getBody());
+        assertTrue(region.isCompressed());
+        assertEquals(17, region.getCount());
+    }
+
+    @Test
+    public void testLoadByTitleConditional() throws IOException {
+        StoredBlob blob = blobStore.importFile(Files.writeString(Files.createTempFile("conditional", ".txt"), "0123456789"));
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setFilename("conditional.txt");
+        fileMetadata.setBlobHash(blob.getHash());
+        fileMetadata.setUploadTime(LocalDateTime.of(2024, 6, 30, 12, 0, 0, 250_000_000));
+        when(fileMetadataRepository.findByTitle("Conditional Title")).thenReturn(Optional.of(fileMetadata));
+        String etag = "\"" + blob.getHash() + "\"";
+
+        ResponseEntity<?> full = fileStorageService.loadByTitle("Conditional Title", null, null, ConditionalHeaders.NONE).join();
+        assertEquals(etag, full.getHeaders().getETag());
+        String lastModified = full.getHeaders().getFirst(HttpHeaders.LAST_MODIFIED);
+        assertNotNull(lastModified);
+
+        ResponseEntity<?> notModified = fileStorageService.loadByTitle("Conditional Title", null, null,
+                new ConditionalHeaders("\"other\", W/" + etag, null, null)).join();
+        assertEquals(304, notModified.getStatusCode().value());
+        assertEquals(etag, notModified.getHeaders().getETag());
+        assertNull(notModified.getBody());
+
+        assertEquals(304, fileStorageService.loadByTitle("Conditional Title", null, null,
+                new ConditionalHeaders(null, lastModified, null)).join().getStatusCode().value());
+        // If-None-Match wins over If-Modified-Since
+        assertEquals(200, fileStorageService.loadByTitle("Conditional Title", null, null,
+                new ConditionalHeaders("\"other\"", lastModified, null)).join().getStatusCode().value());
+
+        assertEquals(206, fileStorageService.loadByTitle("Conditional Title", "bytes=2-5", null,
+                new ConditionalHeaders(null, null, etag)).join().getStatusCode().value());
+        assertEquals(206, fileStorageService.loadByTitle("Conditional Title", "bytes=2-5", null,
+                new ConditionalHeaders(null, null, lastModified)).join().getStatusCode().value());
+        ResponseEntity<?> changed = fileStorageService.loadByTitle("Conditional Title", "bytes=2-5", null,
+                new ConditionalHeaders(null, null, "\"other\"")).join();
+        assertEquals(200, changed.getStatusCode().value());
+        assertEquals(10, assertInstanceOf(FileRegion.class, changed.getBody()).getCount());
+    }
+
+    @Test
+    public void testAcceptsGzip() {
+        assertTrue(FileStorageService.acceptsGzip("gzip, deflate, br"));
+        assertTrue(FileStorageService.acceptsGzip("*"));
+        assertTrue(FileStorageService.acceptsGzip("X-GZIP;q=0.5"));
+        assertFalse(FileStorageService.acceptsGzip(null));
+        assertFalse(FileStorageService.acceptsGzip("identity"));
+        assertFalse(FileStorageService.acceptsGzip("gzip;q=0"));
+        assertFalse(FileStorageService.acceptsGzip("gzip;q=0, *"));
+    }
+
+    @Test
+    public void testLoadByTitleServesCachedContent() throws IOException {
+        StoredBlob blob = blobStore.importFile(Files.writeString(Files.createTempFile("cached", ".txt"), "0123456789"));
         FileMetadata fileMetadata = new FileMetadata();
-        fileMetadata.setTitle("Test Title");
-        fileMetadata.setUploadTime(LocalDateTime.now());
+        fileMetadata.setFilename("cached.txt");
+        fileMetadata.setBlobHash(blob.getHash());
+        when(fileMetadataRepository.findByTitle("Cached Title")).thenReturn(Optional.of(fileMetadata));
 
-        when(fileMetadataRepository.findByTitleAndDate(anyString(), any(), any())).thenReturn(List.of(fileMetadata));
+        // the first download is served from disk; the second one is read into the cache
+        ResponseEntity<?> first = fileStorageService.loadByTitle("Cached Title", null, null, ConditionalHeaders.NONE).join();
+        assertNotNull(assertInstanceOf(FileRegion.class, first.getBody()).getFile());
+        fileStorageService.loadByTitle("Cached Title", null, null, ConditionalHeaders.NONE).join();
+        Files.delete(blobStore.resolve(blob.getHash()));
+
+        ResponseEntity<?> response = fileStorageService.loadByTitle("Cached Title", "bytes=2-5", null, ConditionalHeaders.NONE).join();
+        assertEquals(206, response.getStatusCode().value());
+        assertEquals("bytes 2-5/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        FileRegion region = assertInstanceOf(FileRegion.class, response.getBody());
+        assertNull(region.getFile());
+        assertNotNull(region.getContent());
+        assertEquals(2, region.getPosition());
+        assertEquals(4, region.getCount());
+    }
+
+    @Test
+    public void testLoadByTitleSingleRange() throws IOException {
+        Files.write(Paths.get("test-uploads", "range.txt"), "0123456789".getBytes());
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setFilename("range.txt");
+        when(fileMetadataRepository.findByTitle("Range Title")).thenReturn(Optional.of(fileMetadata));
+
+        ResponseEntity<?> response = fileStorageService.loadByTitle("Range Title", "bytes=2-5", null, ConditionalHeaders.NONE).join();
+        assertEquals(206, response.getStatusCode().value());
+        assertEquals("bytes 2-5/10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        FileRegion region = assertInstanceOf(FileRegion.class, response.getBody());
+        assertEquals(2, region.getPosition());
+        assertEquals(4, region.getCount());
+    }
+
+    @Test
+    public void testLoadByTitleMultipleRanges() throws IOException {
+        Files.write(Paths.get("test-uploads", "ranges.txt"), "0123456789".getBytes());
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setFilename("ranges.txt");
+        when(fileMetadataRepository.findByTitle("Ranges Title")).thenReturn(Optional.of(fileMetadata));
+
+        ResponseEntity<?> response = fileStorageService.loadByTitle("Ranges Title", "bytes=0-1, 20-30, -3", null, ConditionalHeaders.NONE).join();
+        assertEquals(206, response.getStatusCode().value());
+        assertEquals("multipart", response.getHeaders().getContentType().getType());
+        assertEquals("byteranges", response.getHeaders().getContentType().getSubtype());
+        MultipartFileRegions regions = assertInstanceOf(MultipartFileRegions.class, response.getBody());
+        assertEquals(2, regions.getRegions().size());
+        assertEquals(7, regions.getRegions().get(1).getPosition());
+        assertEquals(3, regions.getRegions().get(1).getCount());
+        assertEquals(regions.getContentLength(), response.getHeaders().getContentLength());
+    }
+
+    @Test
+    public void testLoadByTitleUnsatisfiableRange() throws IOException {
+        Files.write(Paths.get("test-uploads", "unsatisfiable.txt"), "0123456789".getBytes());
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setFilename("unsatisfiable.txt");
+        when(fileMetadataRepository.findByTitle("Unsatisfiable Title")).thenReturn(Optional.of(fileMetadata));
+
+        ResponseEntity<?> response = fileStorageService.loadByTitle("Unsatisfiable Title", "bytes=10-20", null, ConditionalHeaders.NONE).join();
+        assertEquals(416, response.getStatusCode().value());
+        assertEquals("bytes */10", response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    private String readBlob(String hash) {
+        try {
+            return Files.readString(blobStore.resolve(hash));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    @Test
+    public void testListFilesPagesWithCursor() {
+        FileMetadata first = listed(1L, "First", LocalDateTime.of(2024, 1, 1, 0, 0));
+        FileMetadata second = listed(2L, "Second", LocalDateTime.of(2024, 1, 2, 0, 0));
+        FileMetadata third = listed(3L, "Third", LocalDateTime.of(2024, 1, 3, 0, 0));
+        when(fileMetadataRepository.findPageOrderByUploadTime(PageRequest.ofSize(3))).thenReturn(List.of(first, second, third));
+        when(fileMetadataRepository.findPageOrderByUploadTimeAfter(second.getUploadTime(), 2L, PageRequest.ofSize(3))).thenReturn(List.of(third));
+
+        FilePage page = fileStorageService.listFiles("uploadTime", 2, null).join();
+        assertEquals(List.of(first, second), page.getFiles());
+        assertNotNull(page.getNext());
+
+        FilePage last = fileStorageService.listFiles("uploadTime", 2, page.getNext()).join();
+        assertEquals(List.of(third), last.getFiles());
+        assertNull(last.getNext());
+    }
+
+    @Test
+    public void testListFilesRejectsCursorFromOtherSort() {
+        FileMetadata only = listed(1L, "Only", LocalDateTime.of(2024, 1, 1, 0, 0));
+        when(fileMetadataRepository.findPageOrderByTitle(PageRequest.ofSize(2))).thenReturn(List.of(only, only));
+        String titleCursor = fileStorageService.listFiles("title", 1, null).join().getNext();
+
+        CompletionException exception = assertThrows(CompletionException.class,
+                () -> fileStorageService.listFiles("uploadTime", 1, titleCursor).join());
+        assertInstanceOf(IllegalArgumentException.class, exception.getCause());
+        assertThrows(CompletionException.class, () -> fileStorageService.listFiles("uploadTime", 1, "not a cursor").join());
+        assertThrows(CompletionException.class, () -> fileStorageService.listFiles("size", 1, null).join());
+    }
+
+    private static FileMetadata listed(Long id, String title, LocalDateTime uploadTime) {
+        FileMetadata fileMetadata = new FileMetadata();
+        fileMetadata.setId(id);
+        fileMetadata.setTitle(title);
+        fileMetadata.setUploadTime(uploadTime);
+        return fileMetadata;
+    }
+
+    @Test
+    public void testExportCatalog() throws IOException {
+        FileMetadata first = listed(1L, "First", LocalDateTime.of(2024, 1, 1, 0, 0));
+        first.setFilename("first.txt");
+        first.setDescription("One");
+        FileMetadata second = listed(2L, "Second", LocalDateTime.of(2024, 1, 2, 12, 30));
+        second.setDescription("Two");
+        when(fileMetadataRepository.streamAllOrderById()).thenReturn(Stream.of(first, second));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        fileStorageService.exportCatalog(out);
+
+        assertEquals("{\"title\":\"First\",\"description\":\"One\",\"uploadTime\":\"2024-01-01T00:00:00\"}\n"
+                + "{\"title\":\"Second\",\"description\":\"Two\",\"uploadTime\":\"2024-01-02T12:30:00\"}\n", out.toString());
+        verify(entityManager).detach(first);
+        verify(entityManager).detach(second);
+    }
+
+    @Test
+    public void testFindFiles() {
+        FileMetadata fileMetadata = listed(1L, "Test Title", LocalDateTime.now());
+        fileMetadata.setDescription("Quarterly report");
+        searchIndex.index(fileMetadata);
 
         // get a time before the upload time (1 hour ago here)
-        CompletableFuture<List<String>> result = fileStorageService.findFiles("Test Title", LocalDateTime.now().minusHours(1));
+        CompletableFuture<List<String>> result = fileStorageService.findFiles(
+                new SearchQuery("Test Title", null, LocalDateTime.now().minusHours(1), null, 10));
         assertEquals(1, result.join().size());
         assertEquals("Test Title", result.join().get(0));
+
+        assertEquals(List.of("Test Title"), fileStorageService.findFiles(new SearchQuery(null, "quart* reprot~", null, null, 10)).join());
+    }
+
+    @Test
+    public void testSavedFileIsSearchable() throws IOException {
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getOriginalFilename()).thenReturn("notes.txt");
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream("notes".getBytes()));
+
+        fileStorageService.save(file, "Meeting Notes", "Minutes of the planning meeting").join();
+
+        assertEquals(List.of("Meeting Notes"), fileStorageService.findFiles(new SearchQuery(null, "planning", null, null, 10)).join());
+    }
+
+    @Test
+    public void testSaveReleasesBlobWhenMetadataWriteFails() throws IOException {
+        when(metadataWriter.insert(any(FileMetadata.class))).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("disk full")));
+        MultipartFile file = mock(MultipartFile.class);
+        when(file.getOriginalFilename()).thenReturn("lost.txt");
+        when(file.getInputStream()).thenReturn(new ByteArrayInputStream("lost content".getBytes()));
+
+        assertEquals("Failed to upload file", fileStorageService.save(file, "Lost", "Never recorded").join());
+        ArgumentCaptor<StoredBlob> blob = ArgumentCaptor.forClass(StoredBlob.class);
+        verify(metadataWriter).adjustReferences(blob.capture(), eq(-1));
+        assertTrue(blobRows.isEmpty());
+        assertFalse(Files.exists(blobStore.resolve(blob.getValue().getHash())));
     }
 }
@@ -0,0 +1,249 @@
+package com.nullptr.files.storage;
+
+import com.nullptr.files.config.FileStorageConfig;
+import com.nullptr.files.entity.StoredBlob;
+import com.nullptr.files.repository.MetadataWriter;
+import com.nullptr.files.repository.StoredBlobRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class BlobStoreTest {
+
+    // SHA-256 of "hello"
+    private static final String HELLO_HASH = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @TempDir
+    Path uploadDir;
+
+    @Mock
+    private StoredBlobRepository storedBlobRepository;
+
+    @Mock
+    private MetadataWriter metadataWriter;
+
+    private final Map<String, StoredBlob> rows = new HashMap<>();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final FileChannelPool fileChannelPool = new FileChannelPool(16, Duration.ofSeconds(30), new SimpleMeterRegistry());
+
+    private BlobStore blobStore;
+
+    @BeforeEach
+    void setUp() {
+        MockitoAnnotations.openMocks(this);
+        when(storedBlobRepository.findById(any())).thenAnswer(invocation -> Optional.ofNullable(rows.get(invocation.<String>getArgument(0))));
+        when(metadataWriter.adjustReferences(any(StoredBlob.class), anyInt())).thenAnswer(invocation -> {
+            StoredBlob blob = invocation.getArgument(0);
+            StoredBlob row = rows.getOrDefault(blob.getHash(), blob);
+            row.setRefCount((rows.containsKey(blob.getHash()) ? row.getRefCount() : 0) + invocation.<Integer>getArgument(1));
+            if (row.getRefCount() > 0) {
+                rows.put(blob.getHash(), row);
+            } else {
+                rows.remove(blob.getHash());
+            }
+            return CompletableFuture.completedFuture(row.getRefCount());
+        });
+
+        FileStorageConfig config = new FileStorageConfig();
+        config.setUploadDir(uploadDir.toString());
+        blobStore = new BlobStore(config, new LocalStorageBackend(uploadDir.resolve("blobs")));
+        ReflectionTestUtils.setField(blobStore, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(blobStore, "storedBlobRepository", storedBlobRepository);
+        ReflectionTestUtils.setField(blobStore, "metadataWriter", metadataWriter);
+        ReflectionTestUtils.setField(blobStore, "contentCache", new ContentCache(DataSize.ofBytes(0), DataSize.ofBytes(0), new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(blobStore, "fileChannelPool", fileChannelPool);
+        blobStore.init();
+    }
+
+    @Test
+    public void testWriterStoresContentUnderHash() throws IOException {
+        StoredBlob blob;
+        try (BlobWriter writer = blobStore.newWriter()) {
+            writer.write(ByteBuffer.wrap("he".getBytes()));
+            writer.write(ByteBuffer.wrap("llo".getBytes()));
+            blob = writer.commit();
+        }
+
+        assertEquals(HELLO_HASH, blob.getHash());
+        assertEquals(5, blob.getSize());
+        assertEquals(1, blob.getRefCount());
+        assertEquals(uploadDir.resolve("blobs/2c/f2/" + HELLO_HASH), blobStore.resolve(HELLO_HASH));
+        assertEquals("hello", Files.readString(blobStore.resolve(HELLO_HASH)));
+    }
+
+    @Test
+    public void testNonBlockingWriterStoresContentUnderHash() throws Exception {
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        try (BlobWriter writer = blobStore.newNonBlockingWriter(ioExecutor)) {
+            writer.write(ByteBuffer.wrap("he".getBytes()));
+            writer.write(ByteBuffer.wrap("llo".getBytes()));
+            assertEquals(5, writer.getSize());
+            writer.flush().get();
+            // staging grows past its buffer when a caller hands over more than it holds
+            byte[] large = new byte[200 * 1024];
+            writer.write(ByteBuffer.wrap(large));
+            writer.flush().get();
+            try (var staged = Files.list(uploadDir.resolve(".tmp"))) {
+                assertEquals(5 + large.length, Files.size(staged.findFirst().orElseThrow()));
+            }
+        } finally {
+            ioExecutor.shutdown();
+        }
+
+        ioExecutor = Executors.newSingleThreadExecutor();
+        StoredBlob blob;
+        try (BlobWriter writer = blobStore.newNonBlockingWriter(ioExecutor)) {
+            writer.write(ByteBuffer.wrap("hel".getBytes()));
+            writer.flush().get();
+            writer.write(ByteBuffer.wrap("lo".getBytes()));
+            assertThrows(IOException.class, writer::commit);
+        }
+        try (BlobWriter writer = blobStore.newNonBlockingWriter(ioExecutor)) {
+            writer.write(ByteBuffer.wrap("hel".getBytes()));
+            writer.flush().get();
+            writer.write(ByteBuffer.wrap("lo".getBytes()));
+            writer.flush().get();
+            blob = writer.commit();
+        } finally {
+            ioExecutor.shutdown();
+        }
+
+        assertEquals(HELLO_HASH, blob.getHash());
+        assertEquals(5, blob.getSize());
+        assertEquals("hello", Files.readString(blobStore.resolve(HELLO_HASH)));
+        try (var files = Files.list(uploadDir.resolve(".tmp"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testDuplicateContentIsStoredOnce() throws IOException {
+        Path first = Files.writeString(uploadDir.resolve("first"), "hello");
+        Path second = Files.writeString(uploadDir.resolve("second"), "hello");
+
+        blobStore.importFile(first);
+        StoredBlob blob = blobStore.importFile(second);
+
+        assertEquals(2, blob.getRefCount());
+        assertFalse(Files.exists(first));
+        assertFalse(Files.exists(second));
+        try (var files = Files.walk(uploadDir.resolve("blobs"))) {
+            assertEquals(1, files.filter(Files::isRegularFile).count());
+        }
+        assertEquals(1, meterRegistry.get("file.upload.size").tag("outcome", "stored").summary().count());
+        assertEquals(5, meterRegistry.get("file.upload.size").tag("outcome", "deduplicated").summary().totalAmount());
+    }
+
+    @Test
+    public void testDuplicateOfQueuedBlobIsNotStoredAgain() throws IOException {
+        List<CompletableFuture<Integer>> queued = new ArrayList<>();
+        when(metadataWriter.adjustReferences(any(StoredBlob.class), anyInt())).thenAnswer(invocation -> {
+            CompletableFuture<Integer> write = new CompletableFuture<>();
+            queued.add(write);
+            return write;
+        });
+
+        blobStore.commitAsync(Files.writeString(uploadDir.resolve("first"), "hello"), HELLO_HASH, 5);
+        Path stored = blobStore.resolve(HELLO_HASH);
+        FileTime storedAt = Files.getLastModifiedTime(stored);
+        Path second = Files.writeString(uploadDir.resolve("second"), "hello");
+        blobStore.commitAsync(second, HELLO_HASH, 5);
+
+        assertFalse(Files.exists(second));
+        assertEquals(storedAt, Files.getLastModifiedTime(stored));
+        assertEquals(1, meterRegistry.get("file.upload.size").tag("outcome", "stored").summary().count());
+        assertEquals(1, meterRegistry.get("file.upload.size").tag("outcome", "deduplicated").summary().count());
+
+        // once the writes are done the repository is the record again
+        queued.get(0).complete(1);
+        blobStore.commitAsync(Files.writeString(uploadDir.resolve("third"), "hello"), HELLO_HASH, 5);
+        assertEquals(2, meterRegistry.get("file.upload.size").tag("outcome", "deduplicated").summary().count());
+        queued.forEach(write -> write.complete(2));
+        blobStore.commitAsync(Files.writeString(uploadDir.resolve("fourth"), "hello"), HELLO_HASH, 5);
+        assertEquals(2, meterRegistry.get("file.upload.size").tag("outcome", "stored").summary().count());
+    }
+
+    @Test
+    public void testReleaseDeletesLastReference() throws IOException {
+        blobStore.importFile(Files.writeString(uploadDir.resolve("first"), "hello"));
+        blobStore.importFile(Files.writeString(uploadDir.resolve("second"), "hello"));
+
+        blobStore.release(HELLO_HASH);
+        assertEquals(1, rows.get(HELLO_HASH).getRefCount());
+        assertTrue(Files.exists(blobStore.resolve(HELLO_HASH)));
+        assertEquals(5, fileChannelPool.size(blobStore.resolve(HELLO_HASH)));
+        assertEquals(1, fileChannelPool.openCount());
+
+        blobStore.release(HELLO_HASH);
+        assertFalse(rows.containsKey(HELLO_HASH));
+        assertFalse(Files.exists(blobStore.resolve(HELLO_HASH)));
+        assertEquals(0, fileChannelPool.openCount());
+    }
+
+    @Test
+    public void testCompressibleContentIsStoredCompressed() throws IOException {
+        ReflectionTestUtils.setField(blobStore, "compressionEnabled", true);
+        ReflectionTestUtils.setField(blobStore, "compressionLevel", 6);
+        byte[] random = new byte[4096];
+        new Random(7).nextBytes(random);
+
+        StoredBlob text = blobStore.importFile(Files.writeString(uploadDir.resolve("text"), "hello world\n".repeat(500)));
+        StoredBlob binary = blobStore.importFile(Files.write(uploadDir.resolve("binary"), random));
+        StoredBlob duplicate = blobStore.importFile(Files.writeString(uploadDir.resolve("again"), "hello world\n".repeat(500)));
+
+        assertEquals("gzip", text.getEncoding());
+        assertEquals(6000, text.getSize());
+        assertEquals(6000, BlockGzip.uncompressedLength(blobStore.resolve(text.getHash())));
+        assertTrue(Files.size(blobStore.resolve(text.getHash())) < 1000);
+        assertNull(binary.getEncoding());
+        assertArrayEquals(random, Files.readAllBytes(blobStore.resolve(binary.getHash())));
+        assertEquals("gzip", duplicate.getEncoding());
+        assertEquals(2, duplicate.getRefCount());
+        try (var files = Files.list(uploadDir.resolve(".tmp"))) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testUncommittedWriterLeavesNothingBehind() throws IOException {
+        try (BlobWriter writer = blobStore.newWriter()) {
+            writer.write(ByteBuffer.wrap("partial".getBytes()));
+        }
+
+        try (var files = Files.list(uploadDir.resolve(".tmp"))) {
+            assertEquals(0, files.count());
+        }
+        verify(metadataWriter, never()).adjustReferences(any(), anyInt());
+    }
+}
@@ -0,0 +1,104 @@
+package com.nullptr.files.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockGzipTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testStandardGzipDecodesAllBlocks() throws IOException {
+        byte[] content = logLines(3 * BlockGzip.BLOCK_SIZE + 123);
+        Path compressed = compress(content);
+
+        assertTrue(Files.size(compressed) < content.length / 4);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressed))) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        assertEquals(content.length, BlockGzip.uncompressedLength(compressed));
+        ByteBuffer decoded = BlockGzip.decode(compressed);
+        byte[] bytes = new byte[decoded.remaining()];
+        decoded.get(bytes);
+        assertArrayEquals(content, bytes);
+    }
+
+    @Test
+    public void testTransferUncompressedRanges() throws IOException {
+        byte[] content = logLines(3 * BlockGzip.BLOCK_SIZE + 123);
+        Path compressed = compress(content);
+
+        long[][] ranges = {{0, 10}, {BlockGzip.BLOCK_SIZE - 5, 10}, {100, 2L * BlockGzip.BLOCK_SIZE + 7},
+                {content.length - 1, 1}, {0, content.length}, {BlockGzip.BLOCK_SIZE, 0}};
+        try (FileChannel channel = FileChannel.open(compressed, StandardOpenOption.READ)) {
+            for (long[] range : ranges) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                BlockGzip.transfer(channel, range[0], range[1], Channels.newChannel(out));
+                assertArrayEquals(Arrays.copyOfRange(content, (int) range[0], (int) (range[0] + range[1])), out.toByteArray());
+            }
+            assertThrows(IOException.class, () -> BlockGzip.transfer(channel, content.length - 1, 2, Channels.newChannel(new ByteArrayOutputStream())));
+        }
+    }
+
+    @Test
+    public void testSniffingSkipsContentThatDoesNotShrink() throws IOException {
+        byte[] random = new byte[200_000];
+        new Random(42).nextBytes(random);
+        byte[] gzipMagic = logLines(10_000);
+        gzipMagic[0] = 0x1f;
+        gzipMagic[1] = (byte) 0x8b;
+
+        assertFalse(BlockGzip.compress(write("random", random), tempDir.resolve("random.gz"), 6, true));
+        assertFalse(BlockGzip.compress(write("small", logLines(500)), tempDir.resolve("small.gz"), 6, true));
+        assertFalse(BlockGzip.compress(write("magic", gzipMagic), tempDir.resolve("magic.gz"), 6, true));
+        assertTrue(BlockGzip.compress(write("random", random), tempDir.resolve("forced.gz"), 6, false));
+        assertEquals(random.length, BlockGzip.uncompressedLength(tempDir.resolve("forced.gz")));
+    }
+
+    @Test
+    public void testCorruptBlockIsDetected() throws IOException {
+        byte[] content = logLines(2 * BlockGzip.BLOCK_SIZE);
+        Path compressed = compress(content);
+        byte[] stored = Files.readAllBytes(compressed);
+        stored[stored.length / 2] ^= 0x55;
+        Files.write(compressed, stored);
+
+        assertThrows(IOException.class, () -> BlockGzip.decode(compressed));
+        assertThrows(IOException.class, () -> BlockGzip.uncompressedLength(write("plain", content)));
+    }
+
+    private Path compress(byte[] content) throws IOException {
+        Path compressed = tempDir.resolve("content.gz");
+        assertTrue(BlockGzip.compress(write("content", content), compressed, 6, true));
+        return compressed;
+    }
+
+    private Path write(String name, byte[] content) throws IOException {
+        return Files.write(tempDir.resolve(name), content);
+    }
+
+    private static byte[] logLines(int size) {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; lines.length() < size; i++) {
+            lines.append("2024-06-30T12:00:").append(i % 60).append(" INFO request ").append(i).append(" served in ").append(i % 97).append("ms\n");
+        }
+        return lines.substring(0, size).getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,82 @@
+package com.nullptr.files.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ContentCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testLoadKeepsContentOffHeap() throws IOException {
+        ContentCache cache = new ContentCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+        Path file = Files.writeString(dir.resolve("small"), "small content");
+
+        assertNull(cache.load("hash", file, Files.size(file)));
+        ByteBuffer content = cache.load("hash", file, Files.size(file));
+        assertTrue(content.isDirect());
+        assertTrue(content.isReadOnly());
+        assertEquals("small content", StandardCharsets.UTF_8.decode(content.duplicate()).toString());
+
+        Files.delete(file);
+        assertSame(content, cache.getIfPresent("hash"));
+        assertSame(content, cache.load("hash", file, 13));
+    }
+
+    @Test
+    public void testLargeFilesAreNotCached() throws IOException {
+        ContentCache cache = new ContentCache(DataSize.ofKilobytes(64), DataSize.ofBytes(4), new SimpleMeterRegistry());
+        Path file = Files.writeString(dir.resolve("large"), "too large");
+
+        assertNull(cache.load("hash", file, Files.size(file)));
+        assertNull(cache.getIfPresent("hash"));
+    }
+
+    @Test
+    public void testInvalidate() throws IOException {
+        ContentCache cache = new ContentCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+        Path file = Files.writeString(dir.resolve("gone"), "gone");
+
+        cache.load("hash", file, Files.size(file));
+        assertNotNull(cache.load("hash", file, Files.size(file)));
+        cache.invalidate("hash");
+        assertNull(cache.getIfPresent("hash"));
+    }
+
+    @Test
+    public void testFirstMissIsServedFromFile() throws IOException {
+        ContentCache cache = new ContentCache(DataSize.ofKilobytes(64), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+        Path file = Files.writeString(dir.resolve("once"), "once");
+
+        assertNull(cache.load("once", file, Files.size(file)));
+        assertNull(cache.getIfPresent("once"));
+        for (int i = 0; i < ContentCache.DOORKEEPER_SIZE; i++) {
+            cache.load("other" + i, file, Files.size(file));
+        }
+        // forgotten once the doorkeeper filled up, so this is a first miss again
+        assertNull(cache.load("once", file, Files.size(file)));
+        assertNotNull(cache.load("once", file, Files.size(file)));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws IOException {
+        ContentCache cache = new ContentCache(DataSize.ofBytes(0), DataSize.ofKilobytes(1), new SimpleMeterRegistry());
+        Path file = Files.writeString(dir.resolve("disabled"), "disabled");
+
+        assertFalse(cache.isEnabled());
+        assertNull(cache.load("hash", file, Files.size(file)));
+    }
+}
@@ -0,0 +1,212 @@
+package com.nullptr.files.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileChannelPoolTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private long now;
+
+    private FileChannelPool pool(int maxOpen) {
+        return new FileChannelPool(maxOpen, Duration.ofSeconds(30), meterRegistry, () -> now);
+    }
+
+    @Test
+    public void testConcurrentReadersShareOneChannel() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("shared.txt"), "0123456789");
+
+        FileChannelPool.Lease first = pool.open(file);
+        FileChannelPool.Lease second = pool.open(file);
+        assertSame(first.channel(), second.channel());
+        assertEquals(10, second.size());
+        assertEquals(1, pool.openCount());
+
+        ByteBuffer buffer = ByteBuffer.allocate(3);
+        second.channel().read(buffer, 7);
+        assertEquals("789", new String(buffer.array()));
+
+        first.close();
+        first.close();
+        second.close();
+        assertTrue(second.channel().isOpen());
+        assertEquals(1, meterRegistry.get("file.channel.pool.opened").counter().count());
+    }
+
+    @Test
+    public void testIdleChannelIsReusedUntilItTimesOut() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("idle.txt"), "content");
+
+        FileChannel channel;
+        try (FileChannelPool.Lease lease = pool.open(file)) {
+            channel = lease.channel();
+        }
+        now += 20 * SECOND;
+        pool.evictIdle();
+        try (FileChannelPool.Lease lease = pool.open(file)) {
+            assertSame(channel, lease.channel());
+        }
+
+        now += 31 * SECOND;
+        pool.evictIdle();
+        assertFalse(channel.isOpen());
+        assertEquals(0, pool.openCount());
+        assertEquals(0, meterRegistry.get("file.channel.pool.open").gauge().value());
+    }
+
+    @Test
+    public void testLeasedChannelIsNotEvicted() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("leased.txt"), "content");
+
+        try (FileChannelPool.Lease lease = pool.open(file)) {
+            now += 60 * SECOND;
+            pool.evictIdle();
+            assertTrue(lease.channel().isOpen());
+        }
+        assertEquals(1, pool.openCount());
+    }
+
+    @Test
+    public void testOldestIdleChannelIsClosedPastMaxOpen() throws IOException {
+        FileChannelPool pool = pool(2);
+        Path a = Files.writeString(tempDir.resolve("a.txt"), "a");
+        Path b = Files.writeString(tempDir.resolve("b.txt"), "b");
+        Path c = Files.writeString(tempDir.resolve("c.txt"), "c");
+
+        FileChannel first;
+        try (FileChannelPool.Lease lease = pool.open(a)) {
+            first = lease.channel();
+        }
+        now += SECOND;
+        pool.open(b).close();
+        now += SECOND;
+        pool.open(c).close();
+
+        assertFalse(first.isOpen());
+        assertEquals(2, pool.openCount());
+    }
+
+    @Test
+    public void testChannelLeasedPastMaxOpenClosesWithItsLastLease() throws IOException {
+        FileChannelPool pool = pool(1);
+        Path a = Files.writeString(tempDir.resolve("a.txt"), "a");
+        Path b = Files.writeString(tempDir.resolve("b.txt"), "b");
+
+        FileChannelPool.Lease first = pool.open(a);
+        FileChannelPool.Lease second = pool.open(b);
+        assertEquals(2, pool.openCount());
+
+        first.close();
+        assertFalse(first.channel().isOpen());
+        second.close();
+        assertTrue(second.channel().isOpen());
+        assertEquals(1, pool.openCount());
+    }
+
+    @Test
+    public void testInvalidateSeesReplacedFile() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("replaced.txt"), "old");
+
+        assertEquals(3, pool.size(file));
+        Files.writeString(tempDir.resolve("new.txt"), "newer");
+        Files.move(tempDir.resolve("new.txt"), file, StandardCopyOption.REPLACE_EXISTING);
+        assertEquals(3, pool.size(file));
+
+        pool.invalidate(file);
+        assertEquals(0, pool.openCount());
+        assertEquals(5, pool.size(file));
+    }
+
+    @Test
+    public void testInvalidateLeavesActiveLeasesReading() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("deleted.txt"), "content");
+
+        FileChannelPool.Lease lease = pool.open(file);
+        Files.delete(file);
+        pool.invalidate(file);
+        assertEquals(0, pool.openCount());
+
+        ByteBuffer buffer = ByteBuffer.allocate(7);
+        lease.channel().read(buffer, 0);
+        assertEquals("content", new String(buffer.array()));
+        lease.close();
+        assertFalse(lease.channel().isOpen());
+        assertEquals(-1, pool.size(file));
+    }
+
+    @Test
+    public void testReplacesAChannelClosedUnderItsLeases() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("closed.txt"), "content");
+
+        FileChannelPool.Lease interrupted = pool.open(file);
+        interrupted.channel().close();
+        try (FileChannelPool.Lease next = pool.open(file)) {
+            assertTrue(next.channel().isOpen());
+            interrupted.close();
+            assertTrue(next.channel().isOpen());
+        }
+        assertEquals(1, pool.openCount());
+    }
+
+    @Test
+    public void testUncompressedLengthIsReadOnce() throws IOException {
+        FileChannelPool pool = pool(16);
+        byte[] content = "block gzip ".repeat(1000).getBytes();
+        Path source = Files.write(tempDir.resolve("source.txt"), content);
+        Path compressed = tempDir.resolve("source.gz");
+        BlockGzip.compress(source, compressed, 6, false);
+
+        assertEquals(content.length, pool.uncompressedLength(compressed));
+        try (FileChannelPool.Lease lease = pool.open(compressed)) {
+            assertSame(lease.index(), lease.index());
+            assertEquals(content.length, lease.index().length());
+        }
+    }
+
+    @Test
+    public void testMissingFile() throws IOException {
+        FileChannelPool pool = pool(16);
+        assertThrows(NoSuchFileException.class, () -> pool.open(tempDir.resolve("missing.txt")));
+        assertEquals(-1, pool.size(tempDir.resolve("missing.txt")));
+        assertEquals(-1, pool.uncompressedLength(tempDir.resolve("missing.txt")));
+        assertEquals(0, pool.openCount());
+    }
+
+    @Test
+    public void testDestroyClosesIdleChannels() throws IOException {
+        FileChannelPool pool = pool(16);
+        Path file = Files.writeString(tempDir.resolve("destroy.txt"), "content");
+
+        FileChannel channel;
+        try (FileChannelPool.Lease lease = pool.open(file)) {
+            channel = lease.channel();
+        }
+        pool.destroy();
+        assertFalse(channel.isOpen());
+    }
+}
@@ -0,0 +1,178 @@
+package com.nullptr.files.storage;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredStorageBackendTest {
+
+    private static final String HASH_A = "a".repeat(64);
+    private static final String HASH_B = "b".repeat(64);
+
+    @TempDir
+    Path dir;
+
+    private final MutableClock clock = new MutableClock();
+    private final FileChannelPool pool = new FileChannelPool(16, Duration.ofSeconds(30), new SimpleMeterRegistry());
+    private LocalStorageBackend hot;
+    private LocalStorageBackend cold;
+
+    @BeforeEach
+    void setUp() {
+        hot = new LocalStorageBackend(dir.resolve("hot"));
+        cold = new LocalStorageBackend(dir.resolve("cold"));
+    }
+
+    @Test
+    public void testIdleBlobIsDemotedAndStillReadable() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        backend.store(blob("idle"), HASH_A);
+        assertTrue(backend.isHot(HASH_A));
+
+        clock.advance(Duration.ofMinutes(30));
+        backend.sweep();
+        assertTrue(backend.isHot(HASH_A));
+
+        clock.advance(Duration.ofMinutes(31));
+        backend.sweep();
+        assertFalse(backend.isHot(HASH_A));
+        assertEquals(cold.resolve(HASH_A), backend.resolve(HASH_A));
+        assertEquals("idle", Files.readString(backend.resolve(HASH_A)));
+    }
+
+    @Test
+    public void testDemotionClosesPooledHotChannel() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        backend.store(blob("pooled"), HASH_A);
+        Path hotPath = backend.resolve(HASH_A);
+        assertEquals(6, pool.size(hotPath));
+        assertEquals(1, pool.openCount());
+
+        clock.advance(Duration.ofHours(2));
+        backend.sweep();
+        assertEquals(0, pool.openCount());
+        assertEquals(-1, pool.size(hotPath));
+        assertEquals(cold.resolve(HASH_A), backend.fallback(HASH_A));
+        assertEquals(6, pool.size(backend.fallback(HASH_A)));
+    }
+
+    @Test
+    public void testAccessKeepsBlobHot() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        backend.store(blob("busy"), HASH_A);
+
+        clock.advance(Duration.ofMinutes(50));
+        backend.recordAccess(HASH_A);
+        clock.advance(Duration.ofMinutes(50));
+        backend.sweep();
+        assertTrue(backend.isHot(HASH_A));
+    }
+
+    @Test
+    public void testFrequentlyReadColdBlobIsPromoted() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        backend.store(blob("popular"), HASH_A);
+        clock.advance(Duration.ofHours(2));
+        backend.sweep();
+        assertFalse(backend.isHot(HASH_A));
+
+        for (int i = 0; i < 3; i++) {
+            backend.recordAccess(HASH_A);
+        }
+        backend.sweep();
+        assertTrue(backend.isHot(HASH_A));
+        assertTrue(cold.exists(HASH_A));
+        assertEquals("popular", Files.readString(backend.resolve(HASH_A)));
+    }
+
+    @Test
+    public void testHotCapacityDemotesLeastRecentlyRead() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofDays(1), 3, 6, clock, pool);
+        backend.store(blob("older"), HASH_A);
+        clock.advance(Duration.ofMinutes(1));
+        backend.store(blob("newer"), HASH_B);
+
+        backend.sweep();
+        assertFalse(backend.isHot(HASH_A));
+        assertTrue(backend.isHot(HASH_B));
+    }
+
+    @Test
+    public void testDeleteRemovesBothTiers() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 1, 0, clock, pool);
+        backend.store(blob("gone"), HASH_A);
+        clock.advance(Duration.ofHours(2));
+        backend.sweep();
+        backend.recordAccess(HASH_A);
+        backend.sweep();
+        assertTrue(hot.exists(HASH_A) && cold.exists(HASH_A));
+
+        backend.delete(HASH_A);
+        assertFalse(backend.exists(HASH_A));
+    }
+
+    @Test
+    public void testHotBlobsAreFoundAfterRestart() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        backend.store(blob("kept"), HASH_A);
+
+        TieredStorageBackend restarted = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        assertTrue(restarted.isHot(HASH_A));
+        assertEquals(hot.resolve(HASH_A), restarted.resolve(HASH_A));
+        assertFalse(restarted.isHot(HASH_B));
+        assertEquals(cold.resolve(HASH_B), restarted.resolve(HASH_B));
+    }
+
+    @Test
+    public void testResolveDoesNotCheckTheHotTier() throws IOException {
+        TieredStorageBackend backend = new TieredStorageBackend(hot, cold, Duration.ofHours(1), 3, 0, clock, pool);
+        backend.store(blob("raced"), HASH_A);
+        cold.copy(hot.resolve(HASH_A), HASH_A);
+        // as if a demotion removed the file between resolve and open
+        Files.delete(hot.resolve(HASH_A));
+
+        assertEquals(hot.resolve(HASH_A), backend.resolve(HASH_A));
+        assertEquals("raced", Files.readString(backend.fallback(HASH_A)));
+    }
+
+    private Path blob(String content) throws IOException {
+        return Files.writeString(Files.createTempFile(dir, "blob", ".tmp"), content);
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.nullptr.files.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConditionalHeadersTest {
+
+    // Sun, 30 Jun 2024 12:00:00 GMT plus 250ms
+    private static final long LAST_MODIFIED = 1719748800_250L;
+    private static final String DATE = "Sun, 30 Jun 2024 12:00:00 GMT";
+
+    @Test
+    public void testIfNoneMatch() {
+        assertTrue(new ConditionalHeaders("\"abc\"", null, null).isNotModified(LAST_MODIFIED, "\"abc\""));
+        assertTrue(new ConditionalHeaders("\"x\", W/\"abc\"", null, null).isNotModified(LAST_MODIFIED, "\"abc\""));
+        assertTrue(new ConditionalHeaders("*", null, null).isNotModified(LAST_MODIFIED, (String) null));
+        assertTrue(new ConditionalHeaders("\"abc-gzip\"", null, null).isNotModified(LAST_MODIFIED, "\"abc\"", "\"abc-gzip\""));
+        assertFalse(new ConditionalHeaders("\"x\"", DATE, null).isNotModified(LAST_MODIFIED, "\"abc\""));
+        assertFalse(new ConditionalHeaders("\"abc\"", null, null).isNotModified(LAST_MODIFIED, (String) null));
+        assertFalse(ConditionalHeaders.NONE.isNotModified(LAST_MODIFIED, "\"abc\""));
+    }
+
+    @Test
+    public void testIfModifiedSince() {
+        assertTrue(new ConditionalHeaders(null, DATE, null).isNotModified(LAST_MODIFIED, "\"abc\""));
+        assertTrue(new ConditionalHeaders(null, "Mon, 1 Jul 2024 00:00:00 GMT", null).isNotModified(LAST_MODIFIED));
+        assertFalse(new ConditionalHeaders(null, "Sun, 30 Jun 2024 11:59:59 GMT", null).isNotModified(LAST_MODIFIED));
+        assertFalse(new ConditionalHeaders(null, "yesterday", null).isNotModified(LAST_MODIFIED));
+    }
+
+    @Test
+    public void testIfRange() {
+        assertTrue(ConditionalHeaders.NONE.rangeApplies(LAST_MODIFIED, "\"abc\""));
+        assertTrue(new ConditionalHeaders(null, null, "\"abc\"").rangeApplies(LAST_MODIFIED, "\"abc\""));
+        assertTrue(new ConditionalHeaders(null, null, DATE).rangeApplies(LAST_MODIFIED, "\"abc\""));
+        assertFalse(new ConditionalHeaders(null, null, "W/\"abc\"").rangeApplies(LAST_MODIFIED, "\"abc\""));
+        assertFalse(new ConditionalHeaders(null, null, "\"old\"").rangeApplies(LAST_MODIFIED, "\"abc\""));
+        assertFalse(new ConditionalHeaders(null, null, "\"abc\"").rangeApplies(LAST_MODIFIED, null));
+        assertFalse(new ConditionalHeaders(null, null, "Mon, 1 Jul 2024 00:00:00 GMT").rangeApplies(LAST_MODIFIED, "\"abc\""));
+    }
+}
@@ -0,0 +1,306 @@
+package com.nullptr.files.transfer;
+
+import com.nullptr.files.concurrent.TransferScheduler;
+import com.nullptr.files.storage.BlockGzip;
+import com.nullptr.files.storage.FileChannelPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.DispatcherType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class FileRegionHttpMessageConverterTest {
+
+    @TempDir
+    Path tempDir;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final FileRegionHttpMessageConverter converter = new FileRegionHttpMessageConverter(meterRegistry);
+
+    @Test
+    public void testWriteWholeFile() throws IOException {
+        Path file = tempDir.resolve("whole.txt");
+        Files.writeString(file, "whole file content");
+        FileRegion region = new FileRegion(file, 0, Files.size(file));
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(region, null, outputMessage);
+
+        assertEquals("whole file content", outputMessage.getBodyAsString());
+        assertEquals(Files.size(file), outputMessage.getHeaders().getContentLength());
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, outputMessage.getHeaders().getContentType());
+        assertEquals(Files.size(file), region.getTransferred());
+    }
+
+    @Test
+    public void testLargeRegionIsHandedToSendfile() throws IOException {
+        Path file = Files.write(tempDir.resolve("sendfile.bin"), new byte[128 * 1024]);
+        FileRegion region = new FileRegion(file, 1000, 100_000);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(FileRegionHttpMessageConverter.SENDFILE_SUPPORTED, true);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            converter.write(region, null, outputMessage);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        assertEquals(0, outputMessage.getBodyAsBytes().length);
+        assertEquals(100_000, outputMessage.getHeaders().getContentLength());
+        assertEquals(file.toAbsolutePath().toString(), request.getAttribute(FileRegionHttpMessageConverter.SENDFILE_FILENAME));
+        assertEquals(1000L, request.getAttribute(FileRegionHttpMessageConverter.SENDFILE_START));
+        assertEquals(101_000L, request.getAttribute(FileRegionHttpMessageConverter.SENDFILE_END));
+        assertEquals(100_000, meterRegistry.get("file.download.sendfile").counter().count());
+    }
+
+    @Test
+    public void testDemotableRegionIsCopiedFromFallback() throws IOException {
+        byte[] content = new byte[128 * 1024];
+        new Random(1).nextBytes(content);
+        Path hot = Files.write(tempDir.resolve("hot.bin"), content);
+        Path cold = Files.write(tempDir.resolve("cold.bin"), content);
+        FileRegion region = new FileRegion(hot, cold, false, 0, content.length);
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(FileRegionHttpMessageConverter.SENDFILE_SUPPORTED, true);
+        assertFalse(FileRegionHttpMessageConverter.qualifiesForSendfile(region));
+
+        // demoted after the response was built, before the body is written
+        Files.delete(hot);
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            converter.write(region, null, outputMessage);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        assertArrayEquals(content, outputMessage.getBodyAsBytes());
+        assertNull(request.getAttribute(FileRegionHttpMessageConverter.SENDFILE_FILENAME));
+        assertEquals(0, meterRegistry.get("file.download.sendfile").counter().count());
+    }
+
+    @Test
+    public void testSendfileIsNotUsedOnAsyncDispatch() throws IOException {
+        Path file = Files.write(tempDir.resolve("async.bin"), new byte[128 * 1024]);
+        FileRegion region = new FileRegion(file, 0, Files.size(file));
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setAttribute(FileRegionHttpMessageConverter.SENDFILE_SUPPORTED, true);
+        request.setDispatcherType(DispatcherType.ASYNC);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request));
+        try {
+            converter.write(region, null, outputMessage);
+        } finally {
+            RequestContextHolder.resetRequestAttributes();
+        }
+
+        assertEquals(128 * 1024, outputMessage.getBodyAsBytes().length);
+        assertNull(request.getAttribute(FileRegionHttpMessageConverter.SENDFILE_FILENAME));
+        assertEquals(0, meterRegistry.get("file.download.sendfile").counter().count());
+    }
+
+    @Test
+    public void testWritePartialRegion() throws IOException {
+        Path file = tempDir.resolve("partial.txt");
+        Files.writeString(file, "0123456789");
+        FileRegion region = new FileRegion(file, 3, 4);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(region, null, outputMessage);
+
+        assertEquals("3456", outputMessage.getBodyAsString());
+        assertEquals(4, region.getTransferred());
+    }
+
+    @Test
+    public void testWriteCompressedRegion() throws IOException {
+        Path plain = Files.writeString(tempDir.resolve("plain.txt"), "0123456789".repeat(200));
+        Path compressed = tempDir.resolve("plain.txt.gz");
+        assertTrue(BlockGzip.compress(plain, compressed, 6, true));
+        FileRegion region = new FileRegion(compressed, true, 1985, 10);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(region, null, outputMessage);
+
+        assertEquals("5678901234", outputMessage.getBodyAsString());
+        assertEquals(10, outputMessage.getHeaders().getContentLength());
+        assertEquals(10, region.getTransferred());
+    }
+
+    @Test
+    public void testWriteMultipartRegions() throws IOException {
+        Path file = tempDir.resolve("multipart.txt");
+        Files.writeString(file, "0123456789");
+        MultipartFileRegions regions = new MultipartFileRegions(file, 10,
+                List.of(new FileRegion(file, 0, 2), new FileRegion(file, 7, 3)), "sep", MediaType.TEXT_PLAIN);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(regions, null, outputMessage);
+
+        String expected = "\r\n--sep\r\nContent-Type: text/plain\r\nContent-Range: bytes 0-1/10\r\n\r\n01"
+                + "\r\n--sep\r\nContent-Type: text/plain\r\nContent-Range: bytes 7-9/10\r\n\r\n789"
+                + "\r\n--sep--\r\n";
+        assertEquals(expected, outputMessage.getBodyAsString());
+        assertEquals(expected.length(), outputMessage.getHeaders().getContentLength());
+        assertEquals("multipart/byteranges;boundary=sep", outputMessage.getHeaders().getContentType().toString());
+        assertEquals(5, regions.getTransferred());
+    }
+
+    @Test
+    public void testWriteCachedContent() throws IOException {
+        ByteBuffer content = ByteBuffer.allocateDirect(10).put("0123456789".getBytes()).flip().asReadOnlyBuffer();
+        MultipartFileRegions regions = new MultipartFileRegions(null, 10,
+                List.of(new FileRegion(content, 1, 2), new FileRegion(content, 8, 2)), "sep", MediaType.TEXT_PLAIN);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(regions, null, outputMessage);
+
+        String expected = "\r\n--sep\r\nContent-Type: text/plain\r\nContent-Range: bytes 1-2/10\r\n\r\n12"
+                + "\r\n--sep\r\nContent-Type: text/plain\r\nContent-Range: bytes 8-9/10\r\n\r\n89"
+                + "\r\n--sep--\r\n";
+        assertEquals(expected, outputMessage.getBodyAsString());
+        assertEquals(4, regions.getTransferred());
+        assertEquals(0, content.position());
+    }
+
+    @Test
+    public void testWriteTruncatedFile() throws IOException {
+        Path file = tempDir.resolve("truncated.txt");
+        Files.writeString(file, "short");
+        FileRegion region = new FileRegion(file, 0, 100);
+
+        assertThrows(IOException.class, () -> converter.write(region, null, new MockHttpOutputMessage()));
+        assertEquals(5, region.getTransferred());
+    }
+
+    @Test
+    public void testWriteMissingFile() {
+        FileRegion region = new FileRegion(tempDir.resolve("missing.txt"), 0, 1);
+
+        assertThrows(NoSuchFileException.class, () -> converter.write(region, null, new MockHttpOutputMessage()));
+    }
+
+    @Test
+    public void testMissingFileIsReadFromFallback() throws IOException {
+        Path fallback = Files.writeString(tempDir.resolve("cold.txt"), "0123456789");
+        FileRegion region = new FileRegion(tempDir.resolve("hot.txt"), fallback, false, 2, 4);
+
+        MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+        converter.write(region, null, outputMessage);
+
+        assertEquals("2345", outputMessage.getBodyAsString());
+    }
+
+    @Test
+    public void testNonBlockingWriterReadsMissingFileFromFallback() throws Exception {
+        Path fallback = Files.writeString(tempDir.resolve("cold.txt"), "0123456789");
+        FileRegion region = new FileRegion(tempDir.resolve("hot.txt"), fallback, false, 2, 4);
+
+        assertEquals("2345", writeNonBlocking(region, new FileChannelPool(16, Duration.ofSeconds(30), meterRegistry)));
+        assertEquals(4, region.getTransferred());
+    }
+
+    @Test
+    public void testNonBlockingWriterSharesPooledIndex() throws Exception {
+        Path plain = Files.writeString(tempDir.resolve("pooled.txt"), "0123456789".repeat(200));
+        Path compressed = tempDir.resolve("pooled.txt.gz");
+        assertTrue(BlockGzip.compress(plain, compressed, 6, true));
+        FileChannelPool pool = new FileChannelPool(16, Duration.ofSeconds(30), meterRegistry);
+
+        assertEquals("5678901234", writeNonBlocking(new FileRegion(compressed, true, 1985, 10), pool));
+        assertEquals("0123", writeNonBlocking(new FileRegion(compressed, true, 0, 4), pool));
+        assertEquals(1, meterRegistry.get("file.channel.pool.opened").counter().count());
+    }
+
+    // The mock stream is always ready, so the writer is driven without a write listener.
+    private String writeNonBlocking(FileRegion region, FileChannelPool pool) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        AsyncContext context = mock(AsyncContext.class);
+        when(context.getRequest()).thenReturn(new MockHttpServletRequest());
+        when(context.getResponse()).thenReturn(response);
+        CountDownLatch completed = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            completed.countDown();
+            return null;
+        }).when(context).complete();
+        ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+        try {
+            new NonBlockingRegionWriter(context, region, ioExecutor, meterRegistry, TransferScheduler.unlimited(), pool).onWritePossible();
+            assertTrue(completed.await(5, TimeUnit.SECONDS));
+            return response.getContentAsString();
+        } finally {
+            ioExecutor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCannotRead() {
+        assertTrue(converter.canWrite(FileRegion.class, MediaType.APPLICATION_OCTET_STREAM));
+        assertFalse(converter.canRead(FileRegion.class, MediaType.APPLICATION_OCTET_STREAM));
+    }
+
+    @Test
+    public void testDownloadSizeIsRecorded() throws IOException {
+        Path file = Files.writeString(tempDir.resolve("metered.txt"), "0123456789");
+
+        converter.write(new FileRegion(file, 0, 10), null, new MockHttpOutputMessage());
+        MockHttpOutputMessage rangeMessage = new MockHttpOutputMessage();
+        rangeMessage.getHeaders().set(HttpHeaders.CONTENT_RANGE, "bytes 2-5/10");
+        converter.write(new FileRegion(file, 2, 4), null, rangeMessage);
+
+        assertEquals(10, meterRegistry.get("file.download.size").tags("type", "full", "encoding", "identity").summary().totalAmount());
+        assertEquals(4, meterRegistry.get("file.download.size").tags("type", "range", "encoding", "identity").summary().totalAmount());
+    }
+
+    @Test
+    public void testWriteIsShapedByTransferScheduler() throws IOException {
+        byte[] content = new byte[300 * 1024];
+        new Random(3).nextBytes(content);
+        Path file = Files.write(tempDir.resolve("shaped.bin"), content);
+        // 1MB/s with bursts of 100KB: the first 100KB go at once, the rest take about 0.2s
+        TransferScheduler scheduler = new TransferScheduler(1024 * 1024, 0, 16 * 1024, 0, meterRegistry);
+        try {
+            FileRegionHttpMessageConverter shaped = new FileRegionHttpMessageConverter(meterRegistry, scheduler, new FileChannelPool(16, Duration.ofSeconds(30), meterRegistry));
+            MockHttpOutputMessage outputMessage = new MockHttpOutputMessage();
+            long start = System.nanoTime();
+            shaped.write(new FileRegion(file, 0, content.length), null, outputMessage);
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            assertArrayEquals(content, outputMessage.getBodyAsBytes());
+            assertTrue(elapsedMillis >= 150, "took " + elapsedMillis + "ms");
+            assertTrue(meterRegistry.get("transfer.wait").tag("lane", "bulk").timer().count() > 0);
+        } finally {
+            scheduler.destroy();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.nullptr.files.transfer;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultipartStreamParserTest {
+
+    private static final String BODY = "preamble to ignore\r\n"
+            + "--xyz\r\n"
+            + "Content-Disposition: form-data; name=\"title\"\r\n"
+            + "\r\n"
+            + "Stream Title\r\n"
+            + "--xyz\r\n"
+            + "Content-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "\r\n"
+            + "line one\r\n--xy not a delimiter\r\nline two\r\n"
+            + "--xyz--\r\n"
+            + "epilogue to ignore";
+
+    @Test
+    public void testParseFromChannel() throws IOException {
+        RecordingHandler handler = new RecordingHandler();
+        MultipartStreamParser parser = new MultipartStreamParser("xyz", handler, 0);
+        parser.parse(Channels.newChannel(new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8))));
+
+        assertTrue(parser.isComplete());
+        assertEquals(List.of("form-data; name=\"title\"", "form-data; name=\"file\"; filename=\"a.bin\""), handler.dispositions);
+        assertEquals(List.of("Stream Title", "line one\r\n--xy not a delimiter\r\nline two"), handler.contents);
+    }
+
+    @Test
+    public void testFeedInEveryChunkSize() throws IOException {
+        byte[] body = BODY.getBytes(StandardCharsets.UTF_8);
+        for (int chunkSize = 1; chunkSize <= body.length; chunkSize++) {
+            RecordingHandler handler = new RecordingHandler();
+            MultipartStreamParser parser = new MultipartStreamParser("xyz", handler, 0);
+            for (int offset = 0; offset < body.length; offset += chunkSize) {
+                parser.feed(ByteBuffer.wrap(body, offset, Math.min(chunkSize, body.length - offset)));
+            }
+
+            assertTrue(parser.isComplete(), "chunk size " + chunkSize);
+            assertEquals(List.of("Stream Title", "line one\r\n--xy not a delimiter\r\nline two"), handler.contents,
+                    "chunk size " + chunkSize);
+        }
+    }
+
+    @Test
+    public void testBodyWithoutPreamble() throws IOException {
+        String body = "--b\r\nContent-Disposition: form-data; name=\"description\"\r\n\r\ntext\r\n--b--";
+        RecordingHandler handler = new RecordingHandler();
+        MultipartStreamParser parser = new MultipartStreamParser("b", handler, 0);
+        parser.feed(ByteBuffer.wrap(body.getBytes(StandardCharsets.UTF_8)));
+
+        assertTrue(parser.isComplete());
+        assertEquals(List.of("text"), handler.contents);
+    }
+
+    @Test
+    public void testPartLargerThanBuffer() throws IOException {
+        byte[] payload = new byte[300 * 1024];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (i % 251);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes("--big\r\nContent-Disposition: form-data; name=\"file\"; filename=\"big.bin\"\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        body.writeBytes(payload);
+        body.writeBytes("\r\n--big--\r\n".getBytes(StandardCharsets.US_ASCII));
+
+        RecordingHandler handler = new RecordingHandler();
+        new MultipartStreamParser("big", handler, 0).parse(Channels.newChannel(new ByteArrayInputStream(body.toByteArray())));
+
+        assertArrayEquals(payload, handler.rawContents.get(0));
+    }
+
+    @Test
+    public void testTruncatedBody() {
+        String body = "--b\r\nContent-Disposition: form-data; name=\"title\"\r\n\r\nunterminated";
+        MultipartStreamParser parser = new MultipartStreamParser("b", new RecordingHandler(), 0);
+
+        assertThrows(EOFException.class,
+                () -> parser.parse(Channels.newChannel(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)))));
+        assertFalse(parser.isComplete());
+    }
+
+    private static class RecordingHandler implements MultipartStreamParser.PartHandler {
+
+        private final List<String> dispositions = new ArrayList<>();
+        private final List<String> contents = new ArrayList<>();
+        private final List<byte[]> rawContents = new ArrayList<>();
+        private ByteArrayOutputStream current;
+
+        @Override
+        public void partStarted(HttpHeaders headers) {
+            dispositions.add(headers.getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            current = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void partData(ByteBuffer data) {
+            byte[] bytes = new byte[data.remaining()];
+            data.get(bytes);
+            current.writeBytes(bytes);
+        }
+
+        @Override
+        public void partFinished() {
+            contents.add(current.toString(StandardCharsets.UTF_8));
+            rawContents.add(current.toByteArray());
+        }
+    }
+}
@@ -2,6 +2,10 @@ package com.nullptr.files.validation;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class InputValidatorTest {
@@ -24,4 +28,72 @@ public class InputValidatorTest {
         assertFalse(InputValidator.isValid("Robert'); DROP TABLE students; --"));
         assertFalse(InputValidator.isValid("INSERT INTO users (name, password) VALUES ('admin', 'password')"));
     }
+
+    private static final List<String> KEYWORDS = List.of("SELECT", "INSERT", "UPDATE", "DELETE", "DROP", "TRUNCATE",
+            "EXEC", "EXECUTE", "DECLARE", "UNION", "FETCH", "ALTER", "CREATE", "RENAME", "DESCRIBE");
+
+    // Chars on either side of a keyword that the pattern's \b treats in different ways: ASCII word
+    // chars, non-ASCII letters (including ones that case-fold to ASCII), combining marks, surrogates.
+    private static final List<String> CONTEXTS = List.of("", " ", "a", "Z", "0", "_", "-", ".", "\t", "\n",
+            "\u00e9", "\u017f", "\u212a", "\u0130", "\u0131", "\u0301", "e\u0301", " \u0301", "\u00e9\u0301",
+            "\u0301\u0301", "\ud834\udd67", "e\ud834\udd67", "\ud83d\ude00", "\ud83d", "\ude00", "\u0660", "\u00a0");
+
+    @Test
+    public void testKeywordsAgreeWithPatternInEveryContext() {
+        for (String keyword : KEYWORDS) {
+            for (String spelling : List.of(keyword, keyword.toLowerCase(Locale.ROOT), mixedCase(keyword))) {
+                for (String before : CONTEXTS) {
+                    for (String after : CONTEXTS) {
+                        assertAgreesWithPattern(before + spelling + after);
+                        assertAgreesWithPattern("x " + before + spelling + after + " x");
+                    }
+                }
+            }
+        }
+        assertFalse(InputValidator.isValid("execute"));
+        assertTrue(InputValidator.isValid("executed"));
+        assertFalse(InputValidator.isValid("please_ Execute now"));
+        assertTrue(InputValidator.isValid("please_Execute now"));
+        assertTrue(InputValidator.isValid("\u00e9\u0301select"));
+        assertFalse(InputValidator.isValid("\u00e9select"));
+        assertTrue(InputValidator.isValid("select\u0301"));
+        assertTrue(InputValidator.isValid("dropdown, deleted, unionized"));
+        assertTrue(InputValidator.isValid("a-b - c"));
+    }
+
+    @Test
+    public void testRandomInputsAgreeWithPattern() {
+        String[] fragments = {"select", "SeLeCt", "exec", "execute", "ute", "drop", "dro", "union", "create", "describe",
+                "des", "rename", "alter", "fetch", "truncate", "update", "insert", "delete", "declare", "e", "s", "c",
+                "t", "a", " ", " ", "_", "0", "9", "-", ".", ",", "'", "\"", ";", "\u00e9", "\u0301", "\u017f",
+                "\u212a", "\ud834\udd67", "\ud83d\ude00", "\ud83d", "\ude00", "\n"};
+        Random random = new Random(42);
+        for (int n = 0; n < 200_000; n++) {
+            StringBuilder input = new StringBuilder();
+            int parts = random.nextInt(12);
+            for (int i = 0; i < parts; i++) {
+                input.append(fragments[random.nextInt(fragments.length)]);
+            }
+            assertAgreesWithPattern(input.toString());
+        }
+    }
+
+    private static void assertAgreesWithPattern(String input) {
+        assertEquals(!InputValidator.matchesPattern(input), InputValidator.isValid(input), () -> "input: " + escape(input));
+    }
+
+    private static String mixedCase(String keyword) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < keyword.length(); i++) {
+            char c = keyword.charAt(i);
+            result.append(i % 2 == 0 ? Character.toLowerCase(c) : c);
+        }
+        return result.toString();
+    }
+
+    private static String escape(String input) {
+        StringBuilder result = new StringBuilder();
+        input.chars().forEach(c -> result.append(c < 0x20 || c > 0x7e ? String.format("\\u%04x", c) : String.valueOf((char) c)));
+        return result.toString();
+    }
 }